@@ -0,0 +1,491 @@
+package com.yahoo.ycsb.db;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.DataStoreException;
+import com.yahoo.ycsb.memcached.KetamaRing;
+import com.yahoo.ycsb.memcached.Memcached;
+import com.yahoo.ycsb.memcached.ValueVerifier;
+
+/**
+ * A memcached binding that speaks the binary protocol itself over one
+ * non-blocking MemcachedConnection per server per client thread, picking
+ * the server of each key on the KetamaRing. Requests are encoded
+ * into and responses parsed out of reusable direct buffers, with no IO
+ * thread, queue or future between the caller and the socket, so the client
+ * adds only a few microseconds to each operation.
+ *
+ * set_cost() sends a store with opcode memcached.setcostopcode whose extras
+ * are the flags, expiration time and cost, 4 bytes each; a stock server
+ * rejects it. Keys must be ASCII. An operation that times out returns -5
+ * and one that fails otherwise -2, and the connection is reopened by the
+ * next operation.
+ */
+public class BinaryMemcachedClient extends Memcached {
+	static final byte REQUEST_MAGIC = (byte) 0x80;
+	static final byte RESPONSE_MAGIC = (byte) 0x81;
+	static final int HEADER_LENGTH = 24;
+
+	static final byte GET = 0x00;
+	static final byte SET = 0x01;
+	static final byte ADD = 0x02;
+	static final byte REPLACE = 0x03;
+	static final byte DELETE = 0x04;
+	static final byte INCREMENT = 0x05;
+	static final byte DECREMENT = 0x06;
+	static final byte GETQ = 0x09;
+	static final byte NOOP = 0x0a;
+	static final byte APPEND = 0x0e;
+	static final byte PREPEND = 0x0f;
+
+	static final int STATUS_OK = 0x0000;
+	static final int STATUS_KEY_NOT_FOUND = 0x0001;
+	static final int STATUS_KEY_EXISTS = 0x0002;
+	static final int STATUS_NOT_STORED = 0x0005;
+
+	KetamaRing ring;
+	MemcachedConnection[] conns;
+
+	/**
+	 * The connection of the current exchange.
+	 */
+	MemcachedConnection conn;
+	byte setcostopcode;
+
+	/**
+	 * The servers a batch of keys went to, in the order first used.
+	 */
+	int[] touched;
+	int ntouched;
+	long errors;
+
+	/**
+	 * The header of the current response, which starts at conn.rpos.
+	 */
+	int status;
+	int opaque;
+	long cas;
+	int extlen;
+	int keylen;
+	int bodylen;
+
+	public void init() throws DataStoreException {
+		Config config = Config.getConfig();
+		ring = KetamaRing.getRing();
+		conns = MemcachedConnection.open(ring);
+		conn = conns[0];
+		touched = new int[conns.length];
+		setcostopcode = (byte) config.memcached_set_cost_opcode;
+	}
+
+	public void cleanup() {
+		for (int i = 0; i < conns.length; i++) {
+			conns[i].close();
+		}
+		if (errors > 1) {
+			System.out.println(errors + " operations failed");
+		}
+	}
+
+	/**
+	 * Drop the connections of an exchange after an error; the next operation
+	 * reopens them. Only the first error is printed, and the number of them
+	 * at cleanup, so a failing server does not slow the thread with output.
+	 * Return -5 if the exchange timed out and -2 otherwise.
+	 */
+	int fail(String op, IOException e) {
+		if (errors++ == 0) {
+			System.out.println(op + ": " + e.getMessage());
+		}
+		conn.close();
+		for (int t = 0; t < ntouched; t++) {
+			conns[touched[t]].close();
+		}
+		ntouched = 0;
+		return e instanceof SocketTimeoutException ? -5 : -2;
+	}
+
+	/**
+	 * Start an operation on the server of key, reconnecting if an earlier
+	 * one failed.
+	 */
+	void begin(String key) throws IOException {
+		conn = conns[ring.server(key)];
+		if (!conn.isOpen()) {
+			conn.open();
+		}
+	}
+
+	/**
+	 * Switch to the server of the next key of a batch, noting it as touched
+	 * the first time.
+	 */
+	void batch(String key) throws IOException {
+		begin(key);
+		if (conn.out.position() == 0) {
+			touched[ntouched++] = conn.index;
+		}
+	}
+
+	/**
+	 * Append a request header to out, making room for the whole request. The
+	 * caller then appends the extras, key and value, in that order.
+	 */
+	void header(byte opcode, String key, int extlen, int valuelen, int opaque, long cas) {
+		int keylen = key == null ? 0 : key.length();
+		int bodylen = extlen + keylen + valuelen;
+		conn.reserve(HEADER_LENGTH + bodylen);
+		ByteBuffer out = conn.out;
+		out.put(REQUEST_MAGIC);
+		out.put(opcode);
+		out.putShort((short) keylen);
+		out.put((byte) extlen);
+		out.put((byte) 0);
+		out.putShort((short) 0);
+		out.putInt(bodylen);
+		out.putInt(opaque);
+		out.putLong(cas);
+	}
+
+	/**
+	 * Append a store request: a set, add, replace or CAS, or with costed a
+	 * set_cost, whose extras carry the cost after the expiration time.
+	 */
+	void putStore(byte opcode, String key, Object value, int exptime, boolean costed, int cost, long cas, int opaque) {
+		header(opcode, key, costed ? 12 : 8, MemcachedConnection.valueLength(value), opaque, cas);
+		conn.out.putInt(0);
+		conn.out.putInt(exptime);
+		if (costed) {
+			conn.out.putInt(cost);
+		}
+		conn.putAscii(key);
+		conn.putValue(value);
+	}
+
+	/**
+	 * Wait for the next response and parse its header, consuming the one
+	 * before it.
+	 */
+	void receive() throws IOException {
+		if (bodylen >= 0) {
+			conn.consume(HEADER_LENGTH + bodylen);
+		}
+		bodylen = -1;
+		conn.fill(HEADER_LENGTH);
+		ByteBuffer in = conn.in;
+		int rpos = conn.rpos;
+		if (in.get(rpos) != RESPONSE_MAGIC) {
+			throw new IOException("Bad response magic " + in.get(rpos) + " from " + conn.address);
+		}
+		keylen = in.getShort(rpos + 2) & 0xffff;
+		extlen = in.get(rpos + 4) & 0xff;
+		status = in.getShort(rpos + 6) & 0xffff;
+		opaque = in.getInt(rpos + 12);
+		cas = in.getLong(rpos + 16);
+		int length = in.getInt(rpos + 8);
+		if (length < extlen + keylen) {
+			throw new IOException("Bad response length " + length + " from " + conn.address);
+		}
+		conn.fill(HEADER_LENGTH + length);
+		bodylen = length;
+	}
+
+	/**
+	 * Copy the value of the current response out of the buffer.
+	 */
+	byte[] responseValue() {
+		return conn.bytes(conn.rpos + HEADER_LENGTH + extlen + keylen, bodylen - extlen - keylen);
+	}
+
+	/**
+	 * Start an exchange once its requests are in out.
+	 */
+	void send() throws IOException {
+		bodylen = -1;
+		conn.send();
+	}
+
+	/**
+	 * End an exchange whose responses have all been read.
+	 */
+	void finish() {
+		if (bodylen >= 0) {
+			conn.consume(HEADER_LENGTH + bodylen);
+			bodylen = -1;
+		}
+		conn.finish();
+	}
+
+	/**
+	 * The return code of a store or mutation: -1 if the key was in the wrong
+	 * state for it, -2 for any other error.
+	 */
+	int storeResult() {
+		if (status == STATUS_OK) {
+			return 0;
+		} else if (status == STATUS_KEY_NOT_FOUND || status == STATUS_KEY_EXISTS || status == STATUS_NOT_STORED) {
+			return -1;
+		}
+		return -2;
+	}
+
+	int store(String op, byte opcode, String key, Object value, int exptime, boolean costed, int cost, long cas) {
+		try {
+			begin(key);
+			putStore(opcode, key, value, exptime, costed, cost, cas, 0);
+			send();
+			receive();
+			finish();
+			return storeResult();
+		} catch (IOException e) {
+			return fail(op, e);
+		}
+	}
+
+	int simple(String op, byte opcode, String key, Object value, long cas) {
+		try {
+			begin(key);
+			header(opcode, key, 0, value == null ? 0 : MemcachedConnection.valueLength(value), 0, cas);
+			conn.putAscii(key);
+			if (value != null) {
+				conn.putValue(value);
+			}
+			send();
+			receive();
+			finish();
+			return storeResult();
+		} catch (IOException e) {
+			return fail(op, e);
+		}
+	}
+
+	int mutate(String op, byte opcode, String key, Object value) {
+		try {
+			begin(key);
+			header(opcode, key, 20, 0, 0, 0);
+			conn.out.putLong(SpymemcachedClient.amount(value));
+			conn.out.putLong(0);
+			// An expiration of all ones makes a missing key fail rather than be created
+			conn.out.putInt(-1);
+			conn.putAscii(key);
+			send();
+			receive();
+			finish();
+			return storeResult();
+		} catch (IOException e) {
+			return fail(op, e);
+		}
+	}
+
+	@Override
+	public int add(String key, Object value) {
+		return add(key, value, 0);
+	}
+
+	@Override
+	public int add(String key, Object value, int exptime) {
+		return store("ADD", ADD, key, value, exptime, false, 0, 0);
+	}
+
+	@Override
+	public int append(String key, long cas, Object value) {
+		return simple("APPEND", APPEND, key, value, cas);
+	}
+
+	@Override
+	public int cas(String key, long cas, Object value) {
+		return store("CAS", SET, key, value, 0, false, 0, cas);
+	}
+
+	@Override
+	public int decr(String key, Object value) {
+		return mutate("DECR", DECREMENT, key, value);
+	}
+
+	@Override
+	public int delete(String key) {
+		return simple("DELETE", DELETE, key, null, 0);
+	}
+
+	@Override
+	public int incr(String key, Object value) {
+		return mutate("INCR", INCREMENT, key, value);
+	}
+
+	@Override
+	public int get(String key, Object value) {
+		try {
+			begin(key);
+			header(GET, key, 0, 0, 0, 0);
+			conn.putAscii(key);
+			send();
+			receive();
+			int ret = 0;
+			if (status == STATUS_KEY_NOT_FOUND) {
+				ret = -1;
+			} else if (status != STATUS_OK) {
+				ret = -2;
+			} else if (value instanceof ValueVerifier && !((ValueVerifier) value).verify(key, responseValue())) {
+				ret = -4;
+			}
+			finish();
+			return ret;
+		} catch (IOException e) {
+			return fail("GET", e);
+		}
+	}
+
+	/**
+	 * End the batch on each touched server with a no-op tagged count, and
+	 * start sending, so the servers work on their parts at once.
+	 */
+	void sendBatch(int count) throws IOException {
+		for (int t = 0; t < ntouched; t++) {
+			conn = conns[touched[t]];
+			header(NOOP, null, 0, 0, count, 0);
+			send();
+		}
+	}
+
+	/**
+	 * Read the responses of a batch from each touched server up to its
+	 * no-op. Responses are tagged with the index of their key. Get hits are
+	 * marked in hits, if given, and their values verified; the return code of
+	 * the batch is returned.
+	 */
+	int receiveBatch(String[] keys, int count, boolean[] hits, Object value) throws IOException {
+		int ret = 0;
+		for (int t = 0; t < ntouched; t++) {
+			conn = conns[touched[t]];
+			while (true) {
+				receive();
+				if (opaque == count) {
+					break;
+				} else if (opaque < 0 || opaque > count) {
+					throw new IOException("Unexpected response " + opaque + " from " + conn.address);
+				}
+				if (hits == null) {
+					int res = storeResult();
+					if (res != 0) {
+						ret = res;
+					}
+				} else if (status == STATUS_OK) {
+					hits[opaque] = true;
+					if (value instanceof ValueVerifier && !((ValueVerifier) value).verify(keys[opaque], responseValue())) {
+						hits[opaque] = false;
+						ret = -4;
+					}
+				} else if (status != STATUS_KEY_NOT_FOUND) {
+					ret = -2;
+				}
+			}
+			finish();
+		}
+		ntouched = 0;
+		return ret;
+	}
+
+	/**
+	 * Send a quiet get for every key to its server, followed by a no-op to
+	 * each server. Only hits are answered, each tagged with the index of its
+	 * key, and the no-op's response marks the end of a server's part.
+	 */
+	@Override
+	public int get_multi(String[] keys, int count, boolean[] hits, Object value) {
+		try {
+			ntouched = 0;
+			for (int i = 0; i < count; i++) {
+				hits[i] = false;
+				batch(keys[i]);
+				header(GETQ, keys[i], 0, 0, i, 0);
+				conn.putAscii(keys[i]);
+			}
+			sendBatch(count);
+			return receiveBatch(keys, count, hits, value);
+		} catch (IOException e) {
+			return fail("MULTIGET", e);
+		}
+	}
+
+	/**
+	 * Send all the stores before reading any response, so they are
+	 * pipelined on the connections.
+	 */
+	@Override
+	public int set_multi(String[] keys, Object[] values, int[] costs, int[] exptimes, int count) {
+		try {
+			ntouched = 0;
+			for (int i = 0; i < count; i++) {
+				int exptime = exptimes == null ? 0 : exptimes[i];
+				batch(keys[i]);
+				if (costs == null) {
+					putStore(SET, keys[i], values[i], exptime, false, 0, 0, i);
+				} else {
+					putStore(setcostopcode, keys[i], values[i], exptime, true, costs[i], 0, i);
+				}
+			}
+			sendBatch(count);
+			return receiveBatch(keys, count, null, null);
+		} catch (IOException e) {
+			return fail("MULTISET", e);
+		}
+	}
+
+	@Override
+	public long gets(String key) {
+		try {
+			begin(key);
+			header(GET, key, 0, 0, 0, 0);
+			conn.putAscii(key);
+			send();
+			receive();
+			finish();
+			return status == STATUS_OK ? cas : -1;
+		} catch (IOException e) {
+			return fail("GETS", e);
+		}
+	}
+
+	@Override
+	public int prepend(String key, long cas, Object value) {
+		return simple("PREPEND", PREPEND, key, value, cas);
+	}
+
+	@Override
+	public int replace(String key, Object value) {
+		return replace(key, value, 0);
+	}
+
+	@Override
+	public int replace(String key, Object value, int exptime) {
+		return store("REPLACE", REPLACE, key, value, exptime, false, 0, 0);
+	}
+
+	@Override
+	public int set(String key, Object value, int load) {
+		return set(key, value, load, 0);
+	}
+
+	@Override
+	public int set(String key, Object value, int load, int exptime) {
+		return store("SET", SET, key, value, exptime, false, 0, 0);
+	}
+
+	@Override
+	public int set_cost(String key, Object value, int load, int cost) {
+		return set_cost(key, value, load, cost, 0);
+	}
+
+	@Override
+	public int set_cost(String key, Object value, int load, int cost, int exptime) {
+		return store("SET", setcostopcode, key, value, exptime, true, cost, 0);
+	}
+
+	@Override
+	public int update(String key, Object value) {
+		return set(key, value, 0);
+	}
+}
@@ -0,0 +1,236 @@
+package com.yahoo.ycsb.db;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.DataStoreException;
+import com.yahoo.ycsb.memcached.Memcached;
+import com.yahoo.ycsb.memcached.MetaResult;
+import com.yahoo.ycsb.memcached.ValueVerifier;
+import com.yahoo.ycsb.memcached.cache.Cache;
+import com.yahoo.ycsb.memcached.cache.EvictionPolicy;
+import com.yahoo.ycsb.memcached.cache.Item;
+import com.yahoo.ycsb.memcached.cache.Slabs;
+
+/**
+ * A memcached binding that sends nothing over the network: all client
+ * threads share one in-process Cache of memcached.simmemory megabytes,
+ * evicting by memcached.simpolicy (lru, lfu, gds, gdwheel or arc), and, with
+ * memcached.simslabs, within memcached's slab classes grown by
+ * memcached.simgrowthfactor. Eviction policies can so be compared on a
+ * workload without rebuilding or redeploying a server.
+ *
+ * Values are kept as the workload passed them, without copying, and the
+ * cache remembers the cost of every key that leaves it, so a miss is
+ * charged the cost of the key missed. When the last client thread cleans
+ * up, the totals so far are printed like ClientThreadPool's, with the hit
+ * ratio; misses of keys never stored are counted apart, as their cost is
+ * not known. The cache lives as long as the process, across phases.
+ */
+public class CacheSimulatorClient extends Memcached {
+	static Cache cache;
+	static int clients;
+	static long totalsets;
+
+	long sets;
+
+	public void init() throws DataStoreException {
+		synchronized (CacheSimulatorClient.class) {
+			if (cache == null) {
+				cache = newCache();
+			}
+			clients++;
+		}
+	}
+
+	static Cache newCache() throws DataStoreException {
+		Config config = Config.getConfig();
+		long limit = config.memcached_sim_memory * 1024L * 1024L;
+		Cache c;
+		try {
+			if (config.memcached_sim_slabs) {
+				c = new Cache(limit, new Slabs(limit, config.memcached_sim_policy, config.memcached_sim_growth));
+			} else {
+				c = new Cache(limit, EvictionPolicy.create(config.memcached_sim_policy));
+			}
+		} catch (IllegalArgumentException e) {
+			throw new DataStoreException(e.getMessage(), e);
+		}
+		c.trackMissCost();
+		return c;
+	}
+
+	public void cleanup() {
+		synchronized (CacheSimulatorClient.class) {
+			totalsets += sets;
+			sets = 0;
+			if (--clients == 0) {
+				report();
+			}
+		}
+	}
+
+	static void report() {
+		Config config = Config.getConfig();
+		long gets;
+		long misses;
+		synchronized (cache) {
+			gets = cache.hits + cache.misses;
+			misses = cache.misses;
+			System.out.println("Cache Simulator Done. Total Miss Cost = " + cache.misscost + " Total Miss = " + misses
+					+ " Cold Miss = " + cache.coldmisses + " Num Get = " + gets + " Num Set = " + totalsets
+					+ " Hit Ratio = " + (gets == 0 ? 0 : (double) (gets - misses) / gets) + " Evictions = "
+					+ cache.evictions + " Evicted Cost = " + cache.evictedcost + " Policy = "
+					+ config.memcached_sim_policy + (config.memcached_sim_slabs ? " with slabs" : ""));
+		}
+	}
+
+	Item item(String key, Object value, int exptime, int cost) {
+		return new Item(key, valueBytes(value), 0, Cache.expiry(exptime), cost);
+	}
+
+	int store(int mode, Item item, long cas) {
+		sets++;
+		return cache.store(mode, item, cas) == Cache.STORED ? 0 : -1;
+	}
+
+	@Override
+	public int add(String key, Object value) {
+		return add(key, value, 0);
+	}
+
+	@Override
+	public int add(String key, Object value, int exptime) {
+		return store(Cache.ADD, item(key, value, exptime, 1), 0);
+	}
+
+	@Override
+	public int append(String key, long cas, Object value) {
+		return store(Cache.APPEND, item(key, value, 0, 1), 0);
+	}
+
+	@Override
+	public int cas(String key, long cas, Object value) {
+		return store(Cache.CAS, item(key, value, 0, 1), cas);
+	}
+
+	@Override
+	public int decr(String key, Object value) {
+		return mutate(key, value, true);
+	}
+
+	@Override
+	public int delete(String key) {
+		return cache.delete(key, 0) == Cache.DELETED ? 0 : -1;
+	}
+
+	@Override
+	public int incr(String key, Object value) {
+		return mutate(key, value, false);
+	}
+
+	/**
+	 * An incr or decr; a missing key returns -1 and a value that is not a
+	 * number -2.
+	 */
+	int mutate(String key, Object value, boolean decr) {
+		long res = cache.incr(key, SpymemcachedClient.amount(value), decr);
+		if (res == -Cache.NOT_FOUND) {
+			return -1;
+		}
+		return res < 0 ? -2 : 0;
+	}
+
+	@Override
+	public int get(String key, Object value) {
+		Item item = cache.get(key);
+		if (item == null) {
+			return -1;
+		}
+		cache.fetched(item);
+		if (value instanceof ValueVerifier && !((ValueVerifier) value).verify(key, item.value)) {
+			return -4;
+		}
+		return 0;
+	}
+
+	@Override
+	public long gets(String key) {
+		Item item = cache.get(key);
+		if (item == null) {
+			return -1;
+		}
+		cache.fetched(item);
+		return item.cas;
+	}
+
+	@Override
+	public int prepend(String key, long cas, Object value) {
+		return store(Cache.PREPEND, item(key, value, 0, 1), 0);
+	}
+
+	@Override
+	public int replace(String key, Object value) {
+		return replace(key, value, 0);
+	}
+
+	@Override
+	public int replace(String key, Object value, int exptime) {
+		return store(Cache.REPLACE, item(key, value, exptime, 1), 0);
+	}
+
+	@Override
+	public int set(String key, Object value, int load) {
+		return set(key, value, load, 0);
+	}
+
+	@Override
+	public int set(String key, Object value, int load, int exptime) {
+		return store(Cache.SET, item(key, value, exptime, 1), 0);
+	}
+
+	@Override
+	public int set_cost(String key, Object value, int load, int cost) {
+		return set_cost(key, value, load, cost, 0);
+	}
+
+	@Override
+	public int set_cost(String key, Object value, int load, int cost, int exptime) {
+		return store(Cache.SET, item(key, value, exptime, cost), 0);
+	}
+
+	@Override
+	public int update(String key, Object value) {
+		return set(key, value, 0);
+	}
+
+	@Override
+	public int meta_get(String key, Object value, MetaResult meta) {
+		meta.reset();
+		Item item = cache.get(key);
+		if (item == null) {
+			return -1;
+		}
+		long now = Cache.now();
+		meta.hit = true;
+		meta.size = item.value.length;
+		meta.ttl = item.exptime == 0 ? -1 : (int) Math.max(0, item.exptime - now);
+		meta.lastaccess = (int) (now - item.lastaccess);
+		meta.fetched = item.fetched ? 1 : 0;
+		meta.cas = item.cas;
+		cache.fetched(item);
+		if (value instanceof ValueVerifier && !((ValueVerifier) value).verify(key, item.value)) {
+			return -4;
+		}
+		return 0;
+	}
+
+	@Override
+	public int meta_set(String key, Object value, int exptime, MetaResult meta) {
+		meta.reset();
+		Item item = item(key, value, exptime, 1);
+		int ret = store(Cache.SET, item, 0);
+		if (ret == 0) {
+			meta.cas = item.cas;
+		}
+		return ret;
+	}
+}
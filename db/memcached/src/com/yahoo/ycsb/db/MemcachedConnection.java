@@ -0,0 +1,318 @@
+package com.yahoo.ycsb.db;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.DataStoreException;
+import com.yahoo.ycsb.memcached.KetamaRing;
+import com.yahoo.ycsb.memcached.Memcached;
+
+/**
+ * A non-blocking connection to a memcached server with reusable direct
+ * buffers, shared by the NIO bindings. A binding appends requests to out and
+ * calls send(), then parses the responses in place in in, starting at rpos,
+ * calling fill() or line() to read more and consume() once done with each.
+ * finish() ends the exchange. Not thread safe.
+ *
+ * While waiting, the channel is polled memcached.spinreads times before
+ * blocking in a Selector, and an exchange that takes longer than
+ * memcached.timeout milliseconds fails with a SocketTimeoutException, which
+ * the bindings return as -5.
+ */
+class MemcachedConnection {
+	static final int BUFFER_SIZE = 1 << 16;
+
+	InetSocketAddress address;
+
+	/**
+	 * The index of the server on the KetamaRing.
+	 */
+	int index;
+	int spinreads;
+	long timeout;
+
+	SocketChannel channel;
+	Selector selector;
+	SelectionKey selectionkey;
+	long deadline;
+
+	/**
+	 * Requests, appended from position 0, then flipped by send() to be
+	 * written and cleared by finish().
+	 */
+	ByteBuffer out;
+	boolean sending;
+
+	/**
+	 * Responses, filled by reads. Consumed responses stay in the buffer until
+	 * finish(), or until room is needed.
+	 */
+	ByteBuffer in;
+
+	/**
+	 * Where the first unconsumed response byte is in in.
+	 */
+	int rpos;
+
+	/**
+	 * For the text bindings: whether noreply stores have been sent since the
+	 * last fence, and how many of them are still waiting in out.
+	 */
+	boolean loading;
+	int pending;
+
+	MemcachedConnection(InetSocketAddress address, int index) {
+		Config config = Config.getConfig();
+		this.address = address;
+		this.index = index;
+		spinreads = config.memcached_spin_reads;
+		timeout = config.memcached_timeout * 1000000L;
+		out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	/**
+	 * Open a connection to every server of the ring.
+	 */
+	static MemcachedConnection[] open(KetamaRing ring) throws DataStoreException {
+		MemcachedConnection[] conns = new MemcachedConnection[ring.size()];
+		for (int i = 0; i < conns.length; i++) {
+			conns[i] = new MemcachedConnection(ring.address(i), i);
+			try {
+				conns[i].open();
+			} catch (IOException e) {
+				throw new DataStoreException("Could not connect to " + conns[i].address, e);
+			}
+		}
+		return conns;
+	}
+
+	boolean isOpen() {
+		return channel != null;
+	}
+
+	void open() throws IOException {
+		channel = SocketChannel.open(address);
+		channel.socket().setTcpNoDelay(true);
+		channel.configureBlocking(false);
+		selector = Selector.open();
+		selectionkey = channel.register(selector, SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Close the connection and drop anything buffered, so a response still on
+	 * its way cannot be taken for the answer to a later request. Load stores
+	 * not yet flushed are lost.
+	 */
+	void close() {
+		if (channel != null) {
+			try {
+				selector.close();
+				channel.close();
+			} catch (IOException e) {
+			}
+			channel = null;
+		}
+		out.clear();
+		sending = false;
+		in.clear();
+		rpos = 0;
+		loading = false;
+		pending = 0;
+	}
+
+	/**
+	 * Make room to append length bytes to out.
+	 */
+	void reserve(int length) {
+		if (out.remaining() < length) {
+			ByteBuffer buf = ByteBuffer.allocateDirect(Math.max(out.capacity() * 2, out.position() + length));
+			out.flip();
+			buf.put(out);
+			out = buf;
+		}
+	}
+
+	/**
+	 * Append a key or command word; it must be ASCII.
+	 */
+	void putAscii(String s) {
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			out.put((byte) s.charAt(i));
+		}
+	}
+
+	/**
+	 * Append a number in decimal, without building a String.
+	 */
+	void putDecimal(long n) {
+		if (n < 0) {
+			out.put((byte) '-');
+			n = -n;
+		}
+		long div = 1;
+		while (div <= n / 10) {
+			div *= 10;
+		}
+		while (div > 0) {
+			out.put((byte) ('0' + (n / div) % 10));
+			div /= 10;
+		}
+	}
+
+	void putValue(Object value) {
+		if (value instanceof byte[]) {
+			out.put((byte[]) value);
+		} else if (value instanceof ByteBuffer) {
+			out.put(((ByteBuffer) value).duplicate());
+		} else {
+			out.put(Memcached.valueBytes(value));
+		}
+	}
+
+	static int valueLength(Object value) {
+		if (value instanceof byte[]) {
+			return ((byte[]) value).length;
+		} else if (value instanceof ByteBuffer) {
+			return ((ByteBuffer) value).remaining();
+		}
+		return Memcached.valueBytes(value).length;
+	}
+
+	/**
+	 * Start writing the requests in out. The rest is written while waiting
+	 * for responses, so a pipeline of any length cannot deadlock with the
+	 * server.
+	 */
+	void send() throws IOException {
+		out.flip();
+		sending = true;
+		deadline = System.nanoTime() + timeout;
+		channel.write(out);
+	}
+
+	/**
+	 * Write all the requests in out without waiting for responses, after
+	 * which more can be appended. Responses that arrive meanwhile are read
+	 * into in.
+	 */
+	void flush() throws IOException {
+		send();
+		int spins = 0;
+		while (out.hasRemaining()) {
+			if (channel.write(out) == 0) {
+				room(in.position() - rpos + 1);
+				if (channel.read(in) < 0) {
+					throw new IOException("Connection closed by " + address);
+				}
+				if (++spins > spinreads) {
+					await();
+				}
+			}
+		}
+		out.clear();
+		sending = false;
+	}
+
+	/**
+	 * Make sure at least length response bytes are available from rpos.
+	 */
+	void fill(int length) throws IOException {
+		int spins = 0;
+		while (in.position() - rpos < length) {
+			room(length);
+			if (sending && out.hasRemaining()) {
+				channel.write(out);
+			}
+			int n = channel.read(in);
+			if (n < 0) {
+				throw new IOException("Connection closed by " + address);
+			} else if (n == 0 && ++spins > spinreads) {
+				await();
+			}
+		}
+	}
+
+	/**
+	 * Return the index in in of the '\n' that ends the line at rpos, reading
+	 * until it has arrived.
+	 */
+	int line() throws IOException {
+		int scanned = 0;
+		while (true) {
+			int end = in.position();
+			for (int i = rpos + scanned; i < end; i++) {
+				if (in.get(i) == '\n') {
+					return i;
+				}
+			}
+			scanned = end - rpos;
+			fill(scanned + 1);
+		}
+	}
+
+	void consume(int length) {
+		rpos += length;
+	}
+
+	/**
+	 * End an exchange whose responses have all been consumed.
+	 */
+	void finish() {
+		out.clear();
+		sending = false;
+		if (rpos == in.position()) {
+			in.clear();
+			rpos = 0;
+		}
+	}
+
+	/**
+	 * Make sure length bytes fit in in from rpos on, moving the unconsumed
+	 * bytes to the front of the buffer or growing the buffer.
+	 */
+	void room(int length) {
+		if (rpos + length <= in.capacity()) {
+			return;
+		}
+		in.flip();
+		in.position(rpos);
+		if (length <= in.capacity()) {
+			in.compact();
+		} else {
+			ByteBuffer buf = ByteBuffer.allocateDirect(Math.max(length, in.capacity() * 2));
+			buf.put(in);
+			in = buf;
+		}
+		rpos = 0;
+	}
+
+	void await() throws IOException {
+		long left = deadline - System.nanoTime();
+		if (left <= 0) {
+			throw new SocketTimeoutException("Timed out waiting for " + address);
+		}
+		selectionkey.interestOps(sending && out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		selector.select(Math.max(1, left / 1000000));
+		selector.selectedKeys().clear();
+	}
+
+	/**
+	 * Copy length response bytes at index out of the buffer.
+	 */
+	byte[] bytes(int index, int length) {
+		byte[] data = new byte[length];
+		ByteBuffer buf = in.duplicate();
+		buf.limit(index + length);
+		buf.position(index);
+		buf.get(data);
+		return data;
+	}
+}
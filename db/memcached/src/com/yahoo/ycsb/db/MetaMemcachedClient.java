@@ -0,0 +1,319 @@
+package com.yahoo.ycsb.db;
+
+import java.io.IOException;
+
+import com.yahoo.ycsb.memcached.MetaResult;
+import com.yahoo.ycsb.memcached.ValueVerifier;
+
+/**
+ * A text protocol binding that uses the meta commands of memcached 1.6 and
+ * later. Gets are mg, sets are ms, deletes are md, and load stores are ms
+ * with the q flag, fenced off with mn. meta_get() asks for the remaining TTL,
+ * last access time, fetched flag and CAS in the same mg, so they cost no
+ * extra request. get_multi() sends one quiet mg per key, tagged with the
+ * key's index as its opaque, and then an mn to each server; only hits are
+ * answered.
+ *
+ * The meta protocol has no form of set_cost(), so it is sent as a text set
+ * with the cost, as by TextMemcachedClient. So are add, replace, append,
+ * prepend, cas, incr and decr.
+ */
+public class MetaMemcachedClient extends TextMemcachedClient {
+	static final byte[] MG = "mg ".getBytes();
+	static final byte[] MS = "ms ".getBytes();
+	static final byte[] MD = "md ".getBytes();
+	static final byte[] MN = "mn\r\n".getBytes();
+	static final byte[] GET_FLAGS = " v\r\n".getBytes();
+	static final byte[] GETS_FLAGS = " c\r\n".getBytes();
+	static final byte[] META_GET_FLAGS = " v t l h c\r\n".getBytes();
+	static final byte[] MULTI_GET_FLAGS = " v q O".getBytes();
+	static final byte[] EXPTIME_FLAG = " T".getBytes();
+	static final byte[] CAS_FLAG = " c".getBytes();
+	static final byte[] QUIET_FLAG = " q".getBytes();
+
+	static final byte[] VA = "VA ".getBytes();
+	static final byte[] HD = "HD".getBytes();
+	static final byte[] EN = "EN".getBytes();
+	static final byte[] NS = "NS".getBytes();
+	static final byte[] EX = "EX".getBytes();
+	static final byte[] NF = "NF".getBytes();
+	static final byte[] MN_REPLY = "MN".getBytes();
+
+	/**
+	 * The opaque of the last mg reply, or -1 if it had none.
+	 */
+	int opaque;
+
+	MetaResult scratch = new MetaResult();
+
+	public MetaMemcachedClient() {
+		fencecommand = MN;
+		fencereply = MN_REPLY;
+	}
+
+	long signedDecimal(int index, int end) {
+		if (index < end && conn.in.get(index) == '-') {
+			return -decimal(index + 1, end);
+		}
+		return decimal(index, end);
+	}
+
+	/**
+	 * Parse the return flags of a meta reply, from the given field of the
+	 * line at rpos on, into meta, which may be null, and opaque.
+	 */
+	void flags(int index, int end, MetaResult meta) {
+		while (index < end) {
+			byte flag = conn.in.get(index);
+			long n = signedDecimal(index + 1, end);
+			if (flag == 'O') {
+				opaque = (int) n;
+			} else if (meta != null) {
+				switch (flag) {
+				case 's':
+					meta.size = (int) n;
+					break;
+				case 't':
+					meta.ttl = (int) n;
+					break;
+				case 'l':
+					meta.lastaccess = (int) n;
+					break;
+				case 'h':
+					meta.fetched = (int) n;
+					break;
+				case 'c':
+					meta.cas = n;
+					break;
+				}
+			}
+			while (index < end && conn.in.get(index) != ' ') {
+				index++;
+			}
+			index++;
+		}
+	}
+
+	/**
+	 * Read one mg reply: 0 for a hit, -1 for a miss, -2 for an error, or -4
+	 * if the value failed verification. The value is checked against the key
+	 * its opaque, or 0 without one, indexes in keys.
+	 */
+	int reply(String[] keys, int count, Object value, MetaResult meta) throws IOException {
+		opaque = -1;
+		int end = conn.line();
+		boolean va = is(end, VA);
+		if (!va && !is(end, HD)) {
+			int ret = is(end, EN) ? -1 : -2;
+			consumeLine(end);
+			return ret;
+		}
+		int length = 0;
+		if (va) {
+			length = (int) decimal(field(end, 1), end);
+			flags(field(end, 2), end, meta);
+		} else {
+			flags(field(end, 1), end, meta);
+		}
+		if (meta != null) {
+			meta.hit = true;
+			if (va) {
+				meta.size = length;
+			}
+		}
+		consumeLine(end);
+		if (!va) {
+			return 0;
+		}
+		conn.fill(length + 2);
+		int i = opaque < 0 ? 0 : opaque;
+		int ret = 0;
+		if (value instanceof ValueVerifier && i < count
+				&& !((ValueVerifier) value).verify(keys[i], conn.bytes(conn.rpos, length))) {
+			ret = -4;
+		}
+		conn.consume(length + 2);
+		return ret;
+	}
+
+	/**
+	 * Send one mg with the given flags and read its reply.
+	 */
+	int metaGet(String op, String key, Object value, byte[] flags, MetaResult meta) {
+		try {
+			begin(key);
+			putCommand(MG, key);
+			conn.out.put(flags);
+			conn.send();
+			onekey[0] = key;
+			int ret = reply(onekey, 1, value, meta);
+			conn.finish();
+			return ret;
+		} catch (IOException e) {
+			return fail(op, e);
+		}
+	}
+
+	/**
+	 * Sets without a cost are ms commands; with q they get no reply unless
+	 * they fail.
+	 */
+	@Override
+	void putSet(String key, Object value, int exptime, boolean costed, int cost, boolean noreply) {
+		if (costed) {
+			super.putSet(key, value, exptime, costed, cost, noreply);
+		} else {
+			putMetaSet(key, value, exptime, false, noreply);
+		}
+	}
+
+	void putMetaSet(String key, Object value, int exptime, boolean returncas, boolean quiet) {
+		int length = MemcachedConnection.valueLength(value);
+		conn.reserve(MS.length + key.length() + length + 64);
+		conn.out.put(MS);
+		conn.putAscii(key);
+		conn.out.put((byte) ' ');
+		conn.putDecimal(length);
+		conn.out.put(EXPTIME_FLAG);
+		conn.putDecimal(exptime);
+		if (returncas) {
+			conn.out.put(CAS_FLAG);
+		}
+		if (quiet) {
+			conn.out.put(QUIET_FLAG);
+		}
+		conn.out.put(CRLF);
+		conn.putValue(value);
+		conn.out.put(CRLF);
+	}
+
+	/**
+	 * The return code of the meta reply at rpos: 0 for HD, -1 for NS, EX or
+	 * NF, -2 for anything else.
+	 */
+	int metaStatus(int end) {
+		if (is(end, HD)) {
+			return 0;
+		} else if (is(end, NS) || is(end, EX) || is(end, NF)) {
+			return -1;
+		}
+		return -2;
+	}
+
+	/**
+	 * Accept ms replies as well as those of the text storage commands.
+	 */
+	@Override
+	int storeReply() throws IOException {
+		int end = conn.line();
+		int ret = metaStatus(end);
+		if (ret == -2) {
+			return super.storeReply();
+		}
+		consumeLine(end);
+		return ret;
+	}
+
+	@Override
+	public int get(String key, Object value) {
+		return metaGet("GET", key, value, GET_FLAGS, null);
+	}
+
+	@Override
+	public int meta_get(String key, Object value, MetaResult meta) {
+		meta.reset();
+		return metaGet("GET", key, value, META_GET_FLAGS, meta);
+	}
+
+	@Override
+	public long gets(String key) {
+		scratch.reset();
+		if (metaGet("GETS", key, null, GETS_FLAGS, scratch) != 0) {
+			return -1;
+		}
+		return scratch.cas;
+	}
+
+	@Override
+	public int get_multi(String[] keys, int count, boolean[] hits, Object value) {
+		try {
+			ntouched = 0;
+			for (int i = 0; i < count; i++) {
+				hits[i] = false;
+				batch(keys[i]);
+				putCommand(MG, keys[i]);
+				conn.out.put(MULTI_GET_FLAGS);
+				conn.putDecimal(i);
+				conn.out.put(CRLF);
+			}
+			sendBatch(MN);
+			int ret = 0;
+			for (int t = 0; t < ntouched; t++) {
+				conn = conns[touched[t]];
+				while (true) {
+					int end = conn.line();
+					if (is(end, MN_REPLY)) {
+						consumeLine(end);
+						break;
+					}
+					int res = reply(keys, count, value, null);
+					if (opaque >= 0 && opaque < count) {
+						hits[opaque] = res == 0;
+					}
+					if (res != 0 && res != -1) {
+						ret = res;
+					}
+				}
+				conn.finish();
+			}
+			ntouched = 0;
+			return ret;
+		} catch (IOException e) {
+			return fail("MULTIGET", e);
+		}
+	}
+
+	@Override
+	public int meta_set(String key, Object value, int exptime, MetaResult meta) {
+		meta.reset();
+		try {
+			begin(key);
+			putMetaSet(key, value, exptime, true, false);
+			conn.send();
+			int end = conn.line();
+			int ret = metaStatus(end);
+			if (ret == 0) {
+				flags(field(end, 1), end, meta);
+			}
+			consumeLine(end);
+			conn.finish();
+			return ret;
+		} catch (IOException e) {
+			return fail("SET", e);
+		}
+	}
+
+	@Override
+	public int delete(String key) {
+		return meta_delete(key, scratch);
+	}
+
+	@Override
+	public int meta_delete(String key, MetaResult meta) {
+		meta.reset();
+		try {
+			begin(key);
+			putCommand(MD, key);
+			conn.out.put(CRLF);
+			conn.send();
+			int end = conn.line();
+			int ret = metaStatus(end);
+			meta.hit = ret == 0;
+			consumeLine(end);
+			conn.finish();
+			return ret;
+		} catch (IOException e) {
+			return fail("DELETE", e);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.yahoo.ycsb.db;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.Transcoder;
+
+import com.yahoo.ycsb.memcached.Memcached;
+
+/**
+ * A pass-through transcoder. Values are sent as their raw bytes with flags 0,
+ * never serialized or compressed, and values read are returned as the byte[]
+ * that came off the wire.
+ */
+public class RawTranscoder implements Transcoder<Object> {
+	public static final RawTranscoder INSTANCE = new RawTranscoder();
+
+	public boolean asyncDecode(CachedData d) {
+		return false;
+	}
+
+	public CachedData encode(Object o) {
+		return new CachedData(0, Memcached.valueBytes(o), CachedData.MAX_SIZE);
+	}
+
+	public Object decode(CachedData d) {
+		return d.getData();
+	}
+
+	public int getMaxSize() {
+		return CachedData.MAX_SIZE;
+	}
+}
@@ -1,22 +1,71 @@
 package com.yahoo.ycsb.db;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
 
 import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.OperationTimeoutException;
+import net.spy.memcached.transcoders.Transcoder;
 
 import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.DataStoreException;
+import com.yahoo.ycsb.memcached.KetamaRing;
+import com.yahoo.ycsb.measurements.Measurements;
 import com.yahoo.ycsb.memcached.Memcached;
+import com.yahoo.ycsb.memcached.ValueVerifier;
 
-
+/**
+ * Every operation waits at most memcached.timeout milliseconds for its reply
+ * and returns -5 if none came, cancelling it. With memcached.hedgedelayus
+ * set, a get that has no reply after that many microseconds is sent again
+ * on a second client of its server, as the thread's RetryBudget allows, and
+ * the first reply wins. Hedges spend the budget MemcachedWrapper retries
+ * from, so together they stay within memcached.retrybudget. Each hedged get is recorded as a GET-HEDGE return
+ * code: 0 if the hedge answered first and -1 if the original did. Errors are
+ * returned, not printed.
+ */
 public class SpymemcachedClient extends Memcached {
-	MemcachedClient client;
+	/**
+	 * How long a hedged get sleeps between checks of its two requests.
+	 */
+	static final long HEDGE_POLL = 10000;
+
+	KetamaRing ring;
+
+	/**
+	 * One client per server of the ring, each with its own connection.
+	 */
+	MemcachedClient[] clients;
+
+	/**
+	 * The second client of each server that hedged gets are sent on, or
+	 * null if gets are not hedged.
+	 */
+	MemcachedClient[] hedges;
+	long timeout;
+	long hedgedelay;
+	Measurements measurements;
+	
+	/**
+	 * Sends values as raw bytes, see RawTranscoder.
+	 */
+	Transcoder<Object> transcoder;
+
+	/**
+	 * The pending stores of set_multi(), reused between calls.
+	 */
+	ArrayList<Future<Boolean>> stores = new ArrayList<Future<Boolean>>();
 	
 	public static long endtime;
 	
@@ -27,73 +76,270 @@ public class SpymemcachedClient extends Memcached {
 	public SpymemcachedClient() {
 		random = new Random();
 		todelay = 0;
+		transcoder = RawTranscoder.INSTANCE;
 	}
 	
 	/**
 	 * Initialize any state for this DB. Called once per DB instance; there is
-	 * one DB instance per client thread.
+	 * one DB instance per client thread. Each key goes to its server on the
+	 * KetamaRing, through a client of that server. With
+	 * memcached.connections set, the instances share that many clients per
+	 * server from SpymemcachedPool instead of each opening its own.
 	 */
-	public void init() {
-		int membaseport = Config.getConfig().memcached_port;
-		String addr = Config.getConfig().memcached_address;
-		
-		try {
-			InetSocketAddress ia = new InetSocketAddress(InetAddress.getByAddress(ipv4AddressToByte(addr)), membaseport);
-			client = new MemcachedClient(ia);
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-		} catch (IOException e1) {
-			e1.printStackTrace();
+	public void init() throws DataStoreException {
+		Config config = Config.getConfig();
+		ring = KetamaRing.getRing();
+		timeout = config.memcached_timeout * 1000000L;
+		hedgedelay = config.memcached_hedge_delay * 1000L;
+		clients = connect();
+		if (hedgedelay > 0) {
+			hedges = connect();
+			measurements = Measurements.getMeasurements();
 		}
 	}
 	
+	/**
+	 * Return a client for each server. Pooled clients are handed out round
+	 * robin, so a second call gets other clients if the pool has more than
+	 * one per server.
+	 */
+	MemcachedClient[] connect() throws DataStoreException {
+		int connections = Config.getConfig().memcached_connections;
+		MemcachedClient[] connected = new MemcachedClient[ring.size()];
+		for (int i = 0; i < connected.length; i++) {
+			try {
+				if (connections > 0) {
+					connected[i] = SpymemcachedPool.acquire(ring.address(i), connections);
+				} else {
+					connected[i] = new MemcachedClient(ring.address(i));
+				}
+			} catch (IOException e) {
+				throw new DataStoreException("Could not connect to " + ring.address(i), e);
+			}
+		}
+		return connected;
+	}
+	
 	public void cleanup() {
-		//if (client.isAlive())
-			client.shutdown();
+		disconnect(clients);
+		if (hedges != null) {
+			disconnect(hedges);
+		}
+	}
+	
+	void disconnect(MemcachedClient[] connected) {
+		for (int i = 0; i < connected.length; i++) {
+			if (Config.getConfig().memcached_connections > 0) {
+				SpymemcachedPool.release(ring.address(i), connected[i]);
+			} else {
+				connected[i].shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * The client of the server that holds key.
+	 */
+	MemcachedClient client(String key) {
+		return clients[ring.server(key)];
+	}
+	
+	/**
+	 * Wait for f until the deadline, cancelling it if it passes.
+	 */
+	<T> T await(Future<T> f, long deadline) throws InterruptedException, ExecutionException, TimeoutException {
+		try {
+			return f.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			f.cancel(false);
+			throw e;
+		}
+	}
+	
+	<T> T await(Future<T> f) throws InterruptedException, ExecutionException, TimeoutException {
+		return await(f, System.nanoTime() + timeout);
+	}
+	
+	/**
+	 * The return code for an operation that failed with e: -5 if it missed
+	 * its deadline or spymemcached timed it out, -2 if it failed or was
+	 * interrupted and -3 for anything else.
+	 */
+	static int code(Exception e) {
+		if (e instanceof TimeoutException || e instanceof OperationTimeoutException) {
+			return -5;
+		}
+		if (e instanceof ExecutionException && e.getCause() instanceof TimeoutException) {
+			return -5;
+		}
+		if (e instanceof InterruptedException || e instanceof ExecutionException) {
+			return -2;
+		}
+		return -3;
+	}
+	
+	/**
+	 * Wait for the get f of key; if it has no reply after the hedge delay and
+	 * the budget allows, send it again on the hedge client of its server and
+	 * return whichever reply comes first. This polls, since a timed get()
+	 * that expires makes spymemcached time the operation out for good.
+	 */
+	Object hedged(Future<Object> f, int server, String key) throws InterruptedException, ExecutionException, TimeoutException {
+		long start = System.nanoTime();
+		long deadline = start + timeout;
+		Future<Object> h = null;
+		while (!f.isDone() && (h == null || !h.isDone())) {
+			long now = System.nanoTime();
+			if (now - deadline >= 0) {
+				f.cancel(false);
+				if (h != null) {
+					h.cancel(false);
+				}
+				throw new TimeoutException();
+			}
+			if (h == null && now - start >= hedgedelay) {
+				if (!budget.acquire()) {
+					return await(f, deadline);
+				}
+				h = hedges[server].asyncGet(key, transcoder);
+			}
+			LockSupport.parkNanos(HEDGE_POLL);
+		}
+		if (h == null) {
+			return f.get();
+		}
+		boolean won = !f.isDone();
+		measurements.reportReturnCode("GET-HEDGE", won ? 0 : -1);
+		if (won) {
+			f.cancel(false);
+			return h.get();
+		}
+		h.cancel(false);
+		return f.get();
+	}
+	
+	/**
+	 * Get the keys from each of their servers at once.
+	 */
+	Map<String, Object> getBulk(String[] keys, int count) throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + timeout;
+		if (clients.length == 1) {
+			return await(clients[0].asyncGetBulk(Arrays.asList(keys).subList(0, count), transcoder), deadline);
+		}
+		ArrayList<ArrayList<String>> parts = new ArrayList<ArrayList<String>>(clients.length);
+		for (int i = 0; i < clients.length; i++) {
+			parts.add(null);
+		}
+		for (int i = 0; i < count; i++) {
+			int server = ring.server(keys[i]);
+			if (parts.get(server) == null) {
+				parts.set(server, new ArrayList<String>());
+			}
+			parts.get(server).add(keys[i]);
+		}
+		ArrayList<Future<Map<String, Object>>> futures = new ArrayList<Future<Map<String, Object>>>();
+		for (int i = 0; i < clients.length; i++) {
+			if (parts.get(i) != null) {
+				futures.add(clients[i].asyncGetBulk(parts.get(i), transcoder));
+			}
+		}
+		Map<String, Object> found = new HashMap<String, Object>();
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				found.putAll(await(futures.get(i), deadline));
+			} catch (TimeoutException e) {
+				for (int j = i + 1; j < futures.size(); j++) {
+					futures.get(j).cancel(false);
+				}
+				throw e;
+			}
+		}
+		return found;
 	}
 	
 	@Override
 	public int add(String key, Object value) {
+		return add(key, value, 0);
+	}
+	
+	@Override
+	public int add(String key, Object value, int exptime) {
 		try {
-			if (!client.add(key, 0, value).get().booleanValue()) {
-				System.out.println("ADD: error getting data");
-				return -1;
-			}
-		} catch (InterruptedException e) {
-			System.out.println("ADD Interrupted");
-		} catch (ExecutionException e) {
-			System.out.println("ADD Execution");
-		} catch (RuntimeException e) {
-			System.out.println("ADD Runtime");
+			return await(client(key).add(key, exptime, value, transcoder)).booleanValue() ? 0 : -1;
+		} catch (Exception e) {
+			return code(e);
 		}
-		return 0;
 	}
 	
 	@Override
 	public int get(String key, Object value) {
-		long st = System.currentTimeMillis();
-		Future<Object> f = client.asyncGet(key);
-		//long time = System.nanoTime();
+		int server = ring.server(key);
 		try {
-			if (f.get() == null) {
-				//System.out.println("GET: error getting data");
+			Future<Object> f = clients[server].asyncGet(key, transcoder);
+			Object data = hedges == null ? await(f) : hedged(f, server, key);
+			if (data == null) {
 				return -1;
 			}
-		} catch (InterruptedException e) {
-			System.out.println("GET Interrupted");
-		} catch (ExecutionException e) {
-			System.out.println("GET Execution");
-			e.printStackTrace();
-			return -2;
-		} catch (RuntimeException e) {
-			System.out.println("GET Runtime: " + (System.currentTimeMillis() - st));
-			return -3;
+			if (value instanceof ValueVerifier && !((ValueVerifier) value).verify(key, data)) {
+				return -4;
+			}
+		} catch (Exception e) {
+			return code(e);
 		}
-		//System.out.println("Start: " + time);
-		//System.out.println("Start: " + endtime);
-		//System.out.println("Spy latency: " + ((endtime - time)/1000));
 		return 0;
 	}
+	
+	@Override
+	public int get_multi(String[] keys, int count, boolean[] hits, Object value) {
+		Map<String, Object> found;
+		try {
+			found = getBulk(keys, count);
+		} catch (Exception e) {
+			Arrays.fill(hits, 0, count, false);
+			return code(e);
+		}
+		int ret = 0;
+		for (int i = 0; i < count; i++) {
+			Object data = found.get(keys[i]);
+			hits[i] = data != null;
+			if (data != null && value instanceof ValueVerifier && !((ValueVerifier) value).verify(keys[i], data)) {
+				hits[i] = false;
+				ret = -4;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Send all the stores before waiting for any of them, so they are
+	 * pipelined on the connection. They share one deadline.
+	 */
+	@Override
+	public int set_multi(String[] keys, Object[] values, int[] costs, int[] exptimes, int count) {
+		long deadline = System.nanoTime() + timeout;
+		stores.clear();
+		for (int i = 0; i < count; i++) {
+			int exptime = exptimes == null ? 0 : exptimes[i];
+			if (costs == null) {
+				stores.add(client(keys[i]).set(keys[i], exptime, values[i], transcoder));
+			} else {
+				stores.add(client(keys[i]).set_cost(keys[i], exptime, values[i], costs[i], transcoder));
+			}
+		}
+		int ret = 0;
+		for (int i = 0; i < count; i++) {
+			try {
+				if (!await(stores.get(i), deadline).booleanValue() && ret == 0) {
+					ret = -1;
+				}
+			} catch (Exception e) {
+				ret = code(e);
+			}
+		}
+		stores.clear();
+		return ret;
+	}
+	
 	/*
 	public Future<Object> asyncGet(final String key) {
 		return asyncGet(key, client.getTranscoder());
@@ -131,133 +377,125 @@ public class SpymemcachedClient extends Memcached {
 
 	@Override
 	public int set(String key, Object value, int load) {
+		return set(key, value, load, 0);
+	}
+	
+	@Override
+	public int set(String key, Object value, int load, int exptime) {
 		try {
-			load = load+1;
-			if (!client.set(key, 0, value).get().booleanValue()) {
-				System.out.println("SET: error getting data");
-				return -1;
-			}
-		} catch (InterruptedException e) {
-			System.out.println("SET Interrupted");
-		} catch (ExecutionException e) {
-			System.out.println("SET Execution");
-		} catch (RuntimeException e) {
-			System.out.println("SET Runtime");
+			return await(client(key).set(key, exptime, value, transcoder)).booleanValue() ? 0 : -1;
+		} catch (Exception e) {
+			return code(e);
 		}
-		return 0;
 	}
 	
 	@Override
 	public int set_cost(String key, Object value, int load, int cost) {
+		return set_cost(key, value, load, cost, 0);
+	}
+	
+	@Override
+	public int set_cost(String key, Object value, int load, int cost, int exptime) {
 		try {
-			load = load+1;
-			if (!client.set_cost(key, 0, value, cost).get().booleanValue()) {
-				System.out.println("SET: error getting data");
-				return -1;
-			}
-		} catch (InterruptedException e) {
-			System.out.println("SET Interrupted");
-		} catch (ExecutionException e) {
-			System.out.println("SET Execution");
-		} catch (RuntimeException e) {
-			System.out.println("SET Runtime");
+			return await(client(key).set_cost(key, exptime, value, cost, transcoder)).booleanValue() ? 0 : -1;
+		} catch (Exception e) {
+			return code(e);
 		}
-		return 0;
 	}
 	
-	private byte[] ipv4AddressToByte(String address) {
-		byte[] b = new byte[4];
-		String[] str = address.split("\\.");
-		b[0] = Integer.valueOf(str[0]).byteValue();
-		b[1] = Integer.valueOf(str[1]).byteValue();
-		b[2] = Integer.valueOf(str[2]).byteValue();
-		b[3] = Integer.valueOf(str[3]).byteValue();
-		return b;
-	}
 
 	@Override
 	public int append(String key, long cas, Object value) {
 		try {
-			if (!client.append(cas, key, value).get().booleanValue())
-				System.out.println("APPEND: error getting data");
-				return -1;
-		} catch (InterruptedException e) {
-			System.out.println("APPEND Interrupted");
-		} catch (ExecutionException e) {
-			System.out.println("APPEND Execution");
-		} catch (RuntimeException e) {
-			System.out.println("APPEND Runtime");
+			return await(client(key).append(cas, key, value, transcoder)).booleanValue() ? 0 : -1;
+		} catch (Exception e) {
+			return code(e);
 		}
-		return 0;
 	}
 
 	@Override
 	public int cas(String key, long cas, Object value) {
-		if (!client.cas(key, cas, value).equals(CASResponse.OK)) {
-			System.out.println("CAS: error getting data");
-			return -1;
+		try {
+			return await(client(key).asyncCAS(key, cas, value, transcoder)).equals(CASResponse.OK) ? 0 : -1;
+		} catch (Exception e) {
+			return code(e);
 		}
-		return 0;
 	}
 
 	@Override
 	public int decr(String key, Object value) {
-		return 0;
+		try {
+			return await(client(key).asyncDecr(key, amount(value))).longValue() < 0 ? -1 : 0;
+		} catch (Exception e) {
+			return code(e);
+		}
 	}
 
 	@Override
 	public int delete(String key) {
-		return 0;
+		try {
+			return await(client(key).delete(key)).booleanValue() ? 0 : -1;
+		} catch (Exception e) {
+			return code(e);
+		}
 	}
 
 	@Override
 	public int incr(String key, Object value) {
-		return 0;
+		try {
+			return await(client(key).asyncIncr(key, amount(value))).longValue() < 0 ? -1 : 0;
+		} catch (Exception e) {
+			return code(e);
+		}
+	}
+
+	/**
+	 * The amount to increment or decrement by, 1 unless value is a Number.
+	 */
+	static long amount(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return 1;
 	}
 
 	@Override
 	public long gets(String key) {
-		long cas = client.gets(key).getCas();
-		if (cas < 0) {
-			System.out.println("GETS: error getting data");
-			return -1;
+		try {
+			CASValue<Object> value = await(client(key).asyncGets(key, transcoder));
+			if (value == null || value.getCas() < 0) {
+				return -1;
+			}
+			return value.getCas();
+		} catch (Exception e) {
+			return code(e);
 		}
-		return cas;
 	}
 
 	@Override
 	public int prepend(String key, long cas, Object value) {
 		try {
-			if (!client.prepend(cas, key, value).get().booleanValue())
-				return -1;
-		} catch (InterruptedException e) {
-			System.out.println("PREPEND Interrupted");
-		} catch (ExecutionException e) {
-			System.out.println("PREPEND Execution");
-		} catch (RuntimeException e) {
-			System.out.println("PREPEND Runtime");
+			return await(client(key).prepend(cas, key, value, transcoder)).booleanValue() ? 0 : -1;
+		} catch (Exception e) {
+			return code(e);
 		}
-		return 0;
 	}
 
 	@Override
 	public int replace(String key, Object value) {
+		return replace(key, value, 0);
+	}
+	
+	@Override
+	public int replace(String key, Object value, int exptime) {
 		try {
-			if (!client.replace(key, 0, value).get().booleanValue()) {
-				System.out.println("REPLACE: error getting data");
-				return -1;
-			}
-		} catch (InterruptedException e) {
-			System.out.println("REPLACE Interrupted");
-		} catch (ExecutionException e) {
-			System.out.println("REPLACE Execution");
-		} catch (RuntimeException e) {
-			System.out.println("REPLACE Runtime");
+			return await(client(key).replace(key, exptime, value, transcoder)).booleanValue() ? 0 : -1;
+		} catch (Exception e) {
+			return code(e);
 		}
-		return 0;
 	}
 	
-	public static void main(String args[]) {
+	public static void main(String args[]) throws DataStoreException {
 		SpymemcachedClient client = new SpymemcachedClient();
 		client.init();
 	}
@@ -0,0 +1,64 @@
+package com.yahoo.ycsb.db;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+
+import net.spy.memcached.MemcachedClient;
+
+/**
+ * A fixed set of spymemcached clients per server shared by all client
+ * threads, so N threads use memcached.connections connections and as many IO
+ * threads to each server instead of one of each per thread. A
+ * MemcachedClient is thread safe and queues the operations of every thread
+ * using it onto its connection, which pipelines them, so sharing one
+ * multiplexes the threads' requests.
+ *
+ * Threads are handed a server's clients round robin. A client is shut down
+ * when the last thread using it releases it.
+ */
+class SpymemcachedPool {
+	static class Node {
+		MemcachedClient[] clients;
+		int[] users;
+		int next;
+	}
+
+	static HashMap<InetSocketAddress, Node> nodes = new HashMap<InetSocketAddress, Node>();
+
+	/**
+	 * Return the next client of the server's pool, creating it if needed.
+	 */
+	static synchronized MemcachedClient acquire(InetSocketAddress address, int size) throws IOException {
+		Node node = nodes.get(address);
+		if (node == null) {
+			node = new Node();
+			node.clients = new MemcachedClient[size];
+			node.users = new int[size];
+			nodes.put(address, node);
+		}
+		int i = node.next;
+		node.next = (node.next + 1) % size;
+		if (node.clients[i] == null) {
+			node.clients[i] = new MemcachedClient(address);
+		}
+		node.users[i]++;
+		return node.clients[i];
+	}
+
+	/**
+	 * Stop using a client, shutting it down if no thread uses it any more.
+	 */
+	static synchronized void release(InetSocketAddress address, MemcachedClient client) {
+		Node node = nodes.get(address);
+		for (int i = 0; i < node.clients.length; i++) {
+			if (node.clients[i] == client) {
+				if (--node.users[i] == 0) {
+					client.shutdown();
+					node.clients[i] = null;
+				}
+				return;
+			}
+		}
+	}
+}
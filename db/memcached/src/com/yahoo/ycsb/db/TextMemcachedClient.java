@@ -0,0 +1,639 @@
+package com.yahoo.ycsb.db;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.DataStoreException;
+import com.yahoo.ycsb.memcached.KetamaRing;
+import com.yahoo.ycsb.memcached.Memcached;
+import com.yahoo.ycsb.memcached.ValueVerifier;
+
+/**
+ * A memcached binding that speaks the text protocol itself over one
+ * non-blocking MemcachedConnection per server per client thread, parsing
+ * replies in place in its buffers. Each key goes to its server on the
+ * KetamaRing.
+ *
+ * Load stores (a non-zero load argument to set() or set_cost()) are sent
+ * with noreply and not waited for: they are batched, memcached.loadbatch to
+ * a write, so warming a large cache is bounded by the network instead of by
+ * round trips. The first other operation on a server flushes its batch and
+ * sends a version command, and whatever the server printed before its reply
+ * are errors from the load stores, which are counted and reported at
+ * cleanup. set_multi() and get_multi() likewise send all their commands, to
+ * all the servers involved, before reading the replies.
+ *
+ * set_cost() adds the cost after the byte count of the set command, as the
+ * cost-aware server expects. Keys must be ASCII. An operation that times
+ * out returns -5 and one that fails otherwise -2, and the connection is
+ * reopened by the next operation.
+ */
+public class TextMemcachedClient extends Memcached {
+	static final byte[] SET = "set ".getBytes();
+	static final byte[] ADD = "add ".getBytes();
+	static final byte[] REPLACE = "replace ".getBytes();
+	static final byte[] APPEND = "append ".getBytes();
+	static final byte[] PREPEND = "prepend ".getBytes();
+	static final byte[] CAS = "cas ".getBytes();
+	static final byte[] GET = "get ".getBytes();
+	static final byte[] GETS = "gets ".getBytes();
+	static final byte[] INCR = "incr ".getBytes();
+	static final byte[] DECR = "decr ".getBytes();
+	static final byte[] DELETE = "delete ".getBytes();
+	static final byte[] VERSION = "version\r\n".getBytes();
+	static final byte[] NOREPLY = " noreply".getBytes();
+	static final byte[] CRLF = "\r\n".getBytes();
+
+	static final byte[] STORED = "STORED".getBytes();
+	static final byte[] NOT_STORED = "NOT_STORED".getBytes();
+	static final byte[] EXISTS = "EXISTS".getBytes();
+	static final byte[] NOT_FOUND = "NOT_FOUND".getBytes();
+	static final byte[] DELETED = "DELETED".getBytes();
+	static final byte[] VALUE = "VALUE ".getBytes();
+	static final byte[] END = "END".getBytes();
+	static final byte[] VERSION_REPLY = "VERSION".getBytes();
+
+	KetamaRing ring;
+	MemcachedConnection[] conns;
+
+	/**
+	 * The connection of the current exchange.
+	 */
+	MemcachedConnection conn;
+	int loadbatch;
+	String[] onekey = new String[1];
+	int loaderrors;
+
+	/**
+	 * The servers a batch of keys went to, in the order first used, and how
+	 * many replies each owes.
+	 */
+	int[] touched;
+	int ntouched;
+	long errors;
+	int[] replies;
+
+	/**
+	 * The command that fences off the load stores, and the start of its
+	 * reply.
+	 */
+	byte[] fencecommand = VERSION;
+	byte[] fencereply = VERSION_REPLY;
+
+	public void init() throws DataStoreException {
+		Config config = Config.getConfig();
+		ring = KetamaRing.getRing();
+		conns = MemcachedConnection.open(ring);
+		conn = conns[0];
+		touched = new int[conns.length];
+		replies = new int[conns.length];
+		loadbatch = config.memcached_load_batch;
+	}
+
+	public void cleanup() {
+		for (int i = 0; i < conns.length; i++) {
+			conn = conns[i];
+			if (conn.loading) {
+				try {
+					fence();
+				} catch (IOException e) {
+					System.out.println("LOAD: " + e.getMessage());
+				}
+			}
+			conn.close();
+		}
+		if (errors > 1) {
+			System.out.println(errors + " operations failed");
+		}
+		if (loaderrors > 0) {
+			System.out.println("LOAD: " + loaderrors + " noreply stores failed");
+		}
+	}
+
+	/**
+	 * Drop the connections of an exchange after an error; the next operation
+	 * reopens them. Only the first error is printed, and the number of them
+	 * at cleanup, so a failing server does not slow the thread with output.
+	 * Return -5 if the exchange timed out and -2 otherwise.
+	 */
+	int fail(String op, IOException e) {
+		if (errors++ == 0) {
+			System.out.println(op + ": " + e.getMessage());
+		}
+		conn.close();
+		for (int t = 0; t < ntouched; t++) {
+			conns[touched[t]].close();
+		}
+		ntouched = 0;
+		return e instanceof SocketTimeoutException ? -5 : -2;
+	}
+
+	/**
+	 * Start an operation that waits for its reply on the server of key,
+	 * reconnecting if an earlier one failed and fencing off the load stores.
+	 */
+	void begin(String key) throws IOException {
+		conn = conns[ring.server(key)];
+		if (!conn.isOpen()) {
+			conn.open();
+		}
+		if (conn.loading) {
+			fence();
+		}
+	}
+
+	/**
+	 * Switch to the server of the next key of a batch, noting it as touched
+	 * the first time. Return whether it was.
+	 */
+	boolean batch(String key) throws IOException {
+		begin(key);
+		if (conn.out.position() == 0) {
+			touched[ntouched++] = conn.index;
+			replies[conn.index] = 0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Flush the noreply stores and read past any errors they caused, up to
+	 * the reply to the fence command sent after them.
+	 */
+	void fence() throws IOException {
+		conn.loading = false;
+		conn.pending = 0;
+		conn.reserve(fencecommand.length);
+		conn.out.put(fencecommand);
+		conn.send();
+		while (true) {
+			int end = conn.line();
+			boolean fenced = is(end, fencereply);
+			consumeLine(end);
+			if (fenced) {
+				break;
+			}
+			loaderrors++;
+		}
+		conn.finish();
+	}
+
+	/**
+	 * Whether the line at rpos, which ends at end, starts with word.
+	 */
+	boolean is(int end, byte[] word) {
+		int rpos = conn.rpos;
+		if (end - rpos < word.length) {
+			return false;
+		}
+		for (int i = 0; i < word.length; i++) {
+			if (conn.in.get(rpos + i) != word[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void consumeLine(int end) {
+		conn.consume(end + 1 - conn.rpos);
+	}
+
+	/**
+	 * The index of the nth space separated field of the line at rpos.
+	 */
+	int field(int end, int n) {
+		int i = conn.rpos;
+		while (n > 0 && i < end) {
+			if (conn.in.get(i) == ' ') {
+				n--;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	long decimal(int index, int end) {
+		long n = 0;
+		for (; index < end; index++) {
+			byte b = conn.in.get(index);
+			if (b < '0' || b > '9') {
+				break;
+			}
+			n = n * 10 + (b - '0');
+		}
+		return n;
+	}
+
+	/**
+	 * Whether the key field at index is key.
+	 */
+	boolean keyAt(int index, int end, String key) {
+		int length = key.length();
+		if (end - index <= length || conn.in.get(index + length) != ' ') {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (conn.in.get(index + i) != (byte) key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void putCommand(byte[] command, String key) {
+		conn.reserve(command.length + key.length() + 32);
+		conn.out.put(command);
+		conn.putAscii(key);
+	}
+
+	/**
+	 * Append a storage command and its data block. The cost follows the byte
+	 * count for set_cost(), or the CAS identifier for a cas command.
+	 */
+	void putStore(byte[] command, String key, Object value, int exptime, boolean costed, int cost, long cas, boolean noreply) {
+		int length = MemcachedConnection.valueLength(value);
+		conn.reserve(command.length + key.length() + length + 96);
+		conn.out.put(command);
+		conn.putAscii(key);
+		conn.out.put((byte) ' ');
+		conn.out.put((byte) '0');
+		conn.out.put((byte) ' ');
+		conn.putDecimal(exptime);
+		conn.out.put((byte) ' ');
+		conn.putDecimal(length);
+		if (command == CAS) {
+			conn.out.put((byte) ' ');
+			conn.putDecimal(cas);
+		}
+		if (costed) {
+			conn.out.put((byte) ' ');
+			conn.putDecimal(cost);
+		}
+		if (noreply) {
+			conn.out.put(NOREPLY);
+		}
+		conn.out.put(CRLF);
+		conn.putValue(value);
+		conn.out.put(CRLF);
+	}
+
+	/**
+	 * Append a set, or a set_cost if costed.
+	 */
+	void putSet(String key, Object value, int exptime, boolean costed, int cost, boolean noreply) {
+		putStore(SET, key, value, exptime, costed, cost, 0, noreply);
+	}
+
+	/**
+	 * Read the reply to a storage command: 0 if stored, -1 if the key was in
+	 * the wrong state for it, -2 for an error.
+	 */
+	int storeReply() throws IOException {
+		int end = conn.line();
+		int ret;
+		if (is(end, STORED)) {
+			ret = 0;
+		} else if (is(end, NOT_STORED) || is(end, EXISTS) || is(end, NOT_FOUND)) {
+			ret = -1;
+		} else {
+			ret = -2;
+		}
+		consumeLine(end);
+		return ret;
+	}
+
+	int store(String op, byte[] command, String key, Object value, int exptime, boolean costed, int cost, long cas) {
+		try {
+			begin(key);
+			if (command == SET) {
+				putSet(key, value, exptime, costed, cost, false);
+			} else {
+				putStore(command, key, value, exptime, costed, cost, cas, false);
+			}
+			conn.send();
+			int ret = storeReply();
+			conn.finish();
+			return ret;
+		} catch (IOException e) {
+			return fail(op, e);
+		}
+	}
+
+	/**
+	 * Queue a noreply load store, writing the batch once it is full.
+	 */
+	int load(String key, Object value, int exptime, boolean costed, int cost) {
+		try {
+			conn = conns[ring.server(key)];
+			if (!conn.isOpen()) {
+				conn.open();
+			}
+			conn.loading = true;
+			putSet(key, value, exptime, costed, cost, true);
+			if (++conn.pending >= loadbatch || conn.out.position() >= MemcachedConnection.BUFFER_SIZE) {
+				conn.pending = 0;
+				conn.flush();
+			}
+			return 0;
+		} catch (IOException e) {
+			return fail("LOAD", e);
+		}
+	}
+
+	/**
+	 * Send an incr or decr command; a missing key returns -1.
+	 */
+	int mutate(String op, byte[] command, String key, Object value) {
+		try {
+			begin(key);
+			putCommand(command, key);
+			conn.out.put((byte) ' ');
+			conn.putDecimal(SpymemcachedClient.amount(value));
+			conn.out.put(CRLF);
+			conn.send();
+			int end = conn.line();
+			byte b = conn.in.get(conn.rpos);
+			int ret;
+			if (b >= '0' && b <= '9') {
+				ret = 0;
+			} else if (is(end, NOT_FOUND)) {
+				ret = -1;
+			} else {
+				ret = -2;
+			}
+			consumeLine(end);
+			conn.finish();
+			return ret;
+		} catch (IOException e) {
+			return fail(op, e);
+		}
+	}
+
+	/**
+	 * Read the VALUE blocks of a get or gets reply up to its END. Hits are
+	 * matched to keys in order, since the server answers in the order asked.
+	 * With no hits array the one key's CAS identifier is returned, or -1 on
+	 * a miss; otherwise the return code of the batch is.
+	 */
+	long values(String[] keys, int count, boolean[] hits, Object value) throws IOException {
+		long ret = hits == null ? -1 : 0;
+		int next = 0;
+		while (true) {
+			int end = conn.line();
+			if (is(end, END)) {
+				consumeLine(end);
+				break;
+			} else if (!is(end, VALUE)) {
+				consumeLine(end);
+				return -2;
+			}
+			int keyindex = field(end, 1);
+			int length = (int) decimal(field(end, 3), end);
+			long cas = decimal(field(end, 4), end);
+			int i = next;
+			while (i < count && !keyAt(keyindex, end, keys[i])) {
+				i++;
+			}
+			consumeLine(end);
+			conn.fill(length + 2);
+			if (i < count) {
+				next = i + 1;
+				boolean ok = !(value instanceof ValueVerifier)
+						|| ((ValueVerifier) value).verify(keys[i], conn.bytes(conn.rpos, length));
+				if (hits == null) {
+					ret = ok ? cas : -4;
+				} else {
+					hits[i] = ok;
+					if (!ok) {
+						ret = -4;
+					}
+				}
+			}
+			conn.consume(length + 2);
+		}
+		return ret;
+	}
+
+	@Override
+	public int add(String key, Object value) {
+		return add(key, value, 0);
+	}
+
+	@Override
+	public int add(String key, Object value, int exptime) {
+		return store("ADD", ADD, key, value, exptime, false, 0, 0);
+	}
+
+	@Override
+	public int append(String key, long cas, Object value) {
+		return store("APPEND", APPEND, key, value, 0, false, 0, 0);
+	}
+
+	@Override
+	public int cas(String key, long cas, Object value) {
+		return store("CAS", CAS, key, value, 0, false, 0, cas);
+	}
+
+	@Override
+	public int decr(String key, Object value) {
+		return mutate("DECR", DECR, key, value);
+	}
+
+	@Override
+	public int delete(String key) {
+		try {
+			begin(key);
+			putCommand(DELETE, key);
+			conn.out.put(CRLF);
+			conn.send();
+			int end = conn.line();
+			int ret;
+			if (is(end, DELETED)) {
+				ret = 0;
+			} else if (is(end, NOT_FOUND)) {
+				ret = -1;
+			} else {
+				ret = -2;
+			}
+			consumeLine(end);
+			conn.finish();
+			return ret;
+		} catch (IOException e) {
+			return fail("DELETE", e);
+		}
+	}
+
+	@Override
+	public int incr(String key, Object value) {
+		return mutate("INCR", INCR, key, value);
+	}
+
+	/**
+	 * A get that returns 0 on a hit; values() returns the hit's CAS.
+	 */
+	@Override
+	public int get(String key, Object value) {
+		try {
+			begin(key);
+			putCommand(GET, key);
+			conn.out.put(CRLF);
+			conn.send();
+			onekey[0] = key;
+			long res = values(onekey, 1, null, value);
+			conn.finish();
+			if (res < 0) {
+				return (int) res;
+			}
+			return 0;
+		} catch (IOException e) {
+			return fail("GET", e);
+		}
+	}
+
+	/**
+	 * End the command line on each touched server and start sending, so the
+	 * servers work on their parts at once.
+	 */
+	void sendBatch(byte[] end) throws IOException {
+		for (int t = 0; t < ntouched; t++) {
+			conn = conns[touched[t]];
+			if (end != null) {
+				conn.reserve(end.length);
+				conn.out.put(end);
+			}
+			conn.send();
+		}
+	}
+
+	/**
+	 * Get all the keys with one get command per server. Each server's hits
+	 * come back in the order of the keys, skipping those of other servers.
+	 */
+	@Override
+	public int get_multi(String[] keys, int count, boolean[] hits, Object value) {
+		try {
+			ntouched = 0;
+			for (int i = 0; i < count; i++) {
+				hits[i] = false;
+				boolean first = batch(keys[i]);
+				conn.reserve(GET.length + keys[i].length() + 3);
+				if (first) {
+					conn.out.put(GET);
+				} else {
+					conn.out.put((byte) ' ');
+				}
+				conn.putAscii(keys[i]);
+			}
+			sendBatch(CRLF);
+			int ret = 0;
+			for (int t = 0; t < ntouched; t++) {
+				conn = conns[touched[t]];
+				int res = (int) values(keys, count, hits, value);
+				if (res != 0) {
+					ret = res;
+				}
+				conn.finish();
+			}
+			ntouched = 0;
+			return ret;
+		} catch (IOException e) {
+			return fail("MULTIGET", e);
+		}
+	}
+
+	/**
+	 * Send all the stores before reading any reply, so they are pipelined on
+	 * the connections.
+	 */
+	@Override
+	public int set_multi(String[] keys, Object[] values, int[] costs, int[] exptimes, int count) {
+		try {
+			ntouched = 0;
+			for (int i = 0; i < count; i++) {
+				int exptime = exptimes == null ? 0 : exptimes[i];
+				batch(keys[i]);
+				replies[conn.index]++;
+				putSet(keys[i], values[i], exptime, costs != null, costs == null ? 0 : costs[i], false);
+			}
+			sendBatch(null);
+			int ret = 0;
+			for (int t = 0; t < ntouched; t++) {
+				conn = conns[touched[t]];
+				for (int i = replies[conn.index]; i > 0; i--) {
+					int res = storeReply();
+					if (res != 0) {
+						ret = res;
+					}
+				}
+				conn.finish();
+			}
+			ntouched = 0;
+			return ret;
+		} catch (IOException e) {
+			return fail("MULTISET", e);
+		}
+	}
+
+	@Override
+	public long gets(String key) {
+		try {
+			begin(key);
+			putCommand(GETS, key);
+			conn.out.put(CRLF);
+			conn.send();
+			onekey[0] = key;
+			long cas = values(onekey, 1, null, null);
+			conn.finish();
+			return cas < 0 ? -1 : cas;
+		} catch (IOException e) {
+			return fail("GETS", e);
+		}
+	}
+
+	@Override
+	public int prepend(String key, long cas, Object value) {
+		return store("PREPEND", PREPEND, key, value, 0, false, 0, 0);
+	}
+
+	@Override
+	public int replace(String key, Object value) {
+		return replace(key, value, 0);
+	}
+
+	@Override
+	public int replace(String key, Object value, int exptime) {
+		return store("REPLACE", REPLACE, key, value, exptime, false, 0, 0);
+	}
+
+	@Override
+	public int set(String key, Object value, int load) {
+		return set(key, value, load, 0);
+	}
+
+	@Override
+	public int set(String key, Object value, int load, int exptime) {
+		if (load != 0) {
+			return load(key, value, exptime, false, 0);
+		}
+		return store("SET", SET, key, value, exptime, false, 0, 0);
+	}
+
+	@Override
+	public int set_cost(String key, Object value, int load, int cost) {
+		return set_cost(key, value, load, cost, 0);
+	}
+
+	@Override
+	public int set_cost(String key, Object value, int load, int cost, int exptime) {
+		if (load != 0) {
+			return load(key, value, exptime, true, cost);
+		}
+		return store("SET", SET, key, value, exptime, true, cost, 0);
+	}
+
+	@Override
+	public int update(String key, Object value) {
+		return set(key, value, 0);
+	}
+}
@@ -0,0 +1,302 @@
+package com.yahoo.ycsb.db;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import com.yahoo.ycsb.Config;
+
+/**
+ * A memcached UDP endpoint with the buffers of a MemcachedConnection. Each
+ * request is one datagram that starts with the 8 byte frame header: a
+ * request ID, a sequence number, the number of datagrams and a reserved
+ * field. A reply may span several datagrams, each with the request's ID and
+ * its own sequence number, which may arrive in any order, more than once or
+ * not at all.
+ *
+ * A binding calls begin(), then for each request startRequest() and appends
+ * the command to out, then send() and receive(). receive() collects the
+ * datagrams of all the requests until every reply is complete or
+ * memcached.udptimeout milliseconds have passed. assemble() then puts a
+ * complete reply in in, from rpos 0, to be parsed like a TCP reply; fill()
+ * never reads more, so a truncated reply fails with an IOException.
+ * Datagrams of earlier, timed out requests are dropped and counted as
+ * stale. Not thread safe.
+ */
+class UdpConnection extends MemcachedConnection {
+	static final int FRAME_LENGTH = 8;
+
+	/**
+	 * The largest request memcached accepts, which must fit in one datagram.
+	 */
+	static final int MAX_REQUEST = 1400;
+
+	/**
+	 * The socket receive buffer to ask for, so the datagrams of a large
+	 * multi-get reply are not dropped before they are read.
+	 */
+	static final int RECEIVE_BUFFER = 1 << 22;
+
+	DatagramChannel udp;
+	Selector udpselector;
+	ByteBuffer packet;
+
+	/**
+	 * The ID of the first request of the exchange and the number of
+	 * requests, with where each starts in out.
+	 */
+	int nextid;
+	int firstid;
+	int requests;
+	int[] starts = new int[16];
+
+	/**
+	 * Per request: the datagrams its reply has, or 0 until one arrives, how
+	 * many have arrived, and when the last one did.
+	 */
+	int[] totals = new int[16];
+	int[] received = new int[16];
+	long[] done = new long[16];
+	long sent;
+
+	/**
+	 * The payloads of the datagrams received, one after another, and the
+	 * request, sequence number, offset and length of each.
+	 */
+	ByteBuffer store;
+	int datagrams;
+	int[] dgrequest = new int[64];
+	int[] dgseq = new int[64];
+	int[] dgoffset = new int[64];
+	int[] dglength = new int[64];
+
+	long stale;
+
+	UdpConnection(InetSocketAddress address, int index) {
+		super(address, index);
+		timeout = Config.getConfig().memcached_udp_timeout * 1000000L;
+		packet = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		store = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	@Override
+	boolean isOpen() {
+		return udp != null;
+	}
+
+	@Override
+	void open() throws IOException {
+		udp = DatagramChannel.open();
+		udp.socket().setReceiveBufferSize(RECEIVE_BUFFER);
+		udp.connect(address);
+		udp.configureBlocking(false);
+		udpselector = Selector.open();
+		udp.register(udpselector, SelectionKey.OP_READ);
+	}
+
+	@Override
+	void close() {
+		if (udp != null) {
+			try {
+				udpselector.close();
+				udp.close();
+			} catch (IOException e) {
+			}
+			udp = null;
+		}
+		super.close();
+	}
+
+	/**
+	 * Start an exchange of one or more requests.
+	 */
+	void begin() {
+		out.clear();
+		in.clear();
+		rpos = 0;
+		firstid = nextid;
+		requests = 0;
+		datagrams = 0;
+		store.clear();
+	}
+
+	/**
+	 * Start a request in out, giving it the next request ID.
+	 */
+	void startRequest() {
+		if (requests == starts.length) {
+			starts = grow(starts);
+			totals = grow(totals);
+			received = grow(received);
+			long[] d = new long[done.length * 2];
+			System.arraycopy(done, 0, d, 0, done.length);
+			done = d;
+		}
+		reserve(FRAME_LENGTH);
+		starts[requests] = out.position();
+		totals[requests] = 0;
+		received[requests] = 0;
+		out.putShort((short) nextid);
+		out.putShort((short) 0);
+		out.putShort((short) 1);
+		out.putShort((short) 0);
+		nextid = (nextid + 1) & 0xffff;
+		requests++;
+	}
+
+	/**
+	 * The length of the current request so far, frame header included.
+	 */
+	int requestLength() {
+		return out.position() - starts[requests - 1];
+	}
+
+	static int[] grow(int[] a) {
+		int[] b = new int[a.length * 2];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+
+	/**
+	 * Send each request in out as a datagram.
+	 */
+	@Override
+	void send() throws IOException {
+		int end = out.position();
+		for (int r = 0; r < requests; r++) {
+			out.limit(r + 1 < requests ? starts[r + 1] : end);
+			out.position(starts[r]);
+			if (out.remaining() > MAX_REQUEST) {
+				throw new IOException("Request of " + out.remaining() + " bytes is too long for UDP");
+			}
+			udp.write(out);
+		}
+		out.clear();
+		sent = System.nanoTime();
+		deadline = sent + timeout;
+	}
+
+	/**
+	 * Collect datagrams until every request has its reply, or the timeout.
+	 * Return the number of complete replies.
+	 */
+	int receive() throws IOException {
+		int complete = 0;
+		int spins = 0;
+		while (complete < requests) {
+			packet.clear();
+			if (udp.read(packet) == 0) {
+				if (++spins > spinreads) {
+					long left = deadline - System.nanoTime();
+					if (left <= 0) {
+						break;
+					}
+					udpselector.select(Math.max(1, left / 1000000));
+					udpselector.selectedKeys().clear();
+				}
+				continue;
+			}
+			if (accept() && received[dgrequest[datagrams - 1]] == totals[dgrequest[datagrams - 1]]) {
+				done[dgrequest[datagrams - 1]] = System.nanoTime();
+				complete++;
+			}
+		}
+		return complete;
+	}
+
+	/**
+	 * File the datagram in packet under its request. Return false if it was
+	 * dropped as stale, duplicate or malformed.
+	 */
+	boolean accept() {
+		packet.flip();
+		if (packet.remaining() < FRAME_LENGTH) {
+			return false;
+		}
+		int r = (packet.getShort(0) - firstid) & 0xffff;
+		int seq = packet.getShort(2) & 0xffff;
+		int total = packet.getShort(4) & 0xffff;
+		if (r >= requests || total == 0 || seq >= total) {
+			stale++;
+			return false;
+		}
+		if (totals[r] == 0) {
+			totals[r] = total;
+		}
+		for (int i = 0; i < datagrams; i++) {
+			if (dgrequest[i] == r && dgseq[i] == seq) {
+				return false;
+			}
+		}
+		if (datagrams == dgrequest.length) {
+			dgrequest = grow(dgrequest);
+			dgseq = grow(dgseq);
+			dgoffset = grow(dgoffset);
+			dglength = grow(dglength);
+		}
+		packet.position(FRAME_LENGTH);
+		if (store.remaining() < packet.remaining()) {
+			ByteBuffer buf = ByteBuffer.allocateDirect(Math.max(store.capacity() * 2, store.position() + packet.remaining()));
+			store.flip();
+			buf.put(store);
+			store = buf;
+		}
+		dgrequest[datagrams] = r;
+		dgseq[datagrams] = seq;
+		dgoffset[datagrams] = store.position();
+		dglength[datagrams] = packet.remaining();
+		store.put(packet);
+		datagrams++;
+		received[r]++;
+		return true;
+	}
+
+	/**
+	 * Put the reply to request r in in, from rpos 0, if it is complete.
+	 */
+	boolean assemble(int r) {
+		in.clear();
+		rpos = 0;
+		if (totals[r] == 0 || received[r] < totals[r]) {
+			return false;
+		}
+		for (int seq = 0; seq < totals[r]; seq++) {
+			for (int i = 0; i < datagrams; i++) {
+				if (dgrequest[i] == r && dgseq[i] == seq) {
+					room(in.position() + dglength[i]);
+					ByteBuffer part = store.duplicate();
+					part.limit(dgoffset[i] + dglength[i]);
+					part.position(dgoffset[i]);
+					in.put(part);
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The microseconds from send() until the reply to request r was
+	 * complete.
+	 */
+	int latency(int r) {
+		return (int) ((done[r] - sent) / 1000);
+	}
+
+	@Override
+	void fill(int length) throws IOException {
+		if (in.position() - rpos < length) {
+			throw new IOException("Truncated UDP reply from " + address);
+		}
+	}
+
+	@Override
+	void finish() {
+		out.clear();
+		in.clear();
+		rpos = 0;
+	}
+}
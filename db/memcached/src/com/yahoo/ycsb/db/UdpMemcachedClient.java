@@ -0,0 +1,183 @@
+package com.yahoo.ycsb.db;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.DataStoreException;
+import com.yahoo.ycsb.measurements.Measurements;
+
+/**
+ * A text protocol binding that sends gets over memcached's UDP protocol
+ * and everything else, the gets command included, over TCP as
+ * TextMemcachedClient does. Each server is reached on memcached.udpport, or
+ * on its TCP port if that is 0.
+ *
+ * get() is one request; get_multi() sends each server one get request per
+ * datagram's worth of its keys, all before waiting for any reply. A reply
+ * that is not complete within memcached.udptimeout milliseconds counts as a
+ * miss for all of its keys. Every request is also recorded as a UDP-GET
+ * part: its latency if it was answered, and return code 0 if it was or -1
+ * if it was lost, so loss and UDP latency show apart from the GET numbers.
+ * Load stores still pending on a server's TCP connection are fenced off
+ * before it is read over UDP.
+ */
+public class UdpMemcachedClient extends TextMemcachedClient {
+	UdpConnection[] udps;
+	Measurements measurements;
+
+	/**
+	 * The UDP endpoints of a get_multi(), in the order first used.
+	 */
+	int[] udptouched;
+	int nudptouched;
+
+	@Override
+	public void init() throws DataStoreException {
+		super.init();
+		int udpport = Config.getConfig().memcached_udp_port;
+		measurements = Measurements.getMeasurements();
+		udps = new UdpConnection[ring.size()];
+		udptouched = new int[ring.size()];
+		for (int i = 0; i < udps.length; i++) {
+			InetSocketAddress address = ring.address(i);
+			if (udpport > 0) {
+				address = new InetSocketAddress(address.getAddress(), udpport);
+			}
+			udps[i] = new UdpConnection(address, i);
+			try {
+				udps[i].open();
+			} catch (IOException e) {
+				throw new DataStoreException("Could not open UDP to " + address, e);
+			}
+		}
+	}
+
+	@Override
+	public void cleanup() {
+		super.cleanup();
+		long stale = 0;
+		for (int i = 0; i < udps.length; i++) {
+			stale += udps[i].stale;
+			udps[i].close();
+		}
+		if (stale > 0) {
+			System.out.println("UDP: " + stale + " stale datagrams dropped");
+		}
+	}
+
+	/**
+	 * Fence off key's server's load stores and switch to its UDP endpoint.
+	 */
+	UdpConnection udp(String key) throws IOException {
+		begin(key);
+		UdpConnection udp = udps[conn.index];
+		conn = udp;
+		if (!udp.isOpen()) {
+			udp.open();
+		}
+		return udp;
+	}
+
+	/**
+	 * Record how request r of udp went.
+	 */
+	void measureRequest(UdpConnection udp, int r, boolean complete) {
+		if (complete) {
+			measurements.measurePart("UDP-GET", udp.latency(r));
+		}
+		measurements.reportReturnCode("UDP-GET", complete ? 0 : -1);
+	}
+
+	@Override
+	public int get(String key, Object value) {
+		try {
+			UdpConnection udp = udp(key);
+			udp.begin();
+			udp.startRequest();
+			putCommand(GET, key);
+			udp.out.put(CRLF);
+			udp.send();
+			udp.receive();
+			boolean complete = udp.assemble(0);
+			measureRequest(udp, 0, complete);
+			if (!complete) {
+				udp.finish();
+				return -1;
+			}
+			onekey[0] = key;
+			long res = values(onekey, 1, null, value);
+			udp.finish();
+			if (res < 0) {
+				return (int) res;
+			}
+			return 0;
+		} catch (IOException e) {
+			return fail("GET", e);
+		}
+	}
+
+	@Override
+	public int get_multi(String[] keys, int count, boolean[] hits, Object value) {
+		try {
+			nudptouched = 0;
+			for (int i = 0; i < count; i++) {
+				hits[i] = false;
+				UdpConnection udp = udp(keys[i]);
+				boolean first = true;
+				for (int t = 0; t < nudptouched; t++) {
+					if (udptouched[t] == udp.index) {
+						first = false;
+						break;
+					}
+				}
+				if (first) {
+					udptouched[nudptouched++] = udp.index;
+					udp.begin();
+				}
+				if (first || udp.requestLength() + keys[i].length() + 3 > UdpConnection.MAX_REQUEST) {
+					if (!first) {
+						udp.out.put(CRLF);
+					}
+					udp.startRequest();
+					putCommand(GET, keys[i]);
+				} else {
+					udp.reserve(keys[i].length() + 3);
+					udp.out.put((byte) ' ');
+					udp.putAscii(keys[i]);
+				}
+			}
+			for (int t = 0; t < nudptouched; t++) {
+				UdpConnection udp = udps[udptouched[t]];
+				udp.reserve(CRLF.length);
+				udp.out.put(CRLF);
+				udp.send();
+			}
+			int ret = 0;
+			for (int t = 0; t < nudptouched; t++) {
+				UdpConnection udp = udps[udptouched[t]];
+				conn = udp;
+				udp.receive();
+				for (int r = 0; r < udp.requests; r++) {
+					boolean complete = udp.assemble(r);
+					measureRequest(udp, r, complete);
+					if (complete) {
+						int res = (int) values(keys, count, hits, value);
+						if (res != 0) {
+							ret = res;
+						}
+					}
+				}
+				udp.finish();
+			}
+			nudptouched = 0;
+			return ret;
+		} catch (IOException e) {
+			for (int t = 0; t < nudptouched; t++) {
+				udps[udptouched[t]].close();
+			}
+			nudptouched = 0;
+			return fail("MULTIGET", e);
+		}
+	}
+}
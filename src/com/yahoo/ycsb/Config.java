@@ -7,6 +7,7 @@ public class Config implements Serializable{
 	private static Config config = null;
 	
 	public static final String CHURN_DELTA_PROPERTY = "churndelta";
+	public static final String CHURN_RATE_PROPERTY = "churnrate";
 	public static final String DB_PROPERTY = "db";
 	public static final String DO_TRANSACTIONS_PROPERTY = "dotransactions";
 	public static final String EXPORTER_PROPERTY = "exporter";
@@ -23,6 +24,26 @@ public class Config implements Serializable{
 	public static final String MEASUREMENT_TYPE_PROPERTY = "measurementtype";
 	public static final String MEMCACHED_ADDRESS_PROPERTY = "memcached.address";
 	public static final String MEMCACHED_PORT_PROPERTY = "memcached.port";
+	public static final String MEMCACHED_SET_COST_OPCODE_PROPERTY = "memcached.setcostopcode";
+	public static final String MEMCACHED_SPIN_READS_PROPERTY = "memcached.spinreads";
+	public static final String MEMCACHED_TIMEOUT_PROPERTY = "memcached.timeout";
+	public static final String MEMCACHED_LOAD_BATCH_PROPERTY = "memcached.loadbatch";
+	public static final String MEMCACHED_CONNECTIONS_PROPERTY = "memcached.connections";
+	public static final String MEMCACHED_SERVERS_PROPERTY = "memcached.servers";
+	public static final String MEMCACHED_SERVER_MEASUREMENTS_PROPERTY = "memcached.servermeasurements";
+	public static final String MEMCACHED_UDP_PORT_PROPERTY = "memcached.udpport";
+	public static final String MEMCACHED_UDP_TIMEOUT_PROPERTY = "memcached.udptimeout";
+	public static final String MEMCACHED_RETRIES_PROPERTY = "memcached.retries";
+	public static final String MEMCACHED_RETRY_BUDGET_PROPERTY = "memcached.retrybudget";
+	public static final String MEMCACHED_HEDGE_DELAY_PROPERTY = "memcached.hedgedelayus";
+	public static final String MEMCACHED_EMBEDDED_PROPERTY = "memcached.embedded";
+	public static final String MEMCACHED_EMBEDDED_MEMORY_PROPERTY = "memcached.embeddedmemory";
+	public static final String MEMCACHED_EMBEDDED_EVICTION_PROPERTY = "memcached.embeddedeviction";
+	public static final String MEMCACHED_EMBEDDED_THREADS_PROPERTY = "memcached.embeddedthreads";
+	public static final String MEMCACHED_SIM_MEMORY_PROPERTY = "memcached.simmemory";
+	public static final String MEMCACHED_SIM_POLICY_PROPERTY = "memcached.simpolicy";
+	public static final String MEMCACHED_SIM_SLABS_PROPERTY = "memcached.simslabs";
+	public static final String MEMCACHED_SIM_GROWTH_PROPERTY = "memcached.simgrowthfactor";
 	public static final String MEMADD_PROPORTION_PROPERTY = "memaddproportion";
 	public static final String MEMAPPEND_PROPORTION_PROPERTY = "memappendproportion";
 	public static final String MEMCAS_PROPORTION_PROPERTY = "memcasproportion";
@@ -30,12 +51,19 @@ public class Config implements Serializable{
 	public static final String MEMDELETE_PROPORTION_PROPERTY = "memdeleteproportion";
 	public static final String MEMGET_PROPORTION_PROPERTY = "memgetproportion";
 	public static final String MEMGETS_PROPORTION_PROPERTY = "memgetsproportion";
-	public static final String MEMINCR_PROPORTION_PROPERTY = "memincrproporiton";
+	public static final String MEMINCR_PROPORTION_PROPERTY = "memincrproportion";
+	public static final String MEMMULTIGET_PROPORTION_PROPERTY = "memmultigetproportion";
+	public static final String MULTIGET_BATCH_DISTRIBUTION_PROPERTY = "multigetbatchdistribution";
+	public static final String MULTIGET_BATCH_MAX_PROPERTY = "multigetbatchmax";
+	public static final String MULTIGET_BATCH_MIN_PROPERTY = "multigetbatchmin";
 	public static final String MEMPREPEND_PROPORTION_PROPERTY = "memprependproportion";
 	public static final String MEMREPLACE_PROPORTION_PROPERTY = "memreplaceproportion";
 	public static final String MEMSET_PROPORTION_PROPERTY = "memsetproportion";
 	public static final String MEMUPDATE_PROPORTION_PROPERTY = "memupdateproportion";
 	public static final String OPERATION_COUNT_PROPERTY = "operationcount";
+	public static final String OP_STREAM_FILE_PROPERTY = "opstreamfile";
+	public static final String OP_STREAM_REUSE_PROPERTY = "opstreamreuse";
+	public static final String KEY_BATCH_SIZE_PROPERTY = "keybatchsize";
 	public static final String PRINT_STATS_INTERVAL_PROPERTY = "printstatsinterval";
 	public static final String READ_ALL_FIELDS_PROPERTY = "readallfields";
 	public static final String READ_PROPORTION_PROPERTY = "readproportion";
@@ -49,8 +77,38 @@ public class Config implements Serializable{
 	public static final String TARGET_PROPERTY = "target";
 	public static final String THREAD_COUNT_PROPERTY = "threadcount";
 	public static final String TIMESERIES_GRANULARITY_PROPERTY = "timeseries.granularity";
+	public static final String TRACE_FILE_PROPERTY = "tracefile";
+	public static final String TRACE_PACING_PROPERTY = "tracepacing";
+	public static final String TRACE_SPEEDUP_PROPERTY = "tracespeedup";
 	public static final String UPDATE_PROPORTION_PROPERTY = "updateproportion";
 	public static final String VALUE_LENGTH_PROPERTY = "valuelength";
+	public static final String VALUE_POOL_SIZE_PROPERTY = "valuepoolsize";
+	public static final String VALUE_VERIFY_PROPERTY = "valueverify";
+	public static final String VALUE_SIZE_DISTRIBUTION_PROPERTY = "valuesizedistribution";
+	public static final String VALUE_SIZE_MIN_PROPERTY = "valuesizemin";
+	public static final String VALUE_SIZE_MAX_PROPERTY = "valuesizemax";
+	public static final String VALUE_SIZE_LOGNORMAL_MU_PROPERTY = "valuesizelognormalmu";
+	public static final String VALUE_SIZE_LOGNORMAL_SIGMA_PROPERTY = "valuesizelognormalsigma";
+	public static final String VALUE_SIZE_HISTOGRAM_PROPERTY = "valuesizehistogram";
+	public static final String VALUE_SIZE_GRANULARITY_PROPERTY = "valuesizegranularity";
+	public static final String VALUE_SIZE_COST_CORRELATION_PROPERTY = "valuesizecostcorrelation";
+	public static final String MISS_PENALTY_PROPERTY = "misspenalty";
+	public static final String COST_MODEL_PROPERTY = "costmodel";
+	public static final String COST_FILE_PROPERTY = "costfile";
+	public static final String COST_SIZE_BASE_PROPERTY = "costsizebase";
+	public static final String COST_PER_KB_PROPERTY = "costperkb";
+	public static final String COUNTER_COUNT_PROPERTY = "countercount";
+	public static final String COUNTER_DISTRIBUTION_PROPERTY = "counterdistribution";
+	public static final String COUNTER_ZIPFIAN_CONSTANT_PROPERTY = "counterzipfianconstant";
+	public static final String COUNTER_PREFIX_PROPERTY = "counterprefix";
+	public static final String TTL_DISTRIBUTION_PROPERTY = "ttldistribution";
+	public static final String TTL_PROPERTY = "ttl";
+	public static final String TTL_MIN_PROPERTY = "ttlmin";
+	public static final String TTL_MAX_PROPERTY = "ttlmax";
+	public static final String HIGH_COST_TTL_PROPERTY = "highcostttl";
+	public static final String MID_COST_TTL_PROPERTY = "midcostttl";
+	public static final String LOW_COST_TTL_PROPERTY = "lowcostttl";
+	public static final String META_GET_PROPERTY = "metaget";
 	public static final String WORKING_SET_PROPERTY = "workingset";
 	public static final String WORKLOAD_PROPERTY = "workload";
 	public static final String WRITE_ALL_FIELDS_PROPERTY = "writeallfields";
@@ -71,6 +129,7 @@ public class Config implements Serializable{
 	public static final String LOW_VALUE_LENGTH_PROPERTY = "lowvaluelength";
 	
 	public int churn_delta = 1;
+	public double churn_rate = 0.0;
 	public String db = "com.yahoo.ycsb.db.SpymemcachedClient";
 	public boolean do_transactions = false;
 	public String exporter = "com.yahoo.ycsb.measurements.exporter.TextMeasurementsExporter";
@@ -83,11 +142,34 @@ public class Config implements Serializable{
 	public int insert_start = 0;
 	public String key_prefix = "aaaaaaaaaaaaaaaaaa";
 	public int operation_count = 0;
+	public String op_stream_file = null;
+	public boolean op_stream_reuse = false;
+	public int key_batch_size = 0;
 	public String label = "";
 	public int max_scan_length = 1000;
 	public String measurement_type = "histogram";
 	public String memcached_address = "168.7.151.75";
 	public int memcached_port = 11211;
+	public int memcached_set_cost_opcode = 0x60;
+	public int memcached_spin_reads = 64;
+	public int memcached_timeout = 5000;
+	public int memcached_load_batch = 256;
+	public int memcached_connections = 0;
+	public String memcached_servers = null;
+	public boolean memcached_server_measurements = true;
+	public int memcached_udp_port = 0;
+	public int memcached_udp_timeout = 100;
+	public int memcached_retries = 0;
+	public double memcached_retry_budget = 0.1;
+	public int memcached_hedge_delay = 0;
+	public boolean memcached_embedded = false;
+	public int memcached_embedded_memory = 64;
+	public String memcached_embedded_eviction = "lru";
+	public int memcached_embedded_threads = 4;
+	public int memcached_sim_memory = 64;
+	public String memcached_sim_policy = "lru";
+	public boolean memcached_sim_slabs = false;
+	public double memcached_sim_growth = 1.25;
 	public double memadd_proportion = 0.0;
 	public double memappend_proportion = 0.0;
 	public double memcas_proportion = 0.0;
@@ -96,6 +178,10 @@ public class Config implements Serializable{
 	public double memget_proportion = 0.0;
 	public double memgets_proportion = 0.0;
 	public double memincr_proportion = 0.0;
+	public double memmultiget_proportion = 0.0;
+	public String multiget_batch_distribution = "uniform";
+	public int multiget_batch_max = 200;
+	public int multiget_batch_min = 20;
 	public double memprepend_proportion = 0.0;
 	public double memreplace_proportion = 0.0;
 	public double memset_proportion = 0.0;
@@ -113,9 +199,39 @@ public class Config implements Serializable{
 	public int target = 0;
 	public int thread_count = 1;
 	public int timeseries_granularity = 1000;
+	public String trace_file = null;
+	public boolean trace_pacing = false;
+	public double trace_speedup = 1.0;
 	public double update_proportion = 0.05;
 	public int working_set = 1;
 	public int value_length = 256;
+	public int value_pool_size = 64;
+	public boolean value_verify = false;
+	public String value_size_distribution = "costclass";
+	public int value_size_min = 64;
+	public int value_size_max = 8192;
+	public double value_size_lognormal_mu = 6.9;
+	public double value_size_lognormal_sigma = 1.0;
+	public String value_size_histogram = null;
+	public int value_size_granularity = 8;
+	public double value_size_cost_correlation = 0.0;
+	public double miss_penalty = 0.0;
+	public String cost_model = "com.yahoo.ycsb.memcached.HashedCostModel";
+	public String cost_file = null;
+	public int cost_size_base = 50;
+	public double cost_per_kb = 100.0;
+	public int counter_count = 1000;
+	public String counter_distribution = "zipfian";
+	public double counter_zipfian_constant = 0.99;
+	public String counter_prefix = "counter";
+	public String ttl_distribution = "none";
+	public int ttl = 60;
+	public int ttl_min = 30;
+	public int ttl_max = 300;
+	public int high_cost_ttl = 3600;
+	public int mid_cost_ttl = 600;
+	public int low_cost_ttl = 60;
+	public boolean meta_get = false;
 	public String workload = "com.yahoo.ycsb.workloads.MemcachedCoreWorkload";
 	public boolean write_all_fields = false;
 	
@@ -149,6 +265,8 @@ public class Config implements Serializable{
 		try {
 			if (property.equals(CHURN_DELTA_PROPERTY)) {
 				churn_delta = (new Integer(value)).intValue();
+			} else if (property.equals(CHURN_RATE_PROPERTY)) {
+				churn_rate = (new Double(value)).doubleValue();
 			} else if (property.equals(DB_PROPERTY)) {
 				db = value;
 			} else if (property.equals(DO_TRANSACTIONS_PROPERTY)) {
@@ -181,6 +299,46 @@ public class Config implements Serializable{
 				memcached_address = value;
 			} else if (property.equals(MEMCACHED_PORT_PROPERTY)) {
 				memcached_port = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_SET_COST_OPCODE_PROPERTY)) {
+				memcached_set_cost_opcode = Integer.decode(value).intValue();
+			} else if (property.equals(MEMCACHED_SPIN_READS_PROPERTY)) {
+				memcached_spin_reads = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_TIMEOUT_PROPERTY)) {
+				memcached_timeout = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_LOAD_BATCH_PROPERTY)) {
+				memcached_load_batch = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_CONNECTIONS_PROPERTY)) {
+				memcached_connections = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_SERVERS_PROPERTY)) {
+				memcached_servers = value;
+			} else if (property.equals(MEMCACHED_SERVER_MEASUREMENTS_PROPERTY)) {
+				memcached_server_measurements = (new Boolean(value)).booleanValue();
+			} else if (property.equals(MEMCACHED_UDP_PORT_PROPERTY)) {
+				memcached_udp_port = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_UDP_TIMEOUT_PROPERTY)) {
+				memcached_udp_timeout = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_RETRIES_PROPERTY)) {
+				memcached_retries = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_RETRY_BUDGET_PROPERTY)) {
+				memcached_retry_budget = (new Double(value)).doubleValue();
+			} else if (property.equals(MEMCACHED_HEDGE_DELAY_PROPERTY)) {
+				memcached_hedge_delay = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_EMBEDDED_PROPERTY)) {
+				memcached_embedded = (new Boolean(value)).booleanValue();
+			} else if (property.equals(MEMCACHED_EMBEDDED_MEMORY_PROPERTY)) {
+				memcached_embedded_memory = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_EMBEDDED_EVICTION_PROPERTY)) {
+				memcached_embedded_eviction = value;
+			} else if (property.equals(MEMCACHED_EMBEDDED_THREADS_PROPERTY)) {
+				memcached_embedded_threads = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_SIM_MEMORY_PROPERTY)) {
+				memcached_sim_memory = (new Integer(value)).intValue();
+			} else if (property.equals(MEMCACHED_SIM_POLICY_PROPERTY)) {
+				memcached_sim_policy = value;
+			} else if (property.equals(MEMCACHED_SIM_SLABS_PROPERTY)) {
+				memcached_sim_slabs = (new Boolean(value)).booleanValue();
+			} else if (property.equals(MEMCACHED_SIM_GROWTH_PROPERTY)) {
+				memcached_sim_growth = (new Double(value)).doubleValue();
 			} else if (property.equals(MEMADD_PROPORTION_PROPERTY)) {
 				memadd_proportion = (new Double(value)).doubleValue();
 			} else if (property.equals(MEMAPPEND_PROPORTION_PROPERTY)) {
@@ -197,6 +355,14 @@ public class Config implements Serializable{
 				memgets_proportion = (new Double(value)).doubleValue();
 			} else if (property.equals(MEMINCR_PROPORTION_PROPERTY)) {
 				memincr_proportion = (new Double(value)).doubleValue();
+			} else if (property.equals(MEMMULTIGET_PROPORTION_PROPERTY)) {
+				memmultiget_proportion = (new Double(value)).doubleValue();
+			} else if (property.equals(MULTIGET_BATCH_DISTRIBUTION_PROPERTY)) {
+				multiget_batch_distribution = value;
+			} else if (property.equals(MULTIGET_BATCH_MAX_PROPERTY)) {
+				multiget_batch_max = (new Integer(value)).intValue();
+			} else if (property.equals(MULTIGET_BATCH_MIN_PROPERTY)) {
+				multiget_batch_min = (new Integer(value)).intValue();
 			} else if (property.equals(MEMPREPEND_PROPORTION_PROPERTY)) {
 				memprepend_proportion = (new Double(value)).doubleValue();
 			} else if (property.equals(MEMREPLACE_PROPORTION_PROPERTY)) {
@@ -207,6 +373,12 @@ public class Config implements Serializable{
 				memupdate_proportion = (new Double(value)).doubleValue();
 			} else if (property.equals(OPERATION_COUNT_PROPERTY)) {
 				operation_count = (new Integer(value)).intValue();
+			} else if (property.equals(OP_STREAM_FILE_PROPERTY)) {
+				op_stream_file = value;
+			} else if (property.equals(OP_STREAM_REUSE_PROPERTY)) {
+				op_stream_reuse = (new Boolean(value)).booleanValue();
+			} else if (property.equals(KEY_BATCH_SIZE_PROPERTY)) {
+				key_batch_size = (new Integer(value)).intValue();
 			} else if (property.equals(PRINT_STATS_INTERVAL_PROPERTY)) {
 				print_stats_interval = (new Integer(value)).intValue();
 			} else if (property.equals(READ_ALL_FIELDS_PROPERTY)) {
@@ -233,10 +405,70 @@ public class Config implements Serializable{
 				thread_count = (new Integer(value)).intValue();
 			} else if (property.equals(TIMESERIES_GRANULARITY_PROPERTY)) {
 				timeseries_granularity = (new Integer(value)).intValue();
+			} else if (property.equals(TRACE_FILE_PROPERTY)) {
+				trace_file = value;
+			} else if (property.equals(TRACE_PACING_PROPERTY)) {
+				trace_pacing = (new Boolean(value)).booleanValue();
+			} else if (property.equals(TRACE_SPEEDUP_PROPERTY)) {
+				trace_speedup = (new Double(value)).doubleValue();
 			} else if (property.equals(UPDATE_PROPORTION_PROPERTY)) {
 				update_proportion = (new Double(value)).doubleValue();
 			} else if (property.equals(VALUE_LENGTH_PROPERTY)) {
 				value_length = (new Integer(value)).intValue();
+			} else if (property.equals(VALUE_POOL_SIZE_PROPERTY)) {
+				value_pool_size = (new Integer(value)).intValue();
+			} else if (property.equals(VALUE_VERIFY_PROPERTY)) {
+				value_verify = (new Boolean(value)).booleanValue();
+			} else if (property.equals(VALUE_SIZE_DISTRIBUTION_PROPERTY)) {
+				value_size_distribution = value;
+			} else if (property.equals(VALUE_SIZE_MIN_PROPERTY)) {
+				value_size_min = (new Integer(value)).intValue();
+			} else if (property.equals(VALUE_SIZE_MAX_PROPERTY)) {
+				value_size_max = (new Integer(value)).intValue();
+			} else if (property.equals(VALUE_SIZE_LOGNORMAL_MU_PROPERTY)) {
+				value_size_lognormal_mu = (new Double(value)).doubleValue();
+			} else if (property.equals(VALUE_SIZE_LOGNORMAL_SIGMA_PROPERTY)) {
+				value_size_lognormal_sigma = (new Double(value)).doubleValue();
+			} else if (property.equals(VALUE_SIZE_HISTOGRAM_PROPERTY)) {
+				value_size_histogram = value;
+			} else if (property.equals(VALUE_SIZE_GRANULARITY_PROPERTY)) {
+				value_size_granularity = (new Integer(value)).intValue();
+			} else if (property.equals(VALUE_SIZE_COST_CORRELATION_PROPERTY)) {
+				value_size_cost_correlation = (new Double(value)).doubleValue();
+			} else if (property.equals(MISS_PENALTY_PROPERTY)) {
+				miss_penalty = (new Double(value)).doubleValue();
+			} else if (property.equals(COST_MODEL_PROPERTY)) {
+				cost_model = value;
+			} else if (property.equals(COST_FILE_PROPERTY)) {
+				cost_file = value;
+			} else if (property.equals(COST_SIZE_BASE_PROPERTY)) {
+				cost_size_base = (new Integer(value)).intValue();
+			} else if (property.equals(COST_PER_KB_PROPERTY)) {
+				cost_per_kb = (new Double(value)).doubleValue();
+			} else if (property.equals(COUNTER_COUNT_PROPERTY)) {
+				counter_count = (new Integer(value)).intValue();
+			} else if (property.equals(COUNTER_DISTRIBUTION_PROPERTY)) {
+				counter_distribution = value;
+			} else if (property.equals(COUNTER_ZIPFIAN_CONSTANT_PROPERTY)) {
+				counter_zipfian_constant = (new Double(value)).doubleValue();
+			} else if (property.equals(COUNTER_PREFIX_PROPERTY)) {
+				counter_prefix = value;
+			} else if (property.equals(TTL_DISTRIBUTION_PROPERTY)) {
+				ttl_distribution = value;
+			} else if (property.equals(TTL_PROPERTY)) {
+				ttl = (new Integer(value)).intValue();
+			} else if (property.equals(TTL_MIN_PROPERTY)) {
+				ttl_min = (new Integer(value)).intValue();
+			} else if (property.equals(TTL_MAX_PROPERTY)) {
+				ttl_max = (new Integer(value)).intValue();
+			} else if (property.equals(HIGH_COST_TTL_PROPERTY)) {
+				high_cost_ttl = (new Integer(value)).intValue();
+			} else if (property.equals(MID_COST_TTL_PROPERTY)) {
+				mid_cost_ttl = (new Integer(value)).intValue();
+			} else if (property.equals(LOW_COST_TTL_PROPERTY)) {
+				low_cost_ttl = (new Integer(value)).intValue();
+			} else if (property.equals(META_GET_PROPERTY)) {
+				meta_get = (new Boolean(value)).booleanValue();
 			} else if (property.equals(WORKING_SET_PROPERTY)) {
 				working_set = (new Integer(value)).intValue();
 			} else if (property.equals(WORKLOAD_PROPERTY)) {
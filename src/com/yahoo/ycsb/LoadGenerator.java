@@ -6,6 +6,7 @@ import java.util.Enumeration;
 import java.util.Properties;
 
 import com.yahoo.ycsb.client.MasterClient;
+import com.yahoo.ycsb.memcached.server.MemcachedServer;
 
 public class LoadGenerator {
 
@@ -116,11 +117,21 @@ public class LoadGenerator {
 		
 		props = fileprops;
 		
+		if (config.memcached_embedded) {
+			try {
+				MemcachedServer.startEmbedded();
+			} catch (DataStoreException e) {
+				System.out.println(e.getMessage());
+				System.exit(0);
+			}
+		}
+		
 		MasterClient client = MasterClient.getMasterClient();
 		client.init();
 		client.setupSlaves();
 		client.execute();
 		client.shutdownSlaves();
+		client.shutdown();
 	}
 	
 	public static void checkMoreArgs(int argindex, int argslength) {
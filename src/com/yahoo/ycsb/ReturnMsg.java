@@ -1,17 +1,69 @@
 package com.yahoo.ycsb;
 
+import com.yahoo.ycsb.memcached.MemcachedOperation;
+
+/**
+ * The outcome of one workload operation, handed to the client thread pool.
+ * Workloads keep one per thread and refill it with set() for every operation,
+ * so the thread pool must be done with it before the next operation starts.
+ */
 public class ReturnMsg {
 	public boolean result;
-	public String op;
+	public MemcachedOperation op;
     public String dbkey;
-    public Integer cost;
+    public int cost;
     public boolean miss;
     
-    public ReturnMsg(boolean result, String op, String dbkey, Integer cost, boolean miss) {
+    /**
+     * For a multi-get: the number of keys requested, and the keys that missed
+     * with the costs they were refilled with.
+     */
+    public int batchsize;
+    public String[] batchkeys;
+    public int[] batchcosts;
+    public int batchmisses;
+    
+    /**
+     * How many of the misses were of keys whose TTL had passed, when stores
+     * have TTLs.
+     */
+    public int expiredmisses;
+    
+    public ReturnMsg() {
+    }
+    
+    public ReturnMsg(boolean result, MemcachedOperation op, String dbkey, int cost, boolean miss) {
+    	set(result, op, dbkey, cost, miss);
+    }
+    
+    public ReturnMsg set(boolean result, MemcachedOperation op, String dbkey, int cost, boolean miss) {
     	this.result = result;
     	this.op = op;
     	this.dbkey = dbkey;
     	this.cost = cost;
     	this.miss = miss;
+    	this.batchsize = 0;
+    	this.batchmisses = 0;
+    	this.expiredmisses = 0;
+    	return this;
+    }
+    
+    /**
+     * Record the outcome of a multi-get, after set().
+     */
+    public ReturnMsg setBatch(int batchsize, String[] batchkeys, int[] batchcosts, int batchmisses) {
+    	this.batchsize = batchsize;
+    	this.batchkeys = batchkeys;
+    	this.batchcosts = batchcosts;
+    	this.batchmisses = batchmisses;
+    	return this;
+    }
+    
+    /**
+     * Record how many misses had expired, after set().
+     */
+    public ReturnMsg setExpired(int expiredmisses) {
+    	this.expiredmisses = expiredmisses;
+    	return this;
     }
-}
\ No newline at end of file
+}
@@ -56,23 +56,36 @@ public abstract class Workload {
 	 * this thread, return null. (But if you have no state to retain for this
 	 * thread, probably you don't need to override initThread().)
 	 * 
-	 * @return false if the workload knows it is done for this thread. Client
-	 *         will terminate the thread. Return true otherwise. Return true for
-	 *         workloads that rely on operationcount. For workloads that read
-	 *         traces from a file, return true when there are more to do, false
-	 *         when you are done.
+	 * @return the state for this thread, or null if there is none.
 	 */
 	public Object initThread(int mythreadid, int threadcount)
 			throws WorkloadException {
 		return null;
 	}
 
+	/**
+	 * Finish any work a client thread still has pending, e.g. operations the
+	 * scenario deferred. Called once in each client thread, after its last
+	 * operation and before its DataStore is cleaned up.
+	 */
+	public void cleanupThread(DataStore db, Object threadstate) {
+	}
+
 	/**
 	 * Cleanup the scenario. Called once, in the main client thread, after all
 	 * operations have completed.
 	 */
 	public void cleanup() throws WorkloadException {
 	}
+
+	/**
+	 * Change the number of keys in the working set while the scenario is
+	 * running. Called from the RMI thread of a master or slave client, so
+	 * implementations must be safe to call concurrently with doTransaction().
+	 * Scenarios without a working set ignore this call.
+	 */
+	public void changeWorkingSet(int workingset) {
+	}
 	
 	/**
 	 * Do one insert operation. Because it will be called concurrently from
@@ -82,8 +95,11 @@ public abstract class Workload {
 	 * function would have no side effects other than DB operations and
 	 * mutations on threadstate. Mutations to threadstate do not need to be
 	 * synchronized, since each thread has its own threadstate instance.
+	 * 
+	 * @return the result of the operation, or null if the workload knows it
+	 *         is done for this thread. Client will terminate the thread.
 	 */
-	public abstract ReturnMsg doInsert(DataStore db, int load);
+	public abstract ReturnMsg doInsert(DataStore db, Object threadstate, int load);
 
 	/**
 	 * Do one transaction operation. Because it will be called concurrently from
@@ -94,11 +110,11 @@ public abstract class Workload {
 	 * mutations on threadstate. Mutations to threadstate do not need to be
 	 * synchronized, since each thread has its own threadstate instance.
 	 * 
-	 * @return false if the workload knows it is done for this thread. Client
-	 *         will terminate the thread. Return true otherwise. Return true for
-	 *         workloads that rely on operationcount. For workloads that read
-	 *         traces from a file, return true when there are more to do, false
-	 *         when you are done.
+	 * @return the result of the operation, or null if the workload knows it
+	 *         is done for this thread. Client will terminate the thread.
+	 *         Workloads that rely on operationcount never return null. For
+	 *         workloads that read traces from a file, return null when you are
+	 *         done.
 	 */
-	public abstract ReturnMsg doTransaction(DataStore db, int num_set);
+	public abstract ReturnMsg doTransaction(DataStore db, Object threadstate, int num_set);
 }
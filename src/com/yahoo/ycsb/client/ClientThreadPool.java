@@ -6,8 +6,10 @@ import com.yahoo.ycsb.DataStoreException;
 import com.yahoo.ycsb.ReturnMsg;
 import com.yahoo.ycsb.UnknownDataStoreException;
 import com.yahoo.ycsb.Workload;
+import com.yahoo.ycsb.WorkloadException;
 import com.yahoo.ycsb.database.DBFactory;
 import com.yahoo.ycsb.memcached.MemcachedFactory;
+import com.yahoo.ycsb.memcached.MemcachedOperation;
 
 import java.util.*;
 
@@ -22,10 +24,10 @@ public class ClientThreadPool extends ThreadGroup {
 	private int ops;
 	private long total_miss_cost;
 	private int total_miss;
+	private int total_expired_miss;
 	private int num_get;
 	private int num_set;
 	private static int threadPoolID;
-	private Hashtable<String, Integer> costs;
 	private Hashtable<Integer, Integer> dist;
 
 	public ClientThreadPool(int numThreads, int ops, Workload workload) {
@@ -38,15 +40,16 @@ public class ClientThreadPool extends ThreadGroup {
 		
 		total_miss_cost = 0;
 		total_miss = 0;
+		total_expired_miss = 0;
 		num_get = 0;
 		num_set = 0;
-		costs = new Hashtable<String, Integer>();
 		dist = new Hashtable<Integer, Integer>();
 		
 		for (int i = 0; i < numThreads; i++) {
 			DataStore db = null;
 			try {
-				if (workload instanceof com.yahoo.ycsb.workloads.MemcachedCoreWorkload)
+				if (workload instanceof com.yahoo.ycsb.workloads.MemcachedCoreWorkload
+						|| workload instanceof com.yahoo.ycsb.workloads.MemcachedTraceWorkload)
 					db = MemcachedFactory.newMemcached(Config.getConfig().db);
 				else if (workload instanceof com.yahoo.ycsb.workloads.DBCoreWorkload)
 					db = DBFactory.newDB(Config.getConfig().db);
@@ -62,7 +65,14 @@ public class ClientThreadPool extends ThreadGroup {
 				e.printStackTrace();
 				System.exit(0);
 			}
-			new PooledThread(workload, db).start();
+			Object threadstate = null;
+			try {
+				threadstate = workload.initThread(i, numThreads);
+			} catch (WorkloadException e) {
+				e.printStackTrace();
+				System.exit(0);
+			}
+			new PooledThread(workload, db, threadstate).start();
 		}
 	}
 
@@ -81,43 +91,45 @@ public class ClientThreadPool extends ThreadGroup {
 	}
 	
 	public synchronized void processResult(ReturnMsg returnMsg, int flag) {
-		if (returnMsg.op.compareTo("SET") == 0) {
-			costs.put(returnMsg.dbkey, returnMsg.cost);
+		if (returnMsg.op == null) {
+			return;
+		}
+		total_expired_miss += returnMsg.expiredmisses;
+		if (returnMsg.op == MemcachedOperation.SET) {
 			if (flag == 0)
 				num_set++;
-		} else if (returnMsg.op.compareTo("GET") == 0) {
+		} else if (returnMsg.op == MemcachedOperation.GET) {
 			if (returnMsg.miss == true) {
-				Integer value = costs.get(returnMsg.dbkey);
-				if (value == null) {
-					total_miss_cost += (long)returnMsg.cost;
-					Integer occur = dist.get(returnMsg.cost);
-					if (occur == null) {
-						dist.put(returnMsg.cost, 1);
-					} else {
-						dist.put(returnMsg.cost, occur+1);
-					}
-				} else {
-					total_miss_cost += (long)value;
-					Integer occur = dist.get(value);
-					if (occur == null) {
-						dist.put(value, 1);
-					} else {
-						dist.put(value, occur+1);
-					}
-				}
-				total_miss++;
-				//num_set++;
-				costs.put(returnMsg.dbkey, returnMsg.cost);
-				//ops--;
+				processMiss(returnMsg.dbkey, returnMsg.cost);
 			}
 			num_get++;
+		} else if (returnMsg.op == MemcachedOperation.MULTIGET) {
+			for (int i = 0; i < returnMsg.batchmisses; i++) {
+				processMiss(returnMsg.batchkeys[i], returnMsg.batchcosts[i]);
+			}
+			num_get += returnMsg.batchsize;
 		}
 	}
 	
+	/**
+	 * Account for a get miss on a key of the given cost. The workload reports
+	 * the key's own cost, so nothing needs to be remembered per key.
+	 */
+	void processMiss(String dbkey, int cost) {
+		total_miss_cost += cost;
+		Integer occur = dist.get(cost);
+		if (occur == null) {
+			dist.put(cost, 1);
+		} else {
+			dist.put(cost, occur+1);
+		}
+		total_miss++;
+	}
+	
 	public synchronized void processStat() {
 		if (printStat == 3) {
 			System.out.println("Client Thread Done. Total Miss Cost = " + total_miss_cost 
-			+ " Total Miss = " + total_miss + " Num Get = " + num_get + " Num Set = " + num_set);
+			+ " Total Miss = " + total_miss + " Expired Miss = " + total_expired_miss + " Num Get = " + num_get + " Num Set = " + num_set);
 			
 			System.out.println("[");  
 			for(int key = 0; key <= 450; key++) {
@@ -163,11 +175,13 @@ public class ClientThreadPool extends ThreadGroup {
 	private class PooledThread extends Thread {
 		private Workload workload;
 		private DataStore db;
+		private Object threadstate;
 		
-		public PooledThread(Workload workload, DataStore db) {
+		public PooledThread(Workload workload, DataStore db, Object threadstate) {
 			super(ClientThreadPool.this, "PooledThread-" + (threadID++));
 			this.workload = workload;
 			this.db = db;
+			this.threadstate = threadstate;
 		}
 
 		public void run() {
@@ -178,14 +192,20 @@ public class ClientThreadPool extends ThreadGroup {
 					workload.doInsert(db);
 				}*/
 				if (Config.getConfig().operation_count - ops > Config.getConfig().record_count) {
-					ReturnMsg result = workload.doTransaction(db, num_set);
+					ReturnMsg result = workload.doTransaction(db, threadstate, num_set);
+					if (result == null)
+						break;
 					processResult(result, 0);
 				} else {
-					ReturnMsg result = workload.doInsert(db, 0);
+					ReturnMsg result = workload.doInsert(db, threadstate, 1);
+					if (result == null)
+						break;
 					processResult(result, 1);
 				}
 			}
 			
+			workload.cleanupThread(db, threadstate);
+			
 			// TODO: Probably shouldn't be here
 			try {
 				db.cleanup();
@@ -0,0 +1,77 @@
+package com.yahoo.ycsb.client;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+
+import com.yahoo.ycsb.rmi.MasterRMIInterface;
+
+/**
+ * Changes a running experiment by calling the master client over RMI.
+ * 
+ * Usage: java com.yahoo.ycsb.client.ControlClient [-h masterhost] command
+ * [options]
+ * <UL>
+ * <LI><b>workingset -s size</b>: resize the working set of the churn
+ * distribution
+ * </ul>
+ */
+public class ControlClient {
+
+	public static void main(String args[]) {
+		String host = "localhost";
+		int size = -1;
+		int argindex = 0;
+
+		if (args.length > 1 && args[0].compareTo("-h") == 0) {
+			host = args[1];
+			argindex = 2;
+		}
+		if (argindex >= args.length) {
+			usageMessage();
+			System.exit(0);
+		}
+		String command = args[argindex++];
+
+		try {
+			while (argindex < args.length) {
+				if (args[argindex].compareTo("-s") == 0 && argindex + 1 < args.length) {
+					size = Integer.parseInt(args[argindex + 1]);
+				} else {
+					usageMessage();
+					System.exit(0);
+				}
+				argindex += 2;
+			}
+		} catch (NumberFormatException e) {
+			usageMessage();
+			System.exit(0);
+		}
+		if (size <= 0) {
+			usageMessage();
+			System.exit(0);
+		}
+
+		try {
+			Registry registry = LocateRegistry.getRegistry(host, SlaveClient.RMI_PORT);
+			MasterRMIInterface master = (MasterRMIInterface) registry.lookup(MasterClient.REGISTRY_NAME);
+			if (command.compareTo("workingset") == 0) {
+				master.changeWorkingSet(size);
+			} else {
+				System.out.println("Unknown command " + command);
+				usageMessage();
+			}
+		} catch (NotBoundException e) {
+			System.out.println("Master client not bound at " + host);
+		} catch (RemoteException e) {
+			System.out.println("Could not reach master client at " + host + ": " + e.getMessage());
+		}
+	}
+
+	public static void usageMessage() {
+		System.out.println("Usage: java com.yahoo.ycsb.client.ControlClient [-h masterhost] command [options]");
+		System.out.println("Commands:");
+		System.out.println("  workingset -s size:  resize the working set of the churn distribution (size > 0)");
+	}
+}
@@ -58,6 +58,10 @@ public class LoadThread extends Thread {
 		}
 	}
 	
+	public Workload getWorkload() {
+		return workload;
+	}
+	
 	public void run() {
 		// Run the client threads
 		Config config = Config.getConfig();
@@ -4,6 +4,7 @@ import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Set;
@@ -18,16 +19,21 @@ import com.yahoo.ycsb.rmi.SlaveRMIInterface;
 
 public class MasterClient implements MasterRMIInterface {
 	private static final Logger LOG = LoggerFactory.getLogger(MasterClient.class);
+	public static final String REGISTRY_NAME = "MasterRMIInterface";
 	public static MasterClient client = null;
 	
 	LoadThread lt;
 	StatusThread st;
 	HashMap<String, Registry> rmiClients;
+	Registry registry;
+	boolean createdregistry;
 	
 	private MasterClient() {
 		lt = null;
 		st = null;
 		rmiClients = new HashMap<String, Registry>();
+		registry = null;
+		createdregistry = false;
 	}
 	
 	public static MasterClient getMasterClient() {
@@ -37,8 +43,31 @@ public class MasterClient implements MasterRMIInterface {
 	}
 	
 	public void init() {
-		if (Config.getConfig().do_transactions)
+		if (Config.getConfig().do_transactions) {
 			initSlaveRMI();
+			initMasterRMI();
+		}
+	}
+	
+	/**
+	 * Export this client so that a ControlClient can change the running
+	 * experiment. The registry is shared with a slave client if one runs on
+	 * this host.
+	 */
+	private void initMasterRMI() {
+		try {
+			MasterRMIInterface stub = (MasterRMIInterface) UnicastRemoteObject.exportObject(this, 0);
+			try {
+				registry = LocateRegistry.createRegistry(SlaveClient.RMI_PORT);
+				createdregistry = true;
+			} catch (RemoteException e) {
+				registry = LocateRegistry.getRegistry(SlaveClient.RMI_PORT);
+			}
+			registry.rebind(REGISTRY_NAME, stub);
+		} catch (RemoteException e) {
+			LOG.error("Could not export the master control interface, remote changes are disabled");
+			registry = null;
+		}
 	}
 	
 	private void initSlaveRMI() {
@@ -129,10 +158,53 @@ public class MasterClient implements MasterRMIInterface {
 		}
 	}
 
+	/**
+	 * Unexport the master control interface so the JVM can exit.
+	 */
+	public void shutdown() {
+		if (registry == null)
+			return;
+		try {
+			registry.unbind(REGISTRY_NAME);
+		} catch (NotBoundException e) {
+		} catch (RemoteException e) {
+		}
+		try {
+			UnicastRemoteObject.unexportObject(this, true);
+			if (createdregistry)
+				UnicastRemoteObject.unexportObject(registry, true);
+		} catch (RemoteException e) {
+			e.printStackTrace();
+		}
+		registry = null;
+	}
+
+	/**
+	 * Resize the working set on this client and on every slave. If the
+	 * experiment has not started yet the new size is used when it starts.
+	 */
 	@Override
 	public void changeWorkingSet(int workingset) throws RemoteException {
-		// TODO Auto-generated method stub
+		LOG.info("Changing working set size to " + workingset);
+		if (lt != null && lt.getState() != Thread.State.TERMINATED)
+			lt.getWorkload().changeWorkingSet(workingset);
+		else
+			Config.getConfig().working_set = workingset;
 		
+		Set<String> keys = rmiClients.keySet();
+		Iterator<String> itr = keys.iterator();
+		
+		while (itr.hasNext()) {
+			String key = itr.next();
+			try {
+				SlaveRMIInterface loadgen = (SlaveRMIInterface) rmiClients.get(key).lookup(SlaveClient.REGISTRY_NAME);
+				loadgen.changeWorkingSet(workingset);
+			} catch (NotBoundException e) {
+				LOG.error("Could not change working set on " + key + " because slave was not bound");
+			}catch (RemoteException e) {
+				LOG.error("Could not change working set on " + key + " because slave is not running");
+			}
+		}
 	}
 
 	@Override
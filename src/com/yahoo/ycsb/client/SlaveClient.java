@@ -72,6 +72,14 @@ public class SlaveClient implements SlaveRMIInterface {
 		return 0;
 	}
 
+	@Override
+	public void changeWorkingSet(int workingset) {
+		if (lt != null && lt.getState() != Thread.State.TERMINATED)
+			lt.getWorkload().changeWorkingSet(workingset);
+		else
+			Config.getConfig().working_set = workingset;
+	}
+
 	@Override
 	public Thread.State getStatus() {
 		if (lt == null)
@@ -0,0 +1,67 @@
+/**                                                                                                                                                                                
+ * Copyright (c) 2010 Yahoo! Inc. All rights reserved.                                                                                                                             
+ *                                                                                                                                                                                 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you                                                                                                             
+ * may not use this file except in compliance with the License. You                                                                                                                
+ * may obtain a copy of the License at                                                                                                                                             
+ *                                                                                                                                                                                 
+ * http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                      
+ *                                                                                                                                                                                 
+ * Unless required by applicable law or agreed to in writing, software                                                                                                             
+ * distributed under the License is distributed on an "AS IS" BASIS,                                                                                                               
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or                                                                                                                 
+ * implied. See the License for the specific language governing                                                                                                                    
+ * permissions and limitations under the License. See accompanying                                                                                                                 
+ * LICENSE file.                                                                                                                                                                   
+ */
+
+package com.yahoo.ycsb.generator;
+
+/**
+ * Hands out values drawn from another generator in batches, so the
+ * underlying generator is entered once per batch instead of once per value.
+ * Not thread safe; each client thread should have its own.
+ */
+public class BufferedIntegerGenerator extends IntegerGenerator {
+	IntegerGenerator _gen;
+	int[] _buffer;
+	int _pos;
+
+	/**
+	 * @param gen
+	 *            The generator to draw values from.
+	 * @param batchsize
+	 *            The number of values to draw at a time.
+	 */
+	public BufferedIntegerGenerator(IntegerGenerator gen, int batchsize) {
+		if (batchsize <= 0) {
+			throw new IllegalArgumentException("Batch size must be positive, got " + batchsize);
+		}
+		_gen = gen;
+		_buffer = new int[batchsize];
+		_pos = batchsize;
+	}
+
+	public int nextInt() {
+		if (_pos == _buffer.length) {
+			_gen.nextInts(_buffer, 0, _buffer.length);
+			_pos = 0;
+		}
+		int ret = _buffer[_pos++];
+		setLastInt(ret);
+		return ret;
+	}
+
+	public void nextInts(int[] dst, int off, int len) {
+		if (len <= 0) {
+			return;
+		}
+		int n = Math.min(len, _buffer.length - _pos);
+		System.arraycopy(_buffer, _pos, dst, off, n);
+		_pos += n;
+		if (n < len) {
+			_gen.nextInts(dst, off + n, len - n);
+		}
+		setLastInt(dst[off + len - 1]);
+	}
+}
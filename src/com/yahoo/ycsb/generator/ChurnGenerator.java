@@ -20,55 +20,201 @@ package com.yahoo.ycsb.generator;
 import java.util.Random;
 
 /**
- * Generate a popularity distribution of items, skewed to favor recent items
- * significantly more than older items.
+ * Generate keys uniformly from a working set that slowly drifts across the
+ * keyspace. Every so often a random member of the working set is replaced
+ * with a random key, so the set of popular keys changes over the run.
+ * 
+ * The drift is either counted in operations (one key replaced every
+ * workingsetdelta draws) or, if a churn rate is given, in time (churnrate keys
+ * replaced per second of wall clock, independent of the throughput the
+ * client reaches). The working set can be grown or shrunk while the run is in
+ * progress with resizeWorkingSet().
  */
 public class ChurnGenerator extends IntegerGenerator {
 	int recordcount;
 	Random _r;
-	int[] workingset;
-	int workingsetsize;
-	int workingsetmaxsize;
+	volatile int[] workingset;
 	int workingsetdelta;
 	int ops;
 	
+	/**
+	 * Keys replaced per second, or 0 to count the drift in operations.
+	 */
+	double churnrate;
+	
+	/**
+	 * Time the drift clock was started, in nanoseconds.
+	 */
+	long starttime;
+	
+	/**
+	 * Number of keys replaced since starttime.
+	 */
+	long replaced;
+	
+	/**
+	 * Time at which the next key is due to be replaced, in nanoseconds.
+	 */
+	volatile long nextdrift;
 
 	public ChurnGenerator(int workingsetmaxsize, int workingsetdelta, int recordcount) {
+		this(workingsetmaxsize, workingsetdelta, recordcount, 0.0);
+	}
+
+	/**
+	 * Create a churn generator.
+	 * 
+	 * @param workingsetsize
+	 *            The number of keys in the working set.
+	 * @param workingsetdelta
+	 *            The number of draws between two replacements, used when
+	 *            churnrate is 0.
+	 * @param recordcount
+	 *            The number of keys to draw the working set from.
+	 * @param churnrate
+	 *            The number of working set keys to replace per second, or 0
+	 *            to replace keys based on the number of draws.
+	 */
+	public ChurnGenerator(int workingsetsize, int workingsetdelta, int recordcount, double churnrate) {
 		_r = new Random();
-		this.workingset = new int[workingsetmaxsize];
-		this.workingsetsize = 0;
-		this.workingsetmaxsize = workingsetmaxsize;
 		this.workingsetdelta = workingsetdelta;
 		this.recordcount = recordcount;
+		this.churnrate = churnrate;
 		ops = 0;
+		
+		int[] ws = new int[workingsetsize];
+		for (int i = 0; i < ws.length; i++) {
+			ws[i] = _r.nextInt(recordcount);
+		}
+		workingset = ws;
+		
+		starttime = System.nanoTime();
+		replaced = 0;
+		if (churnrate > 0) {
+			nextdrift = starttime + (long) (1000000000.0 / churnrate);
+		} else {
+			nextdrift = Long.MAX_VALUE;
+		}
 		nextInt();
 	}
 
 	/**
-	 * Generate the next string in the distribution, skewed Zipfian favoring the
-	 * items most recently returned by the basis generator.
+	 * Return a random key from the current working set, replacing working set
+	 * members first if any are due.
 	 */
 	public int nextInt() {
-		while (workingsetsize < workingsetmaxsize) {
-			workingset[workingsetsize] = _r.nextInt(recordcount);
-			workingsetsize++;
-		}
-		if (ops > workingsetdelta) {
-			ops = 0;
-			int index = _r.nextInt(workingsetsize);
-			int next_val = _r.nextInt(recordcount);
-			workingset[index] = next_val;
+		if (churnrate > 0) {
+			if (System.nanoTime() >= nextdrift) {
+				drift();
+			}
+		} else if (ops > workingsetdelta) {
+			drift();
 		}
 		ops++;
-		return workingset[_r.nextInt(workingsetmaxsize)];
+		
+		int[] ws = workingset;
+		int ret = ws[_r.nextInt(ws.length)];
+		setLastInt(ret);
+		return ret;
 	}
 	
 	/**
-	 * 
-	 * @param args
+	 * Fill dst[off..off+len) with the next len keys. With a time-driven churn
+	 * rate the working set drifts at most once per batch.
+	 */
+	public void nextInts(int[] dst, int off, int len) {
+		if (len <= 0) {
+			return;
+		}
+		boolean timed = churnrate > 0;
+		if (timed && System.nanoTime() >= nextdrift) {
+			drift();
+		}
+		
+		Random r = _r;
+		int[] ws = workingset;
+		for (int i = off, end = off + len; i < end; i++) {
+			if (!timed && ops > workingsetdelta) {
+				drift();
+			}
+			ops++;
+			dst[i] = ws[r.nextInt(ws.length)];
+		}
+		setLastInt(dst[off + len - 1]);
+	}
+	
+	/**
+	 * Replace the working set members that are due. With a churn rate this
+	 * catches up on every replacement that should have happened by now, but
+	 * never does more work than replacing the whole set once.
 	 */
-	public void resizeWorkingSet() {
+	synchronized void drift() {
+		int[] ws = workingset;
+		if (churnrate <= 0) {
+			if (ops > workingsetdelta) {
+				ops = 0;
+				ws[_r.nextInt(ws.length)] = _r.nextInt(recordcount);
+			}
+			return;
+		}
 		
+		long now = System.nanoTime();
+		if (now < nextdrift) {
+			return;
+		}
+		long due = (long) ((now - starttime) / 1000000000.0 * churnrate);
+		if (due - replaced > ws.length) {
+			replaced = due - ws.length;
+		}
+		while (replaced < due) {
+			ws[_r.nextInt(ws.length)] = _r.nextInt(recordcount);
+			replaced++;
+		}
+		nextdrift = starttime + (long) ((replaced + 1) * 1000000000.0 / churnrate);
+	}
+	
+	/**
+	 * Grow or shrink the working set. Members that survive the resize are
+	 * kept; new members are random keys. Takes effect for the next draw.
+	 * 
+	 * @param size
+	 *            The new number of keys in the working set.
+	 */
+	public synchronized void resizeWorkingSet(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Working set size must be positive, got " + size);
+		}
+		int[] old = workingset;
+		int[] ws = new int[size];
+		int keep = Math.min(old.length, size);
+		System.arraycopy(old, 0, ws, 0, keep);
+		for (int i = keep; i < size; i++) {
+			ws[i] = _r.nextInt(recordcount);
+		}
+		workingset = ws;
+	}
+	
+	/**
+	 * Change the number of keys replaced per second. The drift clock is
+	 * restarted so the new rate only applies from now on.
+	 * 
+	 * @param rate
+	 *            The new churn rate in keys per second, or 0 to go back to
+	 *            replacing keys based on the number of draws.
+	 */
+	public synchronized void setChurnRate(double rate) {
+		churnrate = rate;
+		starttime = System.nanoTime();
+		replaced = 0;
+		if (rate > 0) {
+			nextdrift = starttime + (long) (1000000000.0 / rate);
+		} else {
+			nextdrift = Long.MAX_VALUE;
+		}
+	}
+	
+	public int getWorkingSetSize() {
+		return workingset.length;
 	}
 
 	public static void main(String[] args) {
@@ -40,10 +40,16 @@ public class DiscreteGenerator extends Generator {
 	Random _random;
 	String _lastvalue;
 
+	/**
+	 * The normalized cumulative weights of the values, for nextIndex().
+	 */
+	double[] _cumulative;
+
 	public DiscreteGenerator() {
 		_values = new Vector<Pair>();
 		_random = new Random();
 		_lastvalue = null;
+		_cumulative = new double[0];
 	}
 
 	/**
@@ -74,6 +80,37 @@ public class DiscreteGenerator extends Generator {
 		return null;
 	}
 
+	/**
+	 * Choose the next value and return its index, in the order the values were
+	 * added, or -1 if there are no values. Unlike nextString() this does not
+	 * walk the value list, so it is cheap enough to call once per operation.
+	 */
+	public int nextIndex() {
+		double[] cumulative = _cumulative;
+		double val = _random.nextDouble();
+		for (int i = 0; i < cumulative.length; i++) {
+			if (val < cumulative[i]) {
+				return i;
+			}
+		}
+		// only reachable through rounding, or with no values
+		return cumulative.length - 1;
+	}
+
+	/**
+	 * Return the value with the given index, as returned by nextIndex().
+	 */
+	public String getValue(int index) {
+		return _values.get(index)._value;
+	}
+
+	/**
+	 * Return the number of values.
+	 */
+	public int size() {
+		return _values.size();
+	}
+
 	/**
 	 * If the generator returns numeric (integer) values, return the next value
 	 * as an int. Default is to return -1, which is appropriate for generators
@@ -102,6 +139,18 @@ public class DiscreteGenerator extends Generator {
 
 	public void addValue(double weight, String value) {
 		_values.add(new Pair(weight, value));
+
+		double sum = 0;
+		for (Pair p : _values) {
+			sum += p._weight;
+		}
+		double[] cumulative = new double[_values.size()];
+		double acc = 0;
+		for (int i = 0; i < cumulative.length; i++) {
+			acc += _values.get(i)._weight / sum;
+			cumulative[i] = acc;
+		}
+		_cumulative = cumulative;
 	}
 
 }
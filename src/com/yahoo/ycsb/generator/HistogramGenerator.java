@@ -0,0 +1,107 @@
+/**                                                                                                                                                                                
+ * Copyright (c) 2010 Yahoo! Inc. All rights reserved.                                                                                                                             
+ *                                                                                                                                                                                 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you                                                                                                             
+ * may not use this file except in compliance with the License. You                                                                                                                
+ * may obtain a copy of the License at                                                                                                                                             
+ *                                                                                                                                                                                 
+ * http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                      
+ *                                                                                                                                                                                 
+ * Unless required by applicable law or agreed to in writing, software                                                                                                             
+ * distributed under the License is distributed on an "AS IS" BASIS,                                                                                                               
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or                                                                                                                 
+ * implied. See the License for the specific language governing                                                                                                                    
+ * permissions and limitations under the License. See accompanying                                                                                                                 
+ * LICENSE file.                                                                                                                                                                   
+ */
+
+package com.yahoo.ycsb.generator;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Generates integers from an empirical histogram, e.g. value sizes measured
+ * on a production cache. The histogram is a text file with one bucket per
+ * line, "value weight", separated by whitespace or a comma. Blank lines and
+ * lines starting with # are ignored. Weights need not sum to 1.
+ */
+public class HistogramGenerator extends IntegerGenerator {
+	Random _random;
+	int[] _values;
+
+	/**
+	 * Cumulative weights, normalized so the last one is 1.
+	 */
+	double[] _cumulative;
+
+	public HistogramGenerator(String filename) throws IOException {
+		ArrayList<Integer> values = new ArrayList<Integer>();
+		ArrayList<Double> weights = new ArrayList<Double>();
+		BufferedReader in = new BufferedReader(new FileReader(filename));
+		try {
+			String line;
+			int lineno = 0;
+			while ((line = in.readLine()) != null) {
+				lineno++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("[\\s,]+");
+				if (fields.length != 2) {
+					throw new IOException(filename + ":" + lineno + ": expected \"value weight\", got \"" + line + "\"");
+				}
+				try {
+					values.add(Integer.parseInt(fields[0]));
+					weights.add(Double.parseDouble(fields[1]));
+				} catch (NumberFormatException e) {
+					throw new IOException(filename + ":" + lineno + ": " + e.getMessage());
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		_values = new int[values.size()];
+		_cumulative = new double[values.size()];
+		double sum = 0;
+		for (int i = 0; i < _values.length; i++) {
+			double w = weights.get(i);
+			if (w < 0) {
+				throw new IOException(filename + ": negative weight for " + values.get(i));
+			}
+			_values[i] = values.get(i);
+			sum += w;
+			_cumulative[i] = sum;
+		}
+		if (sum <= 0) {
+			throw new IOException(filename + ": histogram has no weight");
+		}
+		for (int i = 0; i < _cumulative.length; i++) {
+			_cumulative[i] /= sum;
+		}
+		_random = new Random();
+	}
+
+	@Override
+	public int nextInt() {
+		double u = _random.nextDouble();
+		int lo = 0, hi = _cumulative.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (_cumulative[mid] <= u) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		int ret = _values[lo];
+		setLastInt(ret);
+
+		return ret;
+	}
+}
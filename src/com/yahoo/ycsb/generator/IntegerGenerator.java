@@ -41,6 +41,17 @@ public abstract class IntegerGenerator extends Generator {
 	 */
 	public abstract int nextInt();
 
+	/**
+	 * Fill dst[off..off+len) with the next len values, as if by len calls to
+	 * nextInt(). lastInt() returns the final value written. Subclasses should
+	 * override this with a loop that keeps the generator state in locals.
+	 */
+	public void nextInts(int[] dst, int off, int len) {
+		for (int i = off, end = off + len; i < end; i++) {
+			dst[i] = nextInt();
+		}
+	}
+
 	/**
 	 * Generate the next string in the distribution.
 	 */
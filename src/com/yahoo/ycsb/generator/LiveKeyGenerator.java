@@ -0,0 +1,93 @@
+/**                                                                                                                                                                                
+ * Copyright (c) 2010 Yahoo! Inc. All rights reserved.                                                                                                                             
+ *                                                                                                                                                                                 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you                                                                                                             
+ * may not use this file except in compliance with the License. You                                                                                                                
+ * may obtain a copy of the License at                                                                                                                                             
+ *                                                                                                                                                                                 
+ * http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                      
+ *                                                                                                                                                                                 
+ * Unless required by applicable law or agreed to in writing, software                                                                                                             
+ * distributed under the License is distributed on an "AS IS" BASIS,                                                                                                               
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or                                                                                                                 
+ * implied. See the License for the specific language governing                                                                                                                    
+ * permissions and limitations under the License. See accompanying                                                                                                                 
+ * LICENSE file.                                                                                                                                                                   
+ */
+
+package com.yahoo.ycsb.generator;
+
+import com.yahoo.ycsb.Utils;
+
+/**
+ * Maps the draws of a key generator into the range of keys that have been
+ * inserted so far, as given by the last value of an insert sequence. A draw
+ * that names an existing key is returned as is; a draw past the newest key is
+ * folded by hashing, in one step instead of drawing again, onto one of the
+ * keys that existed when the generator was created. That range does not
+ * move, so a draw is always folded onto the same key. Each key therefore
+ * keeps the popularity of its own draws as the keyspace grows, and starts
+ * being returned itself once it is inserted.
+ */
+public class LiveKeyGenerator extends IntegerGenerator {
+	IntegerGenerator _gen;
+	CounterGenerator _live;
+
+	/**
+	 * The newest key when the generator was created, the last of the range
+	 * draws are folded onto.
+	 */
+	int _loaded;
+
+	/**
+	 * @param gen
+	 *            The generator to draw keys from.
+	 * @param live
+	 *            The sequence of inserted keys; its last value is the newest
+	 *            key that exists.
+	 */
+	public LiveKeyGenerator(IntegerGenerator gen, CounterGenerator live) {
+		_gen = gen;
+		_live = live;
+		_loaded = live.lastInt();
+	}
+
+	/**
+	 * Return the generator the keys are drawn from.
+	 */
+	public IntegerGenerator getGenerator() {
+		return _gen;
+	}
+
+	public int nextInt() {
+		int ret = fold(_gen.nextInt(), _live.lastInt(), _loaded);
+		setLastInt(ret);
+		return ret;
+	}
+
+	public void nextInts(int[] dst, int off, int len) {
+		if (len <= 0) {
+			return;
+		}
+		_gen.nextInts(dst, off, len);
+		int last = _live.lastInt();
+		for (int i = off, end = off + len; i < end; i++) {
+			if (dst[i] > last) {
+				dst[i] = fold(dst[i], last, _loaded);
+			}
+		}
+		setLastInt(dst[off + len - 1]);
+	}
+
+	/**
+	 * Map a key past last onto the range [0, loaded], or [0, last] if
+	 * nothing was loaded.
+	 */
+	static int fold(int keynum, int last, int loaded) {
+		int range = loaded >= 0 ? loaded : last;
+		if (keynum <= last || range < 0) {
+			return keynum;
+		}
+		return (int) (Utils.FNVhash64(keynum) % (range + 1));
+	}
+}
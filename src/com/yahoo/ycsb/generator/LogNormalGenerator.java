@@ -0,0 +1,58 @@
+/**                                                                                                                                                                                
+ * Copyright (c) 2010 Yahoo! Inc. All rights reserved.                                                                                                                             
+ *                                                                                                                                                                                 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you                                                                                                             
+ * may not use this file except in compliance with the License. You                                                                                                                
+ * may obtain a copy of the License at                                                                                                                                             
+ *                                                                                                                                                                                 
+ * http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                      
+ *                                                                                                                                                                                 
+ * Unless required by applicable law or agreed to in writing, software                                                                                                             
+ * distributed under the License is distributed on an "AS IS" BASIS,                                                                                                               
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or                                                                                                                 
+ * implied. See the License for the specific language governing                                                                                                                    
+ * permissions and limitations under the License. See accompanying                                                                                                                 
+ * LICENSE file.                                                                                                                                                                   
+ */
+
+package com.yahoo.ycsb.generator;
+
+import java.util.Random;
+
+/**
+ * Generates integers from a log-normal distribution, clamped to an interval.
+ * Object sizes in caches are commonly modeled this way: most values are
+ * small, with a long tail of large ones.
+ */
+public class LogNormalGenerator extends IntegerGenerator {
+	Random _random;
+	int _lb, _ub;
+	double _mu, _sigma;
+
+	/**
+	 * @param lb
+	 *            the lower bound (inclusive) of generated values
+	 * @param ub
+	 *            the upper bound (inclusive) of generated values
+	 * @param mu
+	 *            the mean of the logarithm of the values
+	 * @param sigma
+	 *            the standard deviation of the logarithm of the values
+	 */
+	public LogNormalGenerator(int lb, int ub, double mu, double sigma) {
+		_random = new Random();
+		_lb = lb;
+		_ub = ub;
+		_mu = mu;
+		_sigma = sigma;
+	}
+
+	@Override
+	public int nextInt() {
+		double v = Math.exp(_mu + _sigma * _random.nextGaussian());
+		int ret = v >= _ub ? _ub : (v <= _lb ? _lb : (int) v);
+		setLastInt(ret);
+
+		return ret;
+	}
+}
@@ -40,6 +40,14 @@ public class ScrambledZipfianGenerator extends IntegerGenerator {
 	ZipfianGenerator gen;
 	long _min, _max, _itemcount;
 
+	/**
+	 * The unscrambled draws of nextInts(), kept so that bulk draws allocate
+	 * nothing once it has grown. Guarded by the generator's lock, as each
+	 * client thread's BufferedIntegerGenerator refills from the one shared
+	 * generator.
+	 */
+	long[] raw;
+
 	/******************************* Constructors **************************************/
 
 	/**
@@ -120,6 +128,28 @@ public class ScrambledZipfianGenerator extends IntegerGenerator {
 		return ret;
 	}
 
+	@Override
+	public synchronized void nextInts(int[] dst, int off, int len) {
+		if (len <= 0) {
+			return;
+		}
+		// the underlying zipfian spans more than an int, so draw longs in
+		// chunks and scramble them down into the destination
+		int chunk = Math.min(len, 1024);
+		if (raw == null || raw.length < chunk) {
+			raw = new long[chunk];
+		}
+		long min = _min, itemcount = _itemcount;
+		for (int done = 0; done < len; done += chunk) {
+			int n = Math.min(chunk, len - done);
+			gen.nextLongs(raw, 0, n, gen.items);
+			for (int i = 0; i < n; i++) {
+				dst[off + done + i] = (int) (min + Utils.FNVhash64(raw[i]) % itemcount);
+			}
+		}
+		setLastInt(dst[off + len - 1]);
+	}
+
 	public static void main(String[] args) {
 		ScrambledZipfianGenerator gen = new ScrambledZipfianGenerator(10000);
 
@@ -42,6 +42,22 @@ public class SkewedLatestGenerator extends IntegerGenerator {
 		return nextint;
 	}
 
+	/**
+	 * Fill dst[off..off+len) with the next len values. The latest key is read
+	 * once for the whole batch.
+	 */
+	public void nextInts(int[] dst, int off, int len) {
+		if (len <= 0) {
+			return;
+		}
+		int max = _basis.lastInt();
+		_zipfian.nextInts(dst, off, len, max);
+		for (int i = off, end = off + len; i < end; i++) {
+			dst[i] = max - dst[i];
+		}
+		setLastInt(dst[off + len - 1]);
+	}
+
 	public static void main(String[] args) {
 		SkewedLatestGenerator gen = new SkewedLatestGenerator(
 				new CounterGenerator(1000));
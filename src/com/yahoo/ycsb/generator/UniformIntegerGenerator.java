@@ -50,4 +50,17 @@ public class UniformIntegerGenerator extends IntegerGenerator {
 		return ret;
 	}
 
+	@Override
+	public void nextInts(int[] dst, int off, int len) {
+		if (len <= 0) {
+			return;
+		}
+		Random r = _random;
+		int lb = _lb, interval = _interval;
+		for (int i = off, end = off + len; i < end; i++) {
+			dst[i] = r.nextInt(interval) + lb;
+		}
+		setLastInt(dst[off + len - 1]);
+	}
+
 }
@@ -280,6 +280,47 @@ public class ZipfianGenerator extends IntegerGenerator {
 		return (int) nextLong(itemcount);
 	}
 
+	/**
+	 * Recompute zetan and eta for a new item count.
+	 */
+	void updateItemCount(long itemcount) {
+		// have to recompute zetan and eta, since they depend on itemcount
+		synchronized (this) {
+			if (itemcount > countforzeta) {
+				// System.err.println("WARNING: Incrementally recomputing Zipfian distribtion. (itemcount="+itemcount+" countforzeta="+countforzeta+")");
+
+				// we have added more items. can compute zetan
+				// incrementally, which is cheaper
+				zetan = zeta(countforzeta, itemcount, theta, zetan);
+				eta = (1 - Math.pow(2.0 / items, 1 - theta))
+						/ (1 - zeta2theta / zetan);
+			} else if ((itemcount < countforzeta)
+					&& (allowitemcountdecrease)) {
+				// have to start over with zetan
+				// note : for large itemsets, this is very slow. so don't do
+				// it!
+
+				// TODO: can also have a negative incremental computation,
+				// e.g. if you decrease the number of items, then just
+				// subtract
+				// the zeta sequence terms for the items that went away.
+				// This would be faster than recomputing from scratch when
+				// the number of items
+				// decreases
+
+				System.err
+						.println("WARNING: Recomputing Zipfian distribtion. This is slow and should be avoided. (itemcount="
+								+ itemcount
+								+ " countforzeta="
+								+ countforzeta + ")");
+
+				zetan = zeta(itemcount, theta);
+				eta = (1 - Math.pow(2.0 / items, 1 - theta))
+						/ (1 - zeta2theta / zetan);
+			}
+		}
+	}
+
 	/**
 	 * Generate the next item as a long.
 	 * 
@@ -292,53 +333,20 @@ public class ZipfianGenerator extends IntegerGenerator {
 		// Gray et al, SIGMOD 1994
 
 		if (itemcount != countforzeta) {
-
-			// have to recompute zetan and eta, since they depend on itemcount
-			synchronized (this) {
-				if (itemcount > countforzeta) {
-					// System.err.println("WARNING: Incrementally recomputing Zipfian distribtion. (itemcount="+itemcount+" countforzeta="+countforzeta+")");
-
-					// we have added more items. can compute zetan
-					// incrementally, which is cheaper
-					zetan = zeta(countforzeta, itemcount, theta, zetan);
-					eta = (1 - Math.pow(2.0 / items, 1 - theta))
-							/ (1 - zeta2theta / zetan);
-				} else if ((itemcount < countforzeta)
-						&& (allowitemcountdecrease)) {
-					// have to start over with zetan
-					// note : for large itemsets, this is very slow. so don't do
-					// it!
-
-					// TODO: can also have a negative incremental computation,
-					// e.g. if you decrease the number of items, then just
-					// subtract
-					// the zeta sequence terms for the items that went away.
-					// This would be faster than recomputing from scratch when
-					// the number of items
-					// decreases
-
-					System.err
-							.println("WARNING: Recomputing Zipfian distribtion. This is slow and should be avoided. (itemcount="
-									+ itemcount
-									+ " countforzeta="
-									+ countforzeta + ")");
-
-					zetan = zeta(itemcount, theta);
-					eta = (1 - Math.pow(2.0 / items, 1 - theta))
-							/ (1 - zeta2theta / zetan);
-				}
-			}
+			updateItemCount(itemcount);
 		}
 
 		double u = random.nextDouble();
 		double uz = u * zetan;
 
 		if (uz < 1.0) {
-			return 0;
+			setLastInt((int) base);
+			return base;
 		}
 
 		if (uz < 1.0 + Math.pow(0.5, theta)) {
-			return 1;
+			setLastInt((int) base + 1);
+			return base + 1;
 		}
 
 		long ret = base
@@ -347,6 +355,67 @@ public class ZipfianGenerator extends IntegerGenerator {
 		return ret;
 	}
 
+	/**
+	 * Fill dst[off..off+len) with the next len items, as if by len calls to
+	 * nextInt(itemcount). The distribution constants are read once per batch
+	 * rather than once per item.
+	 */
+	public void nextInts(int[] dst, int off, int len, long itemcount) {
+		if (len <= 0) {
+			return;
+		}
+		if (itemcount != countforzeta) {
+			updateItemCount(itemcount);
+		}
+
+		Random r = random;
+		double zn = zetan, e = eta, a = alpha;
+		double two = 1.0 + Math.pow(0.5, theta);
+		long b = base;
+		for (int i = off, end = off + len; i < end; i++) {
+			double u = r.nextDouble();
+			double uz = u * zn;
+			if (uz < 1.0) {
+				dst[i] = (int) b;
+			} else if (uz < two) {
+				dst[i] = (int) b + 1;
+			} else {
+				dst[i] = (int) (b + (long) (itemcount * Math.pow(e * u - e + 1, a)));
+			}
+		}
+		setLastInt(dst[off + len - 1]);
+	}
+
+	/**
+	 * Fill dst[off..off+len) with the next len items as longs, as if by len
+	 * calls to nextLong(itemcount).
+	 */
+	public void nextLongs(long[] dst, int off, int len, long itemcount) {
+		if (len <= 0) {
+			return;
+		}
+		if (itemcount != countforzeta) {
+			updateItemCount(itemcount);
+		}
+
+		Random r = random;
+		double zn = zetan, e = eta, a = alpha;
+		double two = 1.0 + Math.pow(0.5, theta);
+		long b = base;
+		for (int i = off, end = off + len; i < end; i++) {
+			double u = r.nextDouble();
+			double uz = u * zn;
+			if (uz < 1.0) {
+				dst[i] = b;
+			} else if (uz < two) {
+				dst[i] = b + 1;
+			} else {
+				dst[i] = b + (long) (itemcount * Math.pow(e * u - e + 1, a));
+			}
+		}
+		setLastInt((int) dst[off + len - 1]);
+	}
+
 	/**
 	 * Return the next value, skewed by the Zipfian distribution. The 0th item
 	 * will be the most popular, followed by the 1st, followed by the 2nd, etc.
@@ -359,6 +428,11 @@ public class ZipfianGenerator extends IntegerGenerator {
 		return (int) nextLong(items);
 	}
 
+	@Override
+	public void nextInts(int[] dst, int off, int len) {
+		nextInts(dst, off, len, items);
+	}
+
 	/**
 	 * Return the next value, skewed by the Zipfian distribution. The 0th item
 	 * will be the most popular, followed by the 1st, followed by the 2nd, etc.
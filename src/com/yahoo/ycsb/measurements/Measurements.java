@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.TreeMap;
 
 import com.yahoo.ycsb.Config;
 import com.yahoo.ycsb.measurements.exporter.MeasurementsExporter;
@@ -11,6 +12,20 @@ import com.yahoo.ycsb.measurements.exporter.MeasurementsExporter;
 public class Measurements {
 	private static final long serialVersionUID = -311232927139188477L;
 
+	/**
+	 * Separates an operation from the server in the names of per-server
+	 * measurements, as in GET@host:port.
+	 */
+	public static final String SERVER_SEPARATOR = "@";
+
+	/**
+	 * Appended to an operation for the measurements of its attempts that
+	 * missed their deadline and of its retries, so their latencies do not
+	 * mix with those of the attempts that completed in time.
+	 */
+	public static final String TIMEOUT_SUFFIX = "-TIMEOUT";
+	public static final String RETRY_SUFFIX = "-RETRY";
+
 	static Measurements measurements = null;
 
 	/**
@@ -57,6 +72,17 @@ public class Measurements {
 	 * operation="READ" and latency is the measured value.
 	 */
 	public synchronized void measure(String operation, int latency) {
+		operations++;
+		partialoperations++;
+		measurePart(operation, latency);
+	}
+	
+	/**
+	 * Report a value of a metric that belongs to an operation already counted
+	 * by measure(), e.g. the per-key latency of a multi-get. The value is
+	 * recorded, but does not add to the operation count.
+	 */
+	public synchronized void measurePart(String operation, int latency) {
 		if (!totaldata.containsKey(operation) || !partialdata.containsKey(operation)) {
 			synchronized (this) {
 				if (!totaldata.containsKey(operation)) {
@@ -68,8 +94,6 @@ public class Measurements {
 			}
 		}
 		try {
-			operations++;
-			partialoperations++;
 			totaldata.get(operation).measure(latency);
 			partialdata.get(operation).measure(latency);
 		} catch (java.lang.ArrayIndexOutOfBoundsException e) {
@@ -114,11 +138,28 @@ public class Measurements {
 		return m;
 	}
 
+	/**
+	 * Count an operation that missed its deadline, recording its latency
+	 * under OP-TIMEOUT instead of OP.
+	 */
+	public void measureTimeout(String operation, int latency) {
+		measure(operation + TIMEOUT_SUFFIX, latency);
+	}
+
+	/**
+	 * Record a retry of an operation already counted, with the retry's own
+	 * latency and return code, under OP-RETRY.
+	 */
+	public void measureRetry(String operation, int latency, int code) {
+		measurePart(operation + RETRY_SUFFIX, latency);
+		reportReturnCode(operation + RETRY_SUFFIX, code);
+	}
+
 	/**
 	 * Report a return code for a single DB operaiton.
 	 */
 	public void reportReturnCode(String operation, int code) {
-		if (!totaldata.containsKey(operation)) {
+		if (!totaldata.containsKey(operation) || !partialdata.containsKey(operation)) {
 			synchronized (this) {
 				if (!totaldata.containsKey(operation)) {
 					totaldata.put(operation, constructOneMeasurement(operation));
@@ -148,14 +189,59 @@ public class Measurements {
 	}
 
 	/**
-	 * Return a one line summary of the measurements.
+	 * Return a one line summary of the measurements, followed by a line per
+	 * server for the per-server measurements, if any. A server line gives the
+	 * keys per second sent to the server and the hit ratio of its gets.
 	 */
 	public synchronized String getSummary() {
 		int interval = Config.getConfig().print_stats_interval;
 		
 		String ret = " " + operations + " operations; " + (partialoperations / interval) + " ops/sec";
+		TreeMap<String, String> servers = null;
+		TreeMap<String, long[]> counts = null;
 		for (OneMeasurement m : partialdata.values()) {
-			ret += m.getSummary() + " ";
+			String name = m.getName();
+			int at = name.indexOf(SERVER_SEPARATOR);
+			if (at < 0) {
+				ret += m.getSummary() + " ";
+				continue;
+			}
+			if (servers == null) {
+				servers = new TreeMap<String, String>();
+				counts = new TreeMap<String, long[]>();
+			}
+			String server = name.substring(at + SERVER_SEPARATOR.length());
+			String line = servers.get(server);
+			long[] count = counts.get(server);
+			if (line == null) {
+				line = "";
+				count = new long[3];
+				counts.put(server, count);
+			}
+			servers.put(server, line + m.getSummary() + " ");
+			// keys, and the hits and lookups of the gets
+			count[0] += m.getOperations();
+			if (name.startsWith("GET" + SERVER_SEPARATOR) || name.startsWith("MULTIGET-KEY" + SERVER_SEPARATOR)) {
+				HashMap<Integer, int[]> codes = m.getReturnCodes();
+				if (codes != null) {
+					for (Integer code : codes.keySet()) {
+						if (code.intValue() == 0) {
+							count[1] += codes.get(code)[0];
+						}
+						count[2] += codes.get(code)[0];
+					}
+				}
+			}
+		}
+		if (servers != null) {
+			for (String server : servers.keySet()) {
+				long[] count = counts.get(server);
+				ret += "\n  " + server + ": " + (count[0] / interval) + " keys/sec";
+				if (count[2] > 0) {
+					ret += " hit=" + String.format("%.2f", 100.0 * count[1] / count[2]) + "%";
+				}
+				ret += " " + servers.get(server);
+			}
 		}
 		partialoperations = 0;
 		getAndResetPartialData();
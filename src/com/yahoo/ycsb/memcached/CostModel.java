@@ -0,0 +1,51 @@
+package com.yahoo.ycsb.memcached;
+
+import com.yahoo.ycsb.WorkloadException;
+
+/**
+ * Assigns every key the cost of fetching it from the backend on a miss. The
+ * cost is a function of the key, so every set and every miss of a key agree
+ * on it without anyone remembering what was set. Implementations are shared
+ * by all client threads and must be thread safe; cost() should be O(1).
+ */
+public abstract class CostModel {
+	/**
+	 * Initialize the model from the Config. Called once, in the main client
+	 * thread, before any costs are asked for.
+	 */
+	public void init() throws WorkloadException {
+	}
+
+	/**
+	 * Return the cost of a key.
+	 * 
+	 * @param keynum
+	 *            The key number.
+	 * @param valuelength
+	 *            The length of the key's value, or -1 if the workload chooses
+	 *            the value length from the cost.
+	 */
+	public abstract int cost(int keynum, int valuelength);
+
+	/**
+	 * Load and initialize the cost model with the given class name.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static CostModel newCostModel(String name) throws WorkloadException {
+		CostModel model;
+		try {
+			Class modelclass = CostModel.class.getClassLoader().loadClass(name);
+			model = (CostModel) modelclass.newInstance();
+		} catch (ClassNotFoundException e) {
+			throw new WorkloadException("Unknown cost model " + name);
+		} catch (ClassCastException e) {
+			throw new WorkloadException(name + " is not a cost model");
+		} catch (InstantiationException e) {
+			throw new WorkloadException("Could not create cost model " + name + ": " + e.getMessage());
+		} catch (IllegalAccessException e) {
+			throw new WorkloadException("Could not create cost model " + name + ": " + e.getMessage());
+		}
+		model.init();
+		return model;
+	}
+}
@@ -0,0 +1,81 @@
+package com.yahoo.ycsb.memcached;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.WorkloadException;
+
+/**
+ * Costs loaded from costfile, e.g. measured backend latencies. The file has
+ * one key per line, "keynum cost", separated by whitespace or a comma; blank
+ * lines and lines starting with # are ignored. Costs are held in an array
+ * indexed by key number. Keys not in the file cost 0, and key numbers past
+ * the largest in the file wrap around.
+ */
+public class FileCostModel extends CostModel {
+	int[] costs;
+
+	public void init() throws WorkloadException {
+		String filename = Config.getConfig().cost_file;
+		if (filename == null) {
+			throw new WorkloadException("Property \"" + Config.COST_FILE_PROPERTY + "\" is required");
+		}
+		try {
+			costs = load(filename);
+		} catch (IOException e) {
+			throw new WorkloadException("Could not read cost file " + filename + ": " + e.getMessage());
+		}
+	}
+
+	static int[] load(String filename) throws IOException {
+		int[] costs = new int[1024];
+		int length = 0;
+		BufferedReader in = new BufferedReader(new FileReader(filename));
+		try {
+			String line;
+			int lineno = 0;
+			while ((line = in.readLine()) != null) {
+				lineno++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("[\\s,]+");
+				int keynum, cost;
+				try {
+					if (fields.length != 2) {
+						throw new NumberFormatException("expected \"keynum cost\", got \"" + line + "\"");
+					}
+					keynum = Integer.parseInt(fields[0]);
+					cost = Integer.parseInt(fields[1]);
+				} catch (NumberFormatException e) {
+					throw new IOException(filename + ":" + lineno + ": " + e.getMessage());
+				}
+				if (keynum < 0) {
+					throw new IOException(filename + ":" + lineno + ": negative key number " + keynum);
+				}
+				if (keynum >= costs.length) {
+					int[] grown = new int[Math.max(keynum + 1, costs.length * 2)];
+					System.arraycopy(costs, 0, grown, 0, length);
+					costs = grown;
+				}
+				costs[keynum] = cost;
+				length = Math.max(length, keynum + 1);
+			}
+		} finally {
+			in.close();
+		}
+		if (length == 0) {
+			throw new IOException(filename + " has no costs");
+		}
+		int[] ret = new int[length];
+		System.arraycopy(costs, 0, ret, 0, length);
+		return ret;
+	}
+
+	public int cost(int keynum, int valuelength) {
+		return costs[(keynum & Integer.MAX_VALUE) % costs.length];
+	}
+}
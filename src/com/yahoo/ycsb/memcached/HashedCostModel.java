@@ -0,0 +1,70 @@
+package com.yahoo.ycsb.memcached;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.Utils;
+import com.yahoo.ycsb.WorkloadException;
+
+/**
+ * The high, mid and low cost classes, with each key's class and its cost
+ * within the class's range taken from a hash of the key number. Over many
+ * keys, the classes appear with the configured probabilities and the costs
+ * are uniform within each class, as with drawing a fresh cost per set, but
+ * a key always has the same cost.
+ */
+public class HashedCostModel extends CostModel {
+	/**
+	 * The cumulative probability, and cost bounds, of each class.
+	 */
+	double[] cumulative;
+	int[] mins;
+	int[] ranges;
+
+	public void init() throws WorkloadException {
+		Config config = Config.getConfig();
+		double[] probs = { config.high_cost_prob, config.mid_cost_prob, config.low_cost_prob };
+		int[] lo = { config.high_cost_min, config.mid_cost_min, config.low_cost_min };
+		int[] hi = { config.high_cost_max, config.mid_cost_max, config.low_cost_max };
+
+		int n = 0;
+		double total = 0;
+		for (int i = 0; i < probs.length; i++) {
+			if (probs[i] > 0) {
+				n++;
+				total += probs[i];
+				if (hi[i] < lo[i]) {
+					throw new WorkloadException("Cost class " + i + " has max " + hi[i] + " < min " + lo[i]);
+				}
+			}
+		}
+		if (n == 0) {
+			throw new WorkloadException("No cost class has a positive probability");
+		}
+
+		cumulative = new double[n];
+		mins = new int[n];
+		ranges = new int[n];
+		double sum = 0;
+		for (int i = 0, j = 0; i < probs.length; i++) {
+			if (probs[i] > 0) {
+				sum += probs[i];
+				cumulative[j] = sum / total;
+				mins[j] = lo[i];
+				ranges[j] = hi[i] - lo[i] + 1;
+				j++;
+			}
+		}
+		cumulative[n - 1] = 1.0;
+	}
+
+	public int cost(int keynum, int valuelength) {
+		// the hash is 63 bits; the top 24 pick the class, the 32 below them
+		// the cost within it
+		long h = Utils.FNVhash64(keynum);
+		double u = (h >>> 39) / (double) (1 << 24);
+		int c = 0;
+		while (c < cumulative.length - 1 && u >= cumulative[c]) {
+			c++;
+		}
+		return mins[c] + (int) (((h >>> 7) & 0xffffffffL) % ranges[c]);
+	}
+}
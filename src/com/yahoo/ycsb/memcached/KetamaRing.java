@@ -0,0 +1,196 @@
+package com.yahoo.ycsb.memcached;
+
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.DataStoreException;
+
+/**
+ * The memcached servers to use and a ketama consistent hash ring over them.
+ * The servers are memcached.servers, a comma separated list of host:port or
+ * host:port:weight entries, or if it is not set memcached.address and
+ * memcached.port. Hosts may be names or addresses.
+ *
+ * As in libketama, each server gets 40 * servers * weight / total weight MD5
+ * hashes of "host:port-i" on the ring, but at least one, so a server of a
+ * small weight still gets keys, and each hash gives four points. A key
+ * is hashed with FNV-1a, mixed, and goes to the server of the first point at
+ * or after its hash. Lookups compare ints and allocate nothing. The ring is
+ * immutable and shared by all client threads.
+ */
+public class KetamaRing {
+	static KetamaRing ring;
+
+	InetSocketAddress[] addresses;
+	int[] weights;
+
+	/**
+	 * The points as unsigned 32 bit hashes, sorted, and the server of each.
+	 */
+	long[] points;
+	int[] owners;
+
+	/**
+	 * Return the ring of the configured servers, building it on first use.
+	 */
+	public static synchronized KetamaRing getRing() throws DataStoreException {
+		if (ring == null) {
+			Config config = Config.getConfig();
+			ring = new KetamaRing(config.memcached_servers, config.memcached_address, config.memcached_port);
+			if (ring.size() > 1) {
+				ring.printShares();
+			}
+		}
+		return ring;
+	}
+
+	public KetamaRing(String servers, String address, int port) throws DataStoreException {
+		if (servers == null || servers.trim().length() == 0) {
+			servers = address + ":" + port;
+		}
+		String[] entries = servers.split(",");
+		addresses = new InetSocketAddress[entries.length];
+		weights = new int[entries.length];
+		int total = 0;
+		for (int i = 0; i < entries.length; i++) {
+			String[] parts = entries[i].trim().split(":");
+			try {
+				addresses[i] = new InetSocketAddress(parts[0], parts.length > 1 ? Integer.parseInt(parts[1]) : port);
+				weights[i] = parts.length > 2 ? Integer.parseInt(parts[2]) : 1;
+			} catch (NumberFormatException e) {
+				throw new DataStoreException("Bad memcached server " + entries[i]);
+			}
+			if (addresses[i].isUnresolved() || weights[i] <= 0) {
+				throw new DataStoreException("Bad memcached server " + entries[i]);
+			}
+			total += weights[i];
+		}
+		if (entries.length > 1) {
+			build(entries, total);
+		}
+	}
+
+	void build(String[] entries, int total) throws DataStoreException {
+		MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new DataStoreException(e);
+		}
+		int[] hashes = new int[entries.length];
+		int count = 0;
+		for (int i = 0; i < entries.length; i++) {
+			hashes[i] = Math.max(1, (int) Math.floor(40.0 * entries.length * weights[i] / total));
+			count += hashes[i] * 4;
+		}
+		long[] keyed = new long[count];
+		int n = 0;
+		for (int i = 0; i < entries.length; i++) {
+			String name = name(i);
+			for (int j = 0; j < hashes[i]; j++) {
+				byte[] digest = md5.digest((name + "-" + j).getBytes());
+				for (int k = 0; k < 4; k++) {
+					long point = ((long) (digest[3 + k * 4] & 0xff) << 24) | ((digest[2 + k * 4] & 0xff) << 16)
+							| ((digest[1 + k * 4] & 0xff) << 8) | (digest[k * 4] & 0xff);
+					// The server's index rides in the low bits, so sorting keeps it with its point
+					keyed[n++] = (point << 16) | i;
+				}
+			}
+		}
+		Arrays.sort(keyed);
+		points = new long[count];
+		owners = new int[count];
+		for (int i = 0; i < count; i++) {
+			points[i] = keyed[i] >>> 16;
+			owners[i] = (int) (keyed[i] & 0xffff);
+		}
+	}
+
+	public int size() {
+		return addresses.length;
+	}
+
+	public InetSocketAddress address(int server) {
+		return addresses[server];
+	}
+
+	public int weight(int server) {
+		return weights[server];
+	}
+
+	/**
+	 * The server as host:port.
+	 */
+	public String name(int server) {
+		return addresses[server].getHostString() + ":" + addresses[server].getPort();
+	}
+
+	/**
+	 * The 32 bit hash of a key: FNV-1a over its chars, then the MurmurHash3
+	 * finalizer, since FNV alone spreads short keys that differ only at the
+	 * end poorly over the high bits.
+	 */
+	public static long hash(String key) {
+		int h = 0x811c9dc5;
+		int length = key.length();
+		for (int i = 0; i < length; i++) {
+			h ^= key.charAt(i);
+			h *= 0x01000193;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h & 0xffffffffL;
+	}
+
+	/**
+	 * The index of the server that holds key.
+	 */
+	public int server(String key) {
+		if (points == null) {
+			return 0;
+		}
+		long h = hash(key);
+		int lo = 0;
+		int hi = points.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (points[mid] < h) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return owners[lo == points.length ? 0 : lo];
+	}
+
+	/**
+	 * The fraction of the hash space each server owns, which is the share of
+	 * uniformly hashed keys it gets.
+	 */
+	public double[] shares() {
+		double[] shares = new double[addresses.length];
+		if (points == null) {
+			shares[0] = 1.0;
+			return shares;
+		}
+		for (int i = 0; i < points.length; i++) {
+			long from = i == 0 ? points[points.length - 1] - (1L << 32) : points[i - 1];
+			shares[owners[i]] += (points[i] - from) / (double) (1L << 32);
+		}
+		return shares;
+	}
+
+	void printShares() {
+		double[] shares = shares();
+		for (int i = 0; i < addresses.length; i++) {
+			System.out.println("Server " + name(i) + " weight "
+					+ weights[i] + " owns " + String.format("%.2f", shares[i] * 100) + "% of the ring");
+		}
+	}
+}
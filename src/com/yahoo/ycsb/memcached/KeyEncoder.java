@@ -0,0 +1,68 @@
+package com.yahoo.ycsb.memcached;
+
+/**
+ * Encodes key numbers as fixed-width ASCII keys: the key number in decimal,
+ * right aligned, with the tail of the key prefix in front of it. This is the
+ * last KEY_LENGTH characters of key_prefix + keynum, written straight into a
+ * reused byte buffer instead of through string concatenation. A key number
+ * of more than KEY_LENGTH characters is not cut, which would make distinct
+ * numbers collide, but gets a longer key of all its digits. Not thread safe;
+ * each client thread should have its own.
+ */
+public class KeyEncoder {
+	public static final int KEY_LENGTH = 16;
+
+	/**
+	 * The longest key number, a negative long of 19 digits.
+	 */
+	static final int MAX_LENGTH = 20;
+
+	byte[] prefix;
+	byte[] key;
+
+	/**
+	 * @param prefix
+	 *            The key prefix. If the prefix and the key number together are
+	 *            shorter than KEY_LENGTH, the key is padded with '0' on the
+	 *            left.
+	 */
+	public KeyEncoder(String prefix) {
+		this.prefix = new byte[prefix.length()];
+		for (int i = 0; i < this.prefix.length; i++) {
+			this.prefix[i] = (byte) prefix.charAt(i);
+		}
+		key = new byte[MAX_LENGTH];
+	}
+
+	/**
+	 * Encode a key number as a String. The client API takes String keys, so
+	 * this is the one allocation left per key.
+	 */
+	@SuppressWarnings("deprecation")
+	public String encode(long keynum) {
+		byte[] k = key;
+		int pos = MAX_LENGTH;
+		boolean negative = keynum < 0;
+		long v = keynum;
+		do {
+			// digits of a negative number are taken from -(v % 10), so
+			// Long.MIN_VALUE works too
+			int digit = (int) (v % 10);
+			k[--pos] = (byte) ('0' + (negative ? -digit : digit));
+			v /= 10;
+		} while (v != 0);
+		if (negative) {
+			k[--pos] = '-';
+		}
+
+		int start = MAX_LENGTH - KEY_LENGTH;
+		int p = prefix.length;
+		while (pos > start && p > 0) {
+			k[--pos] = prefix[--p];
+		}
+		while (pos > start) {
+			k[--pos] = '0';
+		}
+		return new String(k, 0, pos, MAX_LENGTH - pos);
+	}
+}
@@ -17,6 +17,8 @@
 
 package com.yahoo.ycsb.memcached;
 
+import java.nio.ByteBuffer;
+
 import com.yahoo.ycsb.DataStore;
 
 /**
@@ -39,9 +41,56 @@ import com.yahoo.ycsb.DataStore;
  * your target application. For the sake of comparison between experiments we
  * also recommend you explain the semantics you chose when presenting
  * performance results.
+ * 
+ * Values are passed as Objects. Workloads pass raw byte[] values, or
+ * ByteBuffers whose remaining bytes are the value; bindings should send them
+ * as is, without serializing or compressing them, so the payload sizes match
+ * the configured value lengths. valueBytes() does the conversion.
+ * 
+ * Bindings return 0 on success, -1 for a miss or a failed condition, -2 for
+ * an error, -3 for an unexpected exception, -4 for a value that fails
+ * verification and -5 for an operation that missed its deadline of
+ * memcached.timeout milliseconds. Bindings do not print on errors, which
+ * would slow the client most just when the server is overloaded.
  */
 public abstract class Memcached extends DataStore{
 
+	/**
+	 * The client thread's RetryBudget, shared by the reads MemcachedWrapper
+	 * retries and any request a binding resends itself, such as a hedged
+	 * get. The wrapper sets it before init() and counts the requests.
+	 */
+	protected RetryBudget budget;
+
+	/**
+	 * Share the client thread's RetryBudget with this binding.
+	 */
+	public void setRetryBudget(RetryBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Return the raw bytes of a value. A byte[] is returned as is, a
+	 * ByteBuffer's remaining bytes are returned without copying when they are
+	 * exactly its backing array, and anything else is sent as the bytes of
+	 * its string form.
+	 */
+	public static byte[] valueBytes(Object value) {
+		if (value instanceof byte[]) {
+			return (byte[]) value;
+		} else if (value instanceof ByteBuffer) {
+			ByteBuffer buf = (ByteBuffer) value;
+			if (buf.hasArray() && buf.arrayOffset() == 0 && buf.position() == 0
+					&& buf.remaining() == buf.array().length) {
+				return buf.array();
+			}
+			byte[] bytes = new byte[buf.remaining()];
+			buf.duplicate().get(bytes);
+			return bytes;
+		}
+		return String.valueOf(value).getBytes();
+	}
+
 	/**
 	 * Add a value in the database. Any key/value pair in the specified
 	 * value Object will be added as a value to a specific key.
@@ -55,6 +104,15 @@ public abstract class Memcached extends DataStore{
 	 */
 	public abstract int add(String key, Object value);
 	
+	/**
+	 * Like add(), with an expiration time in seconds; 0 never expires. The
+	 * default implementation ignores exptime, bindings that can send it
+	 * should override this.
+	 */
+	public int add(String key, Object value, int exptime) {
+		return add(key, value);
+	}
+	
 	/**
 	 * Append a value in the database. Any key/value pair in the specified
 	 * value Object will be appended onto the value with the specified key.
@@ -85,14 +143,15 @@ public abstract class Memcached extends DataStore{
 	public abstract int cas(String key, long cas, Object value);
 	
 	/**
-	 * Decrement a value in the database.
+	 * Decrement a value in the database. The value must be a decimal number.
 	 * 
 	 * @param key
 	 *            The key of the value to be decremented.
 	 * @param value
-	 *            An Object to use as the key's value
-	 * @return Zero on success, a non-zero error code on error. See this class's
-	 *         description for a discussion of error codes.
+	 *            The amount, a Number; anything else counts as 1.
+	 * @return Zero on success, -1 if the key does not exist, a non-zero error
+	 *         code on error. See this class's description for a discussion of
+	 *         error codes.
 	 */
 	public abstract int decr(String key, Object value);
 	
@@ -101,26 +160,30 @@ public abstract class Memcached extends DataStore{
 	 * 
 	 * @param key
 	 *            The key of the value to be deleted.
-	 * @return Zero on success, a non-zero error code on error. See this class's
-	 *         description for a discussion of error codes.
+	 * @return Zero on success, -1 if the key does not exist, a non-zero error
+	 *         code on error. See this class's description for a discussion of
+	 *         error codes.
 	 */
 	public abstract int delete(String key);
 	
 	/**
-	 * Increment a value in the database.
+	 * Increment a value in the database. The value must be a decimal number.
 	 * 
 	 * @param key
 	 *            The key of the value to be incremented.
 	 * @param value
-	 *            An Object to use as the key's value
-	 * @return Zero on success, a non-zero error code on error. See this class's
-	 *         description for a discussion of error codes.
+	 *            The amount, a Number; anything else counts as 1.
+	 * @return Zero on success, -1 if the key does not exist, a non-zero error
+	 *         code on error. See this class's description for a discussion of
+	 *         error codes.
 	 */
 	public abstract int incr(String key, Object value);
 	
 	/**
 	 * Get a value from the database. Any key/value pair in the specified
 	 * value Object will be check against the value returned from the database.
+	 * If value is a ValueVerifier, the value read is passed to it and a
+	 * value that fails verification returns -4.
 	 * 
 	 * @param key
 	 *            The key of the value to get.
@@ -131,6 +194,68 @@ public abstract class Memcached extends DataStore{
 	 */
 	public abstract int get(String key, Object value);
 	
+	/**
+	 * Get the values of several keys in one request. The default
+	 * implementation calls get() for each key; bindings that can fetch keys
+	 * in bulk should override it.
+	 * 
+	 * @param keys
+	 *            The keys to get; only the first count are used.
+	 * @param count
+	 *            The number of keys to get.
+	 * @param hits
+	 *            Set to whether each key was found.
+	 * @param value
+	 *            Checks the values read, as for get().
+	 * @return Zero on success, a non-zero error code on error. Misses are not
+	 *         errors.
+	 */
+	public int get_multi(String[] keys, int count, boolean[] hits, Object value) {
+		int ret = 0;
+		for (int i = 0; i < count; i++) {
+			int res = get(keys[i], value);
+			hits[i] = res == 0;
+			if (res != 0 && res != -1) {
+				ret = res;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Store several values, without waiting for one to complete before
+	 * sending the next. The default implementation calls set() or set_cost()
+	 * for each key; bindings that can pipeline should override it.
+	 * 
+	 * @param keys
+	 *            The keys to store; only the first count are used.
+	 * @param values
+	 *            The value for each key.
+	 * @param costs
+	 *            The cost of each key for set_cost(), or null to use set().
+	 * @param exptimes
+	 *            The expiration time of each key, or null if none expire.
+	 * @param count
+	 *            The number of keys to store.
+	 * @return Zero on success, a non-zero error code if any store failed.
+	 */
+	public int set_multi(String[] keys, Object[] values, int[] costs, int[] exptimes, int count) {
+		int ret = 0;
+		for (int i = 0; i < count; i++) {
+			int exptime = exptimes == null ? 0 : exptimes[i];
+			int res;
+			if (costs == null) {
+				res = set(keys[i], values[i], 0, exptime);
+			} else {
+				res = set_cost(keys[i], values[i], 0, costs[i], exptime);
+			}
+			if (res != 0) {
+				ret = res;
+			}
+		}
+		return ret;
+	}
+	
 	/**
 	 * Get a CAS identifier for a value in the database
 	 * 
@@ -167,6 +292,14 @@ public abstract class Memcached extends DataStore{
 	 */
 	public abstract int replace(String key, Object value);
 	
+	/**
+	 * Like replace(), with an expiration time in seconds; 0 never expires.
+	 * The default implementation ignores exptime.
+	 */
+	public int replace(String key, Object value, int exptime) {
+		return replace(key, value);
+	}
+	
 	/**
 	 * Set a record in the database. Any key/value pair in the specified
 	 * values Object will be written into the key with the specified value.
@@ -182,6 +315,59 @@ public abstract class Memcached extends DataStore{
 	
 	public abstract int set_cost(String key, Object value, int load, int cost);
 	
+	/**
+	 * Like set(), with an expiration time in seconds; 0 never expires. The
+	 * default implementation ignores exptime.
+	 */
+	public int set(String key, Object value, int load, int exptime) {
+		return set(key, value, load);
+	}
+	
+	/**
+	 * Like set_cost(), with an expiration time in seconds; 0 never expires.
+	 * The default implementation ignores exptime.
+	 */
+	public int set_cost(String key, Object value, int load, int cost, int exptime) {
+		return set_cost(key, value, load, cost);
+	}
+	
 	public abstract int update(String key, Object value);
+	
+	/**
+	 * Like get(), also returning the item's metadata in meta. The default
+	 * implementation calls get() and only reports whether it hit; bindings
+	 * that speak the meta protocol fill in the rest from the same request.
+	 * 
+	 * @param meta
+	 *            Reset, then filled with what the server reported.
+	 * @return As for get().
+	 */
+	public int meta_get(String key, Object value, MetaResult meta) {
+		meta.reset();
+		int res = get(key, value);
+		meta.hit = res == 0 || res == -4;
+		return res;
+	}
+	
+	/**
+	 * Like set() with an expiration time, also returning the stored item's
+	 * metadata, e.g. its new CAS identifier, in meta. The default
+	 * implementation calls set() and reports nothing.
+	 */
+	public int meta_set(String key, Object value, int exptime, MetaResult meta) {
+		meta.reset();
+		return set(key, value, 0, exptime);
+	}
+	
+	/**
+	 * Like delete(), also returning in meta whether the item existed. The
+	 * default implementation calls delete().
+	 */
+	public int meta_delete(String key, MetaResult meta) {
+		meta.reset();
+		int res = delete(key);
+		meta.hit = res == 0;
+		return res;
+	}
 
 }
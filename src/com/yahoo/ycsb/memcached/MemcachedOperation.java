@@ -0,0 +1,66 @@
+package com.yahoo.ycsb.memcached;
+
+/**
+ * The operations a memcached workload can issue. Each operation has a
+ * one-byte code that is stable across releases, so it can be stored in trace
+ * files.
+ */
+public enum MemcachedOperation {
+	GET(0),
+	SET(1),
+	ADD(2),
+	REPLACE(3),
+	APPEND(4),
+	PREPEND(5),
+	CAS(6),
+	GETS(7),
+	INCR(8),
+	DECR(9),
+	DELETE(10),
+	UPDATE(11),
+	MULTIGET(12);
+	
+	private static final MemcachedOperation[] bycode;
+	
+	static {
+		int max = 0;
+		for (MemcachedOperation op : values()) {
+			max = Math.max(max, op.code);
+		}
+		bycode = new MemcachedOperation[max + 1];
+		for (MemcachedOperation op : values()) {
+			bycode[op.code] = op;
+		}
+	}
+	
+	private final byte code;
+	
+	private MemcachedOperation(int code) {
+		this.code = (byte) code;
+	}
+	
+	public byte getCode() {
+		return code;
+	}
+	
+	/**
+	 * Return the operation with the given code, or null if there is none.
+	 */
+	public static MemcachedOperation fromCode(int code) {
+		if (code < 0 || code >= bycode.length)
+			return null;
+		return bycode[code];
+	}
+	
+	/**
+	 * Return the operation with the given name, ignoring case, or null if
+	 * there is none.
+	 */
+	public static MemcachedOperation fromName(String name) {
+		try {
+			return valueOf(name.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
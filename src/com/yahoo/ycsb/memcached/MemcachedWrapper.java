@@ -17,21 +17,48 @@
 
 package com.yahoo.ycsb.memcached;
 
+import java.util.HashMap;
 import java.util.Properties;
 
+import com.yahoo.ycsb.Config;
 import com.yahoo.ycsb.DataStoreException;
 import com.yahoo.ycsb.measurements.Measurements;
 
 /**
  * Wrapper around a "real" DB that measures latencies and counts return codes.
+ * With several servers, each single key measurement is also recorded, as a
+ * part, under OP@host:port for the key's server on the KetamaRing, unless
+ * memcached.servermeasurements is false. Multi-key batches span servers, so
+ * only their per-key MULTIGET-KEY measurements are.
+ *
+ * An operation that misses its deadline (return code -5) is counted under
+ * OP-TIMEOUT rather than OP, and per server under OP-TIMEOUT@host:port, so
+ * timeouts do not skew the latencies of the operations that completed. Reads (get, meta_get and get_multi) that fail
+ * with -2, -3 or -5 are retried up to memcached.retries times while the
+ * thread's RetryBudget of memcached.retrybudget retries per read allows,
+ * the budget the binding also spends on any request it resends itself;
+ * each retry is recorded under OP-RETRY and the read's latency under OP
+ * spans all its attempts.
  */
 public class MemcachedWrapper extends Memcached {
 	Memcached _db;
 	Measurements _measurements;
 
+	/**
+	 * The ring, if measuring per server, and the per-server measurement
+	 * names of each operation, so none is built per call.
+	 */
+	KetamaRing _ring;
+	HashMap<String, String[]> _servernames;
+
+	int _retries;
+	RetryBudget _budget;
+
 	public MemcachedWrapper(Memcached memcached) {
 		_db = memcached;
 		_measurements = Measurements.getMeasurements();
+		_retries = Config.getConfig().memcached_retries;
+		_budget = new RetryBudget(Config.getConfig().memcached_retry_budget);
 	}
 
 	/**
@@ -53,7 +80,57 @@ public class MemcachedWrapper extends Memcached {
 	 * one Memcached instance per client thread.
 	 */
 	public void init() throws DataStoreException {
+		_db.setRetryBudget(_budget);
 		_db.init();
+		if (Config.getConfig().memcached_server_measurements && KetamaRing.getRing().size() > 1) {
+			_ring = KetamaRing.getRing();
+			_servernames = new HashMap<String, String[]>();
+		}
+	}
+
+	/**
+	 * Record an operation, under OP-TIMEOUT if it missed its deadline.
+	 */
+	void measure(String operation, int latency, int res) {
+		if (res == -5) {
+			_measurements.measureTimeout(operation, latency);
+		} else {
+			_measurements.measure(operation, latency);
+		}
+		_measurements.reportReturnCode(operation, res);
+	}
+
+	/**
+	 * Whether a read that returned res may be retried now, taking a token
+	 * of the budget if so.
+	 */
+	boolean retry(int res, int attempts) {
+		return (res == -2 || res == -3 || res == -5) && attempts < _retries && _budget.acquire();
+	}
+
+	/**
+	 * Record a measurement of key's server, under OP-TIMEOUT@host:port if it
+	 * missed its deadline.
+	 */
+	void measureServer(String operation, String key, int latency, int res) {
+		if (_ring == null) {
+			return;
+		}
+		String[] names = _servernames.get(operation);
+		int servers = _ring.size();
+		if (names == null) {
+			// each server's name, then each server's timeout name
+			names = new String[2 * servers];
+			for (int i = 0; i < servers; i++) {
+				names[i] = operation + Measurements.SERVER_SEPARATOR + _ring.name(i);
+				names[servers + i] = operation + Measurements.TIMEOUT_SUFFIX + Measurements.SERVER_SEPARATOR
+						+ _ring.name(i);
+			}
+			_servernames.put(operation, names);
+		}
+		String name = names[(res == -5 ? servers : 0) + _ring.server(key)];
+		_measurements.measurePart(name, latency);
+		_measurements.reportReturnCode(name, res);
 	}
 
 	/**
@@ -77,8 +154,17 @@ public class MemcachedWrapper extends Memcached {
 		long st = System.nanoTime();
 		int res = _db.add(key, value);
 		long en = System.nanoTime();
-		_measurements.measure("ADD", (int) ((en - st) / 1000));
-		_measurements.reportReturnCode("ADD", res);
+		measure("ADD", (int) ((en - st) / 1000), res);
+		measureServer("ADD", key, (int) ((en - st) / 1000), res);
+		return res;
+	}
+	
+	public int add(String key, Object value, int exptime) {
+		long st = System.nanoTime();
+		int res = _db.add(key, value, exptime);
+		long en = System.nanoTime();
+		measure("ADD", (int) ((en - st) / 1000), res);
+		measureServer("ADD", key, (int) ((en - st) / 1000), res);
 		return res;
 	}
 
@@ -97,8 +183,8 @@ public class MemcachedWrapper extends Memcached {
 		long st = System.nanoTime();
 		int res = _db.append(key, cas, value);
 		long en = System.nanoTime();
-		_measurements.measure("APPEND", (int) ((en - st) / 1000));
-		_measurements.reportReturnCode("APPEND", res);
+		measure("APPEND", (int) ((en - st) / 1000), res);
+		measureServer("APPEND", key, (int) ((en - st) / 1000), res);
 		return res;
 	}
 
@@ -117,8 +203,8 @@ public class MemcachedWrapper extends Memcached {
 		long st = System.nanoTime();
 		int res = _db.cas(key, cas, value);
 		long en = System.nanoTime();
-		_measurements.measure("CAS", (int) ((en - st) / 1000));
-		_measurements.reportReturnCode("CAS", res);
+		measure("CAS", (int) ((en - st) / 1000), res);
+		measureServer("CAS", key, (int) ((en - st) / 1000), res);
 		return res;
 	}
 
@@ -135,8 +221,8 @@ public class MemcachedWrapper extends Memcached {
 		long st = System.nanoTime();
 		int res = _db.decr(key, value);
 		long en = System.nanoTime();
-		_measurements.measure("DECR", (int) ((en - st) / 1000));
-		_measurements.reportReturnCode("DECR", res);
+		measure("DECR", (int) ((en - st) / 1000), res);
+		measureServer("DECR", key, (int) ((en - st) / 1000), res);
 		return res;
 	}
 
@@ -151,8 +237,8 @@ public class MemcachedWrapper extends Memcached {
 		long st = System.nanoTime();
 		int res = _db.delete(key);
 		long en = System.nanoTime();
-		_measurements.measure("DELETE", (int) ((en - st) / 1000));
-		_measurements.reportReturnCode("DELETE", res);
+		measure("DELETE", (int) ((en - st) / 1000), res);
+		measureServer("DELETE", key, (int) ((en - st) / 1000), res);
 		return res;
 	}
 
@@ -169,8 +255,8 @@ public class MemcachedWrapper extends Memcached {
 		long st = System.nanoTime();
 		int res = _db.incr(key, value);
 		long en = System.nanoTime();
-		_measurements.measure("INCR", (int) ((en - st) / 1000));
-		_measurements.reportReturnCode("INCR", res);
+		measure("INCR", (int) ((en - st) / 1000), res);
+		measureServer("INCR", key, (int) ((en - st) / 1000), res);
 		return res;
 	}
 	
@@ -187,13 +273,83 @@ public class MemcachedWrapper extends Memcached {
 		long st = System.nanoTime();
 		int res = _db.get(key, value);
 		long en = System.nanoTime();
+		_budget.request();
+		for (int attempts = 0; retry(res, attempts); attempts++) {
+			long rst = en;
+			res = _db.get(key, value);
+			en = System.nanoTime();
+			_measurements.measureRetry("GET", (int) ((en - rst) / 1000), res);
+		}
 		//if ((int) ((en-st)/1000) <= 5000) {
-			_measurements.measure("GET", (int) ((en - st) / 1000));
-			_measurements.reportReturnCode("GET", res);
+			measure("GET", (int) ((en - st) / 1000), res);
+			measureServer("GET", key, (int) ((en - st) / 1000), res);
 		//}
 		return res;
 	}
 
+	/**
+	 * Get several keys in one request. The batch latency is recorded as
+	 * MULTIGET and, divided over the keys, as one MULTIGET-KEY measurement per
+	 * key. The MULTIGET-KEY return codes (0 for a hit, -1 for a miss) give the
+	 * hit ratio; a batch that fails with -2, -3 or -5 records none.
+	 * 
+	 * @param keys
+	 *            The keys to get.
+	 * @param count
+	 *            The number of keys to get.
+	 * @param hits
+	 *            Set to whether each key was found.
+	 * @param value
+	 *            Checks the values read, as for get().
+	 * @return Zero on success, a non-zero error code on error
+	 */
+	public int get_multi(String[] keys, int count, boolean[] hits, Object value) {
+		long st = System.nanoTime();
+		int res = _db.get_multi(keys, count, hits, value);
+		long en = System.nanoTime();
+		_budget.request();
+		for (int attempts = 0; retry(res, attempts); attempts++) {
+			long rst = en;
+			res = _db.get_multi(keys, count, hits, value);
+			en = System.nanoTime();
+			_measurements.measureRetry("MULTIGET", (int) ((en - rst) / 1000), res);
+		}
+		int latency = (int) ((en - st) / 1000);
+		measure("MULTIGET", latency, res);
+		if (count > 0 && res != -2 && res != -3 && res != -5) {
+			int perkey = latency / count;
+			for (int i = 0; i < count; i++) {
+				_measurements.measurePart("MULTIGET-KEY", perkey);
+				_measurements.reportReturnCode("MULTIGET-KEY", hits[i] ? 0 : -1);
+				measureServer("MULTIGET-KEY", keys[i], perkey, hits[i] ? 0 : -1);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Store several values in one pipelined batch, recorded as MULTISET.
+	 * 
+	 * @param keys
+	 *            The keys to store.
+	 * @param values
+	 *            The value for each key.
+	 * @param costs
+	 *            The cost of each key, or null for plain sets.
+	 * @param exptimes
+	 *            The expiration time of each key, or null if none expire.
+	 * @param count
+	 *            The number of keys to store.
+	 * @return Zero on success, a non-zero error code on error
+	 */
+	public int set_multi(String[] keys, Object[] values, int[] costs, int[] exptimes, int count) {
+		long st = System.nanoTime();
+		int res = _db.set_multi(keys, values, costs, exptimes, count);
+		long en = System.nanoTime();
+		measure("MULTISET", (int) ((en - st) / 1000), res);
+		return res;
+	}
+
 	
 	/**
 	 * Gets a unique cas value for a key.
@@ -206,11 +362,9 @@ public class MemcachedWrapper extends Memcached {
 		long st = System.nanoTime();
 		long res = _db.gets(key);
 		long en = System.nanoTime();
-		_measurements.measure("GETS", (int) ((en - st) / 1000));
-		if (res > 0)
-			_measurements.reportReturnCode("GETS", 0);
-		else
-			_measurements.reportReturnCode("GETS", -1);
+		int code = res > 0 ? 0 : res == -5 ? -5 : -1;
+		measure("GETS", (int) ((en - st) / 1000), code);
+		measureServer("GETS", key, (int) ((en - st) / 1000), code);
 		return res;
 	}
 
@@ -229,8 +383,8 @@ public class MemcachedWrapper extends Memcached {
 		long st = System.nanoTime();
 		int res = _db.prepend(key, cas, value);
 		long en = System.nanoTime();
-		_measurements.measure("PREPEND", (int) ((en - st) / 1000));
-		_measurements.reportReturnCode("PREPEND", 0);
+		measure("PREPEND", (int) ((en - st) / 1000), res);
+		measureServer("PREPEND", key, (int) ((en - st) / 1000), res);
 		return res;
 	}
 
@@ -248,8 +402,17 @@ public class MemcachedWrapper extends Memcached {
 		long st = System.nanoTime();
 		int res = _db.replace(key, value);
 		long en = System.nanoTime();
-		_measurements.measure("REPLACE", (int) ((en - st) / 1000));
-		_measurements.reportReturnCode("REPLACE", res);
+		measure("REPLACE", (int) ((en - st) / 1000), res);
+		measureServer("REPLACE", key, (int) ((en - st) / 1000), res);
+		return res;
+	}
+	
+	public int replace(String key, Object value, int exptime) {
+		long st = System.nanoTime();
+		int res = _db.replace(key, value, exptime);
+		long en = System.nanoTime();
+		measure("REPLACE", (int) ((en - st) / 1000), res);
+		measureServer("REPLACE", key, (int) ((en - st) / 1000), res);
 		return res;
 	}
 	
@@ -270,8 +433,8 @@ public class MemcachedWrapper extends Memcached {
 		long en = System.nanoTime();
 		//if (load == 0 && (int) ((en-st)/1000) <= 5000) {
 		if (load == 0) {
-		_measurements.measure("SET", (int) ((en - st) / 1000));
-		_measurements.reportReturnCode("SET", res);
+		measure("SET", (int) ((en - st) / 1000), res);
+		measureServer("SET", key, (int) ((en - st) / 1000), res);
 		}
 		return res;
 	}
@@ -282,8 +445,30 @@ public class MemcachedWrapper extends Memcached {
 		long en = System.nanoTime();
 		//if (load == 0 && (int) ((en-st)/1000) <= 5000) {
 		if (load == 0) {
-		_measurements.measure("SET", (int) ((en - st) / 1000));
-		_measurements.reportReturnCode("SET", res);
+		measure("SET", (int) ((en - st) / 1000), res);
+		measureServer("SET", key, (int) ((en - st) / 1000), res);
+		}
+		return res;
+	}
+	
+	public int set(String key, Object value, int load, int exptime) {
+		long st = System.nanoTime();
+		int res = _db.set(key, value, load, exptime);
+		long en = System.nanoTime();
+		if (load == 0) {
+			measure("SET", (int) ((en - st) / 1000), res);
+			measureServer("SET", key, (int) ((en - st) / 1000), res);
+		}
+		return res;
+	}
+	
+	public int set_cost(String key, Object value, int load, int cost, int exptime) {
+		long st = System.nanoTime();
+		int res = _db.set_cost(key, value, load, cost, exptime);
+		long en = System.nanoTime();
+		if (load == 0) {
+			measure("SET", (int) ((en - st) / 1000), res);
+			measureServer("SET", key, (int) ((en - st) / 1000), res);
 		}
 		return res;
 	}
@@ -292,8 +477,46 @@ public class MemcachedWrapper extends Memcached {
 		long st = System.nanoTime();
 		int res = _db.set(key, value, 0);
 		long en = System.nanoTime();
-		_measurements.measure("UPDATE", (int) ((en - st) / 1000));
-		_measurements.reportReturnCode("UPDATE", res);
+		measure("UPDATE", (int) ((en - st) / 1000), res);
+		measureServer("UPDATE", key, (int) ((en - st) / 1000), res);
+		return res;
+	}
+	
+	/**
+	 * Meta commands are recorded under the names of the operations they
+	 * stand in for, so runs with and without them compare directly.
+	 */
+	public int meta_get(String key, Object value, MetaResult meta) {
+		long st = System.nanoTime();
+		int res = _db.meta_get(key, value, meta);
+		long en = System.nanoTime();
+		_budget.request();
+		for (int attempts = 0; retry(res, attempts); attempts++) {
+			long rst = en;
+			res = _db.meta_get(key, value, meta);
+			en = System.nanoTime();
+			_measurements.measureRetry("GET", (int) ((en - rst) / 1000), res);
+		}
+		measure("GET", (int) ((en - st) / 1000), res);
+		measureServer("GET", key, (int) ((en - st) / 1000), res);
+		return res;
+	}
+	
+	public int meta_set(String key, Object value, int exptime, MetaResult meta) {
+		long st = System.nanoTime();
+		int res = _db.meta_set(key, value, exptime, meta);
+		long en = System.nanoTime();
+		measure("SET", (int) ((en - st) / 1000), res);
+		measureServer("SET", key, (int) ((en - st) / 1000), res);
+		return res;
+	}
+	
+	public int meta_delete(String key, MetaResult meta) {
+		long st = System.nanoTime();
+		int res = _db.meta_delete(key, meta);
+		long en = System.nanoTime();
+		measure("DELETE", (int) ((en - st) / 1000), res);
+		measureServer("DELETE", key, (int) ((en - st) / 1000), res);
 		return res;
 	}
 
@@ -0,0 +1,56 @@
+package com.yahoo.ycsb.memcached;
+
+/**
+ * The item metadata a meta command returns along with its result, so a
+ * workload learns it without extra requests. Callers keep one per thread and
+ * pass it to meta_get(), meta_set() or meta_delete(), which reset it and
+ * fill in what the binding could find out. Fields the binding does not know
+ * are left at UNKNOWN.
+ */
+public class MetaResult {
+	public static final int UNKNOWN = -2;
+
+	/**
+	 * Whether the item existed.
+	 */
+	public boolean hit;
+
+	/**
+	 * The size of the value in bytes.
+	 */
+	public int size;
+
+	/**
+	 * The seconds left until the item expires, or -1 if it never does.
+	 */
+	public int ttl;
+
+	/**
+	 * The seconds since the item was last accessed, before this request.
+	 */
+	public int lastaccess;
+
+	/**
+	 * Whether the item had been fetched since it was stored: 1 if it had, 0
+	 * if not.
+	 */
+	public int fetched;
+
+	/**
+	 * The item's CAS identifier, or 0.
+	 */
+	public long cas;
+
+	public MetaResult() {
+		reset();
+	}
+
+	public void reset() {
+		hit = false;
+		size = UNKNOWN;
+		ttl = UNKNOWN;
+		lastaccess = UNKNOWN;
+		fetched = UNKNOWN;
+		cas = 0;
+	}
+}
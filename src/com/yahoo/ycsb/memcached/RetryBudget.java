@@ -0,0 +1,38 @@
+package com.yahoo.ycsb.memcached;
+
+/**
+ * Limits retries and hedged requests to a fraction of the requests made, so
+ * that when a server is overloaded and its requests time out the client
+ * does not add to its load by resending all of them. Each request earns
+ * ratio tokens, up to a small burst, and each retry spends one. Not thread
+ * safe; each client thread has its own.
+ */
+public class RetryBudget {
+	static final double BURST = 10;
+
+	double ratio;
+	double tokens;
+
+	public RetryBudget(double ratio) {
+		this.ratio = ratio;
+		tokens = ratio > 0 ? BURST : 0;
+	}
+
+	/**
+	 * Count a request.
+	 */
+	public void request() {
+		tokens = Math.min(BURST, tokens + ratio);
+	}
+
+	/**
+	 * Take a token for a retry, returning false if there is none left.
+	 */
+	public boolean acquire() {
+		if (tokens < 1) {
+			return false;
+		}
+		tokens--;
+		return true;
+	}
+}
@@ -0,0 +1,33 @@
+package com.yahoo.ycsb.memcached;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.WorkloadException;
+
+/**
+ * Costs that grow with the value: costsizebase plus costperkb for every
+ * kilobyte of the key's value, as when the backend cost is dominated by
+ * producing or transferring the object. Needs value sizes that are chosen
+ * independently of cost, i.e. a valuesizedistribution other than costclass
+ * and no valuesizecostcorrelation.
+ */
+public class SizeCostModel extends CostModel {
+	int base;
+	double perkb;
+
+	public void init() throws WorkloadException {
+		if (Config.getConfig().value_size_distribution.compareTo("costclass") == 0
+				|| Config.getConfig().value_size_cost_correlation != 0) {
+			throw new WorkloadException("SizeCostModel needs a " + Config.VALUE_SIZE_DISTRIBUTION_PROPERTY
+					+ " other than costclass and no " + Config.VALUE_SIZE_COST_CORRELATION_PROPERTY);
+		}
+		base = Config.getConfig().cost_size_base;
+		perkb = Config.getConfig().cost_per_kb;
+	}
+
+	public int cost(int keynum, int valuelength) {
+		if (valuelength < 0) {
+			return base;
+		}
+		return base + (int) (perkb * valuelength / 1024);
+	}
+}
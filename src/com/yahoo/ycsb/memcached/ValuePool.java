@@ -0,0 +1,225 @@
+package com.yahoo.ycsb.memcached;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Pre-generated random ASCII values, so the workload does not build a new
+ * value for every set. For each value length the pool holds a fixed number of
+ * variants, created the first time that length is asked for; after that
+ * handing out a value allocates nothing. Values are shared between threads
+ * and must not be modified.
+ * 
+ * The lengths are kept in a fixed table of SLOTS slots, by length modulo
+ * SLOTS, and all their variants in at most MAX_TOTAL_BYTES. A length whose
+ * slot is taken by another, or that no longer fits, gets a new copy of part
+ * of one shared buffer of random bytes on every call instead, so the pool
+ * stays bounded however many lengths a size distribution or trace has.
+ * 
+ * In verify mode the last CHECKSUM_LENGTH bytes of every value hold the CRC32
+ * of the rest in hex, and the pool acts as a ValueVerifier for what comes
+ * back from the server. Values shorter than that are not stamped. APPEND and
+ * PREPEND change values, so reads after them fail verification.
+ */
+public class ValuePool implements ValueVerifier {
+	public static final int CHECKSUM_LENGTH = 8;
+
+	/**
+	 * A per-length bound for values whose lengths are spread over a range,
+	 * e.g. drawn from a size distribution or replayed from a trace.
+	 */
+	public static final int SPREAD_MAX_BYTES = 1 << 16;
+
+	/**
+	 * The most bytes the variants of all lengths take together.
+	 */
+	public static final long MAX_TOTAL_BYTES = 1L << 26;
+
+	static final int SLOTS = 1 << 12;
+
+	/**
+	 * The size of the buffer that values not in the pool are copied from.
+	 */
+	static final int SHARED_BYTES = 1 << 20;
+
+	static final byte[] HEX = "0123456789abcdef".getBytes();
+
+	/**
+	 * The variants of one value length. Its fields are final, so a slot
+	 * read without the lock sees them complete.
+	 */
+	static class Values {
+		final int length;
+		final byte[][] values;
+
+		Values(int length, byte[][] values) {
+			this.length = length;
+			this.values = values;
+		}
+	}
+
+	int variants;
+	boolean verify;
+	int maxbytes;
+	Random random;
+
+	/**
+	 * The pooled lengths, each in slot length % SLOTS, and the bytes their
+	 * variants take.
+	 */
+	final Values[] slots = new Values[SLOTS];
+	long totalbytes;
+
+	/**
+	 * The random bytes values that are not pooled are copied from.
+	 */
+	final byte[] shared;
+
+	/**
+	 * @param variants
+	 *            The number of different values of each length.
+	 * @param verify
+	 *            Whether to stamp values with a checksum.
+	 */
+	public ValuePool(int variants, boolean verify) {
+		this(variants, verify, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxbytes
+	 *            The most bytes to hold for one value length. Longer values
+	 *            get fewer variants, at least one. Bounds the pool when values
+	 *            come in many different lengths.
+	 */
+	public ValuePool(int variants, boolean verify, int maxbytes) {
+		if (variants <= 0) {
+			throw new IllegalArgumentException("Number of variants must be positive, got " + variants);
+		}
+		this.variants = variants;
+		this.verify = verify;
+		this.maxbytes = maxbytes;
+		random = new Random();
+		shared = new byte[SHARED_BYTES];
+		fill(shared);
+	}
+
+	/**
+	 * Return a value of the given length. The seed (e.g. the key number)
+	 * picks the variant, so the same key always gets the same value and
+	 * threads do not share any state to choose one.
+	 */
+	public byte[] get(int length, int seed) {
+		Values v = slots[length % SLOTS];
+		if (v == null || v.length != length) {
+			v = create(length);
+			if (v == null) {
+				return copy(length, seed);
+			}
+		}
+		return v.values[(seed & Integer.MAX_VALUE) % v.values.length];
+	}
+
+	/**
+	 * Pool the variants of a length, unless its slot is taken by another
+	 * length or they do not fit. Return null if they are not pooled.
+	 */
+	synchronized Values create(int length) {
+		Values v = slots[length % SLOTS];
+		if (v != null) {
+			return v.length == length ? v : null;
+		}
+		long room = (MAX_TOTAL_BYTES - totalbytes) / Math.max(length, 1);
+		int n = (int) Math.min(Math.min(variants, maxbytes / Math.max(length, 1)), room);
+		if (n == 0 && totalbytes > 0) {
+			return null;
+		}
+		n = Math.max(n, 1);
+		byte[][] values = new byte[n][];
+		for (int i = 0; i < n; i++) {
+			values[i] = generate(length);
+		}
+		totalbytes += (long) n * length;
+		v = new Values(length, values);
+		slots[length % SLOTS] = v;
+		return v;
+	}
+
+	/**
+	 * Copy a value of the given length out of the shared buffer, starting
+	 * where the seed picks.
+	 */
+	byte[] copy(int length, int seed) {
+		byte[] buf = new byte[length];
+		int start = (seed & Integer.MAX_VALUE) % SHARED_BYTES;
+		for (int done = 0; done < length;) {
+			int n = Math.min(length - done, SHARED_BYTES - start);
+			System.arraycopy(shared, start, buf, done, n);
+			done += n;
+			start = 0;
+		}
+		stamp(buf);
+		return buf;
+	}
+
+	byte[] generate(int length) {
+		byte[] buf = new byte[length];
+		fill(buf);
+		stamp(buf);
+		return buf;
+	}
+
+	/**
+	 * Fill buf with random printable ASCII.
+	 */
+	void fill(byte[] buf) {
+		int interval = '~' - ' ' + 1;
+		random.nextBytes(buf);
+		for (int i = 0; i < buf.length; i++) {
+			buf[i] = (byte) (((buf[i] & 0xff) % interval) + ' ');
+		}
+	}
+
+	/**
+	 * In verify mode, write the checksum of the rest of buf into its end.
+	 */
+	void stamp(byte[] buf) {
+		int length = buf.length;
+		if (verify && length > CHECKSUM_LENGTH) {
+			int body = length - CHECKSUM_LENGTH;
+			long crc = checksum(buf, body);
+			for (int i = CHECKSUM_LENGTH - 1; i >= 0; i--) {
+				buf[body + i] = HEX[(int) (crc & 0xf)];
+				crc >>>= 4;
+			}
+		}
+	}
+
+	static long checksum(byte[] buf, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(buf, 0, length);
+		return crc.getValue();
+	}
+
+	public boolean verify(String key, Object data) {
+		byte[] buf;
+		if (data instanceof byte[]) {
+			buf = (byte[]) data;
+		} else if (data instanceof String) {
+			buf = ((String) data).getBytes();
+		} else {
+			return false;
+		}
+		if (!verify || buf.length <= CHECKSUM_LENGTH) {
+			return true;
+		}
+		int body = buf.length - CHECKSUM_LENGTH;
+		long crc = checksum(buf, body);
+		for (int i = CHECKSUM_LENGTH - 1; i >= 0; i--) {
+			if (buf[body + i] != HEX[(int) (crc & 0xf)]) {
+				return false;
+			}
+			crc >>>= 4;
+		}
+		return true;
+	}
+}
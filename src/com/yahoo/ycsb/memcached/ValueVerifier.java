@@ -0,0 +1,17 @@
+package com.yahoo.ycsb.memcached;
+
+/**
+ * Checks a value returned by the server. Pass one as the value argument of
+ * Memcached.get() to have the binding verify what it read; a binding that
+ * finds a bad value returns -4.
+ */
+public interface ValueVerifier {
+	/**
+	 * @param key
+	 *            The key that was read.
+	 * @param data
+	 *            The value the binding got back, as a byte[] or a String.
+	 * @return True if the value is intact.
+	 */
+	public boolean verify(String key, Object data);
+}
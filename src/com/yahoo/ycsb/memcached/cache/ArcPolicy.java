@@ -0,0 +1,116 @@
+package com.yahoo.ycsb.memcached.cache;
+
+import java.util.HashMap;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha), counting bytes instead of
+ * pages. Items read once since they were stored are in T1 and items read
+ * again in T2, each in LRU order; the keys of items evicted from them are
+ * remembered in the ghost lists B1 and B2. A victim is taken from T1 while
+ * T1 holds more than the target p, else from T2. Storing a key found in B1
+ * means T1 was too small and raises p, one found in B2 lowers it, and
+ * either goes straight to T2. The ghosts are trimmed so T1 and B1 hold at
+ * most the cache's limit, and all four lists twice that.
+ */
+public class ArcPolicy extends EvictionPolicy {
+	static final int T1 = 1;
+	static final int T2 = 2;
+	static final int B1 = 3;
+	static final int B2 = 4;
+
+	ItemList t1 = new ItemList();
+	ItemList t2 = new ItemList();
+	ItemList b1 = new ItemList();
+	ItemList b2 = new ItemList();
+
+	/**
+	 * The ghost of each key in B1 or B2: an item without a value, of the
+	 * size of the evicted one.
+	 */
+	HashMap<String, Item> ghosts = new HashMap<String, Item>();
+
+	/**
+	 * The target size of T1, in bytes.
+	 */
+	double p;
+
+	ItemList list(Item item) {
+		switch (item.index) {
+		case T1:
+			return t1;
+		case T2:
+			return t2;
+		case B1:
+			return b1;
+		default:
+			return b2;
+		}
+	}
+
+	@Override
+	public void insert(Item item) {
+		Item ghost = ghosts.remove(item.key);
+		if (ghost == null) {
+			item.index = T1;
+			t1.push(item);
+			trim();
+			return;
+		}
+		if (ghost.index == B1) {
+			p = Math.min(limit, p + Math.max((double) b2.bytes / b1.bytes, 1) * item.size);
+		} else {
+			p = Math.max(0, p - Math.max((double) b1.bytes / b2.bytes, 1) * item.size);
+		}
+		list(ghost).remove(ghost);
+		item.index = T2;
+		t2.push(item);
+		trim();
+	}
+
+	@Override
+	public void access(Item item) {
+		list(item).remove(item);
+		item.index = T2;
+		t2.push(item);
+	}
+
+	@Override
+	public void remove(Item item) {
+		list(item).remove(item);
+		item.index = -1;
+	}
+
+	@Override
+	public Item victim() {
+		if (!t1.isEmpty() && (t1.bytes > p || t2.isEmpty())) {
+			return t1.tail;
+		}
+		return t2.tail;
+	}
+
+	@Override
+	public void evict(Item item) {
+		boolean recent = item.index == T1;
+		remove(item);
+		Item ghost = new Item(item.key, null, 0, 0, 0);
+		ghost.size = item.size;
+		ghost.index = recent ? B1 : B2;
+		list(ghost).push(ghost);
+		ghosts.put(ghost.key, ghost);
+		trim();
+	}
+
+	void trim() {
+		while (t1.bytes + b1.bytes > limit && !b1.isEmpty()) {
+			forget(b1.tail);
+		}
+		while (t1.bytes + t2.bytes + b1.bytes + b2.bytes > 2 * limit && !b2.isEmpty()) {
+			forget(b2.tail);
+		}
+	}
+
+	void forget(Item ghost) {
+		list(ghost).remove(ghost);
+		ghosts.remove(ghost.key);
+	}
+}
@@ -0,0 +1,358 @@
+package com.yahoo.ycsb.memcached.cache;
+
+import java.util.HashMap;
+
+/**
+ * A memory-bounded key-value store with memcached's semantics: the storage
+ * commands and their conditions, CAS identifiers, expiration times and
+ * counters. When a store would take it past its limit it evicts the
+ * victims of its EvictionPolicy until the item fits, or, with Slabs
+ * emulating memcached's allocator, until the item's slab class has a free
+ * chunk. Expired items are dropped when they are next looked up. All
+ * methods are synchronized.
+ */
+public class Cache {
+	/**
+	 * The storage modes.
+	 */
+	public static final int SET = 0;
+	public static final int ADD = 1;
+	public static final int REPLACE = 2;
+	public static final int APPEND = 3;
+	public static final int PREPEND = 4;
+	public static final int CAS = 5;
+
+	/**
+	 * The results of store(), delete() and incr().
+	 */
+	public static final int STORED = 0;
+	public static final int NOT_STORED = 1;
+	public static final int EXISTS = 2;
+	public static final int NOT_FOUND = 3;
+	public static final int TOO_LARGE = 4;
+	public static final int DELETED = 5;
+	public static final int NON_NUMERIC = 6;
+
+	/**
+	 * The largest item memcached stores by default.
+	 */
+	public static final int MAX_ITEM_SIZE = 1 << 20;
+
+	/**
+	 * Expiration times up to 30 days are relative, later ones absolute.
+	 */
+	static final long RELATIVE_LIMIT = 60 * 60 * 24 * 30;
+
+	HashMap<String, Item> items = new HashMap<String, Item>();
+	EvictionPolicy policy;
+	Slabs slabs;
+	long limit;
+	long used;
+	long nextcas;
+
+	/**
+	 * The cost each key had when it last left the cache, evicted, expired
+	 * or deleted, while trackMissCost() is on. Only misses look here, so
+	 * keys stored again are not taken out.
+	 */
+	HashMap<String, Integer> gone;
+
+	public long hits;
+	public long misses;
+	public long evictions;
+	public long evictedcost;
+	public long totalitems;
+
+	/**
+	 * The total cost of the misses of keys that had been stored, and the
+	 * number of misses of keys that never had, whose cost is not known.
+	 */
+	public long misscost;
+	public long coldmisses;
+
+	public Cache(long limit, EvictionPolicy policy) {
+		this.limit = limit;
+		this.policy = policy;
+		policy.limit = limit;
+	}
+
+	/**
+	 * A cache whose memory is handed out by slabs, evicting within each
+	 * slab class.
+	 */
+	public Cache(long limit, Slabs slabs) {
+		this.limit = limit;
+		this.slabs = slabs;
+	}
+
+	/**
+	 * Charge each miss the cost of the missed key, remembering the cost of
+	 * every key that leaves the cache.
+	 */
+	public synchronized void trackMissCost() {
+		if (gone == null) {
+			gone = new HashMap<String, Integer>();
+		}
+	}
+
+	EvictionPolicy policy(Item item) {
+		return slabs == null ? policy : slabs.policy(item);
+	}
+
+	public static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+
+	/**
+	 * Convert a protocol expiration time to seconds since the epoch: 0 is
+	 * never, up to 30 days is relative to now, a later time is absolute, and
+	 * a negative time has already passed.
+	 */
+	public static long expiry(long exptime) {
+		if (exptime == 0) {
+			return 0;
+		}
+		if (exptime < 0) {
+			return 1;
+		}
+		return exptime <= RELATIVE_LIMIT ? now() + exptime : exptime;
+	}
+
+	/**
+	 * The live item with key, or null, without counting an access.
+	 */
+	Item lookup(String key) {
+		Item item = items.get(key);
+		if (item != null && item.isExpired(now())) {
+			unlink(item);
+			policy(item).remove(item);
+			departed(item);
+			return null;
+		}
+		return item;
+	}
+
+	void unlink(Item item) {
+		items.remove(item.key);
+		used -= item.size;
+		if (slabs != null) {
+			slabs.free(item);
+		}
+	}
+
+	void departed(Item item) {
+		if (gone != null) {
+			gone.put(item.key, item.cost);
+		}
+	}
+
+	/**
+	 * Read an item, counting a hit or a miss. The returned item's
+	 * lastaccess and fetched are as they were before this read.
+	 */
+	public synchronized Item get(String key) {
+		Item item = lookup(key);
+		if (item == null) {
+			misses++;
+			if (gone != null) {
+				Integer cost = gone.get(key);
+				if (cost == null) {
+					coldmisses++;
+				} else {
+					misscost += cost;
+				}
+			}
+			return null;
+		}
+		hits++;
+		policy(item).access(item);
+		return item;
+	}
+
+	/**
+	 * Mark an item returned by get() as read now.
+	 */
+	public synchronized void fetched(Item item) {
+		item.lastaccess = now();
+		item.fetched = true;
+	}
+
+	/**
+	 * Store item under mode, with item.exptime already converted by
+	 * expiry(). A CAS store succeeds only if the stored item has cas. On
+	 * success item.cas is set to the new CAS identifier.
+	 */
+	public synchronized int store(int mode, Item item, long cas) {
+		if (item.value.length > MAX_ITEM_SIZE) {
+			return TOO_LARGE;
+		}
+		Item old = lookup(item.key);
+		switch (mode) {
+		case ADD:
+			if (old != null) {
+				policy(old).access(old);
+				return NOT_STORED;
+			}
+			break;
+		case REPLACE:
+		case APPEND:
+		case PREPEND:
+			if (old == null) {
+				return NOT_STORED;
+			}
+			break;
+		case CAS:
+			if (old == null) {
+				return NOT_FOUND;
+			}
+			if (old.cas != cas) {
+				return EXISTS;
+			}
+			break;
+		}
+		Item stored = item;
+		if (mode == APPEND || mode == PREPEND) {
+			byte[] value = new byte[old.value.length + item.value.length];
+			byte[] first = mode == APPEND ? old.value : item.value;
+			byte[] second = mode == APPEND ? item.value : old.value;
+			System.arraycopy(first, 0, value, 0, first.length);
+			System.arraycopy(second, 0, value, first.length, second.length);
+			stored = new Item(old.key, value, old.flags, old.exptime, old.cost);
+		}
+		if (stored.value.length > MAX_ITEM_SIZE
+				|| (slabs == null ? stored.size > limit : slabs.slabClass(stored.size) < 0)) {
+			return TOO_LARGE;
+		}
+		if (old != null) {
+			unlink(old);
+			policy(old).remove(old);
+		}
+		if (!link(stored)) {
+			// out of memory; like memcached, do not leave the old value
+			return NOT_STORED;
+		}
+		item.cas = stored.cas;
+		return STORED;
+	}
+
+	/**
+	 * Add a new item, evicting until it fits. Return false if nothing can be
+	 * evicted to make room, which only happens with slabs.
+	 */
+	boolean link(Item item) {
+		if (slabs == null) {
+			while (used + item.size > limit) {
+				Item victim = policy.victim();
+				if (victim == null) {
+					break;
+				}
+				evict(victim);
+			}
+		} else {
+			while (!slabs.alloc(item)) {
+				Item victim = slabs.policy(item).victim();
+				if (victim == null) {
+					return false;
+				}
+				evict(victim);
+			}
+		}
+		item.cas = ++nextcas;
+		item.lastaccess = now();
+		items.put(item.key, item);
+		used += item.size;
+		totalitems++;
+		policy(item).insert(item);
+		return true;
+	}
+
+	void evict(Item victim) {
+		unlink(victim);
+		policy(victim).evict(victim);
+		departed(victim);
+		evictions++;
+		evictedcost += victim.cost;
+	}
+
+	/**
+	 * Delete key, if cas is 0 or its CAS identifier.
+	 */
+	public synchronized int delete(String key, long cas) {
+		Item item = lookup(key);
+		if (item == null) {
+			return NOT_FOUND;
+		}
+		if (cas != 0 && item.cas != cas) {
+			return EXISTS;
+		}
+		unlink(item);
+		policy(item).remove(item);
+		departed(item);
+		return DELETED;
+	}
+
+	/**
+	 * Add delta to or subtract it from a decimal value, which does not go
+	 * below 0. Return the new value, or -NOT_FOUND or -NON_NUMERIC.
+	 */
+	public synchronized long incr(String key, long delta, boolean decr) {
+		Item item = lookup(key);
+		if (item == null) {
+			return -NOT_FOUND;
+		}
+		long value;
+		try {
+			value = Long.parseLong(new String(item.value, "ISO-8859-1").trim());
+		} catch (Exception e) {
+			return -NON_NUMERIC;
+		}
+		if (value < 0) {
+			return -NON_NUMERIC;
+		}
+		value = decr ? Math.max(0, value - delta) : value + delta;
+		if (value < 0) {
+			// wrapped past 2^63, where memcached would wrap at 2^64
+			value = 0;
+		}
+		Item stored = new Item(item.key, Long.toString(value).getBytes(), item.flags, item.exptime, item.cost);
+		unlink(item);
+		policy(item).remove(item);
+		if (!link(stored)) {
+			return -NOT_FOUND;
+		}
+		return value;
+	}
+
+	/**
+	 * Set a new expiration time, already converted by expiry().
+	 */
+	public synchronized boolean touch(String key, long exptime) {
+		Item item = lookup(key);
+		if (item == null) {
+			return false;
+		}
+		item.exptime = exptime;
+		return true;
+	}
+
+	public synchronized void flush() {
+		Item[] all = items.values().toArray(new Item[items.size()]);
+		for (int i = 0; i < all.length; i++) {
+			unlink(all[i]);
+			policy(all[i]).remove(all[i]);
+			departed(all[i]);
+		}
+	}
+
+	public synchronized int count() {
+		return items.size();
+	}
+
+	public synchronized long bytes() {
+		return used;
+	}
+
+	public long limit() {
+		return limit;
+	}
+}
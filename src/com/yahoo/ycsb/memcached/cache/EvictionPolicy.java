@@ -0,0 +1,60 @@
+package com.yahoo.ycsb.memcached.cache;
+
+/**
+ * Decides which item a full Cache evicts. The cache tells the policy about
+ * every item it stores, reads and removes, and asks it for a victim when it
+ * needs room. Policies are not thread safe; the Cache serializes them.
+ */
+public abstract class EvictionPolicy {
+	/**
+	 * The bytes the policy's items may take, for policies that adapt to it.
+	 */
+	long limit;
+
+	/**
+	 * A new item was stored.
+	 */
+	public abstract void insert(Item item);
+
+	/**
+	 * An item was read.
+	 */
+	public abstract void access(Item item);
+
+	/**
+	 * An item was deleted, replaced or expired.
+	 */
+	public abstract void remove(Item item);
+
+	/**
+	 * The item to evict next, or null if there is none.
+	 */
+	public abstract Item victim();
+
+	/**
+	 * The victim is being evicted. Policies that age their items on
+	 * eviction override this.
+	 */
+	public void evict(Item item) {
+		remove(item);
+	}
+
+	/**
+	 * Return a new policy by name: "lru", "lfu", "gds" for GreedyDual-Size,
+	 * "gdwheel" for GD-Wheel or "arc".
+	 */
+	public static EvictionPolicy create(String name) {
+		if (name.equalsIgnoreCase("lru")) {
+			return new LruPolicy();
+		} else if (name.equalsIgnoreCase("lfu")) {
+			return new LfuPolicy();
+		} else if (name.equalsIgnoreCase("gds")) {
+			return new GreedyDualSizePolicy();
+		} else if (name.equalsIgnoreCase("gdwheel")) {
+			return new GdWheelPolicy();
+		} else if (name.equalsIgnoreCase("arc")) {
+			return new ArcPolicy();
+		}
+		throw new IllegalArgumentException("Unknown eviction policy " + name);
+	}
+}
@@ -0,0 +1,105 @@
+package com.yahoo.ycsb.memcached.cache;
+
+/**
+ * GD-Wheel (Li and Cox): GreedyDual on cost, H = L + cost, in constant time
+ * per operation. The items are kept in a hierarchy of WHEELS cost wheels of
+ * QUEUES queues each; an item of cost c is put in the highest wheel i with
+ * QUEUES^i <= c, c / QUEUES^i queues ahead of that wheel's hand, remembering
+ * the rest of c. Victims are taken from the tail of the queue at the hand of
+ * the lowest wheel, which advances past empty queues as L grows; each time a
+ * wheel's hand goes round, the next wheel's hand advances one queue and the
+ * items in that queue move down the hierarchy by the cost they have left.
+ * Sizes are not considered, as memcached's slab classes already group items
+ * of similar size. Costs are capped at QUEUES^(WHEELS - 1) * (QUEUES - 1),
+ * so no item is queued a whole turn ahead of a hand.
+ */
+public class GdWheelPolicy extends EvictionPolicy {
+	static final int QUEUES = 256;
+	static final int WHEELS = 2;
+
+	ItemList[][] wheels = new ItemList[WHEELS][QUEUES];
+	int[] hands = new int[WHEELS];
+	int[] scale = new int[WHEELS];
+	int count;
+
+	public GdWheelPolicy() {
+		for (int i = 0; i < WHEELS; i++) {
+			scale[i] = i == 0 ? 1 : scale[i - 1] * QUEUES;
+			for (int j = 0; j < QUEUES; j++) {
+				wheels[i][j] = new ItemList();
+			}
+		}
+	}
+
+	/**
+	 * Queue an item cost ahead of the hands, counting from where the lower
+	 * hands have got to, and keep what is below the wheel's resolution in
+	 * its priority. The index is wheel * QUEUES + queue.
+	 */
+	void place(Item item, int cost) {
+		int i = WHEELS - 1;
+		while (i > 0 && cost < scale[i]) {
+			i--;
+		}
+		for (int j = 0; j < i; j++) {
+			cost += hands[j] * scale[j];
+		}
+		int q = (hands[i] + cost / scale[i]) % QUEUES;
+		item.priority = cost % scale[i];
+		item.index = i * QUEUES + q;
+		wheels[i][q].push(item);
+	}
+
+	int cost(Item item) {
+		return Math.min(Math.max(item.cost, 1), scale[WHEELS - 1] * (QUEUES - 1));
+	}
+
+	@Override
+	public void insert(Item item) {
+		place(item, cost(item));
+		count++;
+	}
+
+	@Override
+	public void access(Item item) {
+		wheels[item.index / QUEUES][item.index % QUEUES].remove(item);
+		place(item, cost(item));
+	}
+
+	@Override
+	public void remove(Item item) {
+		wheels[item.index / QUEUES][item.index % QUEUES].remove(item);
+		item.index = -1;
+		count--;
+	}
+
+	@Override
+	public Item victim() {
+		if (count == 0) {
+			return null;
+		}
+		while (wheels[0][hands[0]].isEmpty()) {
+			advance(0);
+		}
+		return wheels[0][hands[0]].tail;
+	}
+
+	/**
+	 * Move wheel i's hand to its next queue, carrying into the wheel above
+	 * when it goes round, and move the items now under the hand down.
+	 */
+	void advance(int i) {
+		hands[i] = (hands[i] + 1) % QUEUES;
+		if (hands[i] == 0 && i + 1 < WHEELS) {
+			advance(i + 1);
+		}
+		if (i > 0) {
+			ItemList queue = wheels[i][hands[i]];
+			while (!queue.isEmpty()) {
+				Item item = queue.tail;
+				queue.remove(item);
+				place(item, (int) item.priority);
+			}
+		}
+	}
+}
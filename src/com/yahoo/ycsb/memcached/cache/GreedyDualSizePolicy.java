@@ -0,0 +1,27 @@
+package com.yahoo.ycsb.memcached.cache;
+
+/**
+ * GreedyDual-Size (Cao and Irani): each item has a priority H = L +
+ * cost / size, set when it is stored and again whenever it is read, and the
+ * item with the lowest H is evicted, raising the inflation value L to its
+ * H. Cheap and large items go first, and items not read for a while age out
+ * as L grows past them.
+ */
+public class GreedyDualSizePolicy extends HeapPolicy {
+	/**
+	 * The inflation value.
+	 */
+	double inflation;
+
+	@Override
+	double priority(Item item) {
+		// H only grows on a read, since L never falls
+		return inflation + (double) item.cost / item.size;
+	}
+
+	@Override
+	public void evict(Item item) {
+		inflation = item.priority;
+		remove(item);
+	}
+}
@@ -0,0 +1,92 @@
+package com.yahoo.ycsb.memcached.cache;
+
+/**
+ * Evicts the item of lowest priority, keeping the items in a binary min-heap
+ * on a priority that subclasses compute when an item is stored and again
+ * whenever it is read.
+ */
+public abstract class HeapPolicy extends EvictionPolicy {
+	Item[] heap = new Item[1024];
+	int count;
+
+	abstract double priority(Item item);
+
+	@Override
+	public void insert(Item item) {
+		if (count == heap.length) {
+			Item[] grown = new Item[heap.length * 2];
+			System.arraycopy(heap, 0, grown, 0, count);
+			heap = grown;
+		}
+		item.priority = priority(item);
+		item.index = count;
+		heap[count++] = item;
+		up(item.index);
+	}
+
+	@Override
+	public void access(Item item) {
+		double old = item.priority;
+		item.priority = priority(item);
+		if (item.priority < old) {
+			up(item.index);
+		} else {
+			down(item.index);
+		}
+	}
+
+	@Override
+	public void remove(Item item) {
+		int i = item.index;
+		Item last = heap[--count];
+		heap[count] = null;
+		item.index = -1;
+		if (last != item) {
+			heap[i] = last;
+			last.index = i;
+			up(i);
+			down(last.index);
+		}
+	}
+
+	@Override
+	public Item victim() {
+		return count == 0 ? null : heap[0];
+	}
+
+	void up(int i) {
+		Item item = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent].priority <= item.priority) {
+				break;
+			}
+			heap[i] = heap[parent];
+			heap[i].index = i;
+			i = parent;
+		}
+		heap[i] = item;
+		item.index = i;
+	}
+
+	void down(int i) {
+		Item item = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= count) {
+				break;
+			}
+			if (child + 1 < count && heap[child + 1].priority < heap[child].priority) {
+				child++;
+			}
+			if (heap[child].priority >= item.priority) {
+				break;
+			}
+			heap[i] = heap[child];
+			heap[i].index = i;
+			i = child;
+		}
+		heap[i] = item;
+		item.index = i;
+	}
+}
@@ -0,0 +1,68 @@
+package com.yahoo.ycsb.memcached.cache;
+
+/**
+ * A cached key and value with the metadata memcached keeps for it. The
+ * eviction policies keep their own state in the item too, as memcached
+ * links its items into its LRU, so tracking an item allocates nothing.
+ */
+public class Item {
+	/**
+	 * The bytes memcached spends on an item besides its key and value, its
+	 * header and the CAS identifier.
+	 */
+	public static final int OVERHEAD = 56;
+
+	public final String key;
+	public byte[] value;
+	public int flags;
+
+	/**
+	 * When the item expires, in seconds since the epoch, or 0 if it does not.
+	 */
+	public long exptime;
+	public long cas;
+
+	/**
+	 * The cost of missing the item, as given by set_cost, and 1 for a plain
+	 * set.
+	 */
+	public int cost;
+	public int size;
+
+	/**
+	 * When the item was last read or written, in seconds since the epoch,
+	 * and whether it has been read since it was stored.
+	 */
+	public long lastaccess;
+	public boolean fetched;
+
+	/**
+	 * The policies' state: the neighbours in a list, the priority and
+	 * position in a heap, and the number of accesses.
+	 */
+	Item prev;
+	Item next;
+	double priority;
+	int index = -1;
+	long hits;
+
+	public Item(String key, byte[] value, int flags, long exptime, int cost) {
+		this.key = key;
+		this.value = value;
+		this.flags = flags;
+		this.exptime = exptime;
+		this.cost = cost;
+		size = size(key, value == null ? 0 : value.length);
+	}
+
+	/**
+	 * The memory an item takes.
+	 */
+	public static int size(String key, int length) {
+		return OVERHEAD + key.length() + length;
+	}
+
+	public boolean isExpired(long now) {
+		return exptime != 0 && exptime <= now;
+	}
+}
@@ -0,0 +1,47 @@
+package com.yahoo.ycsb.memcached.cache;
+
+/**
+ * A doubly linked list of items through their prev and next, the most
+ * recently added at the head, keeping the total size of its items. An item
+ * is in at most one list at a time.
+ */
+class ItemList {
+	Item head;
+	Item tail;
+	int count;
+	long bytes;
+
+	void push(Item item) {
+		item.prev = null;
+		item.next = head;
+		if (head != null) {
+			head.prev = item;
+		} else {
+			tail = item;
+		}
+		head = item;
+		count++;
+		bytes += item.size;
+	}
+
+	void remove(Item item) {
+		if (item.prev != null) {
+			item.prev.next = item.next;
+		} else {
+			head = item.next;
+		}
+		if (item.next != null) {
+			item.next.prev = item.prev;
+		} else {
+			tail = item.prev;
+		}
+		item.prev = null;
+		item.next = null;
+		count--;
+		bytes -= item.size;
+	}
+
+	boolean isEmpty() {
+		return head == null;
+	}
+}
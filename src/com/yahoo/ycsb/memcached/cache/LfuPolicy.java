@@ -0,0 +1,25 @@
+package com.yahoo.ycsb.memcached.cache;
+
+/**
+ * Evicts the least frequently used item: the one read the fewest times
+ * since it was stored. Counts start over when an item is replaced, and
+ * ties go to whichever the heap holds at its root.
+ */
+public class LfuPolicy extends HeapPolicy {
+	@Override
+	double priority(Item item) {
+		return item.hits;
+	}
+
+	@Override
+	public void insert(Item item) {
+		item.hits = 0;
+		super.insert(item);
+	}
+
+	@Override
+	public void access(Item item) {
+		item.hits++;
+		super.access(item);
+	}
+}
@@ -0,0 +1,51 @@
+package com.yahoo.ycsb.memcached.cache;
+
+/**
+ * Evicts the least recently used item, as memcached does, keeping the items
+ * in a doubly linked list with the most recently used at the head.
+ */
+public class LruPolicy extends EvictionPolicy {
+	Item head;
+	Item tail;
+
+	@Override
+	public void insert(Item item) {
+		item.prev = null;
+		item.next = head;
+		if (head != null) {
+			head.prev = item;
+		} else {
+			tail = item;
+		}
+		head = item;
+	}
+
+	@Override
+	public void access(Item item) {
+		if (item != head) {
+			remove(item);
+			insert(item);
+		}
+	}
+
+	@Override
+	public void remove(Item item) {
+		if (item.prev != null) {
+			item.prev.next = item.next;
+		} else {
+			head = item.next;
+		}
+		if (item.next != null) {
+			item.next.prev = item.prev;
+		} else {
+			tail = item.prev;
+		}
+		item.prev = null;
+		item.next = null;
+	}
+
+	@Override
+	public Item victim() {
+		return tail;
+	}
+}
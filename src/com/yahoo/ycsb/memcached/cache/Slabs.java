@@ -0,0 +1,96 @@
+package com.yahoo.ycsb.memcached.cache;
+
+import java.util.Arrays;
+
+/**
+ * Emulates memcached's slab allocator. Memory is handed out a PAGE_SIZE page
+ * at a time, for good, to the slab class that needs it; each class cuts its
+ * pages into chunks of its size, the sizes growing by a factor from
+ * MIN_CHUNK up to a page. An item takes a chunk of the smallest class it fits
+ * in, and once all the pages are given out it can only get one by evicting
+ * from its own class, by that class's own policy. So the classes keep the
+ * memory they took while item sizes were different, as memcached's do
+ * without its slab rebalancer.
+ */
+public class Slabs {
+	public static final int PAGE_SIZE = 1 << 20;
+
+	/**
+	 * memcached's smallest chunk, an item header and its default minimum
+	 * of 48 bytes of key and value.
+	 */
+	static final int MIN_CHUNK = 96;
+
+	int[] chunks;
+	EvictionPolicy[] policies;
+	int[] pages;
+	long[] used;
+	long freepages;
+
+	/**
+	 * @param limit
+	 *            The memory to hand out, rounded down to whole pages.
+	 * @param policy
+	 *            The name of each class's EvictionPolicy.
+	 * @param factor
+	 *            The growth factor of the chunk sizes.
+	 */
+	public Slabs(long limit, String policy, double factor) {
+		if (factor <= 1) {
+			throw new IllegalArgumentException("Slab growth factor must be above 1, got " + factor);
+		}
+		int n = 0;
+		int[] sizes = new int[256];
+		for (int size = MIN_CHUNK; size <= PAGE_SIZE / factor && n < sizes.length - 1; size = (int) (size * factor)) {
+			size = (size + 7) & ~7;
+			sizes[n++] = size;
+		}
+		sizes[n++] = PAGE_SIZE;
+		chunks = Arrays.copyOf(sizes, n);
+		policies = new EvictionPolicy[n];
+		for (int i = 0; i < n; i++) {
+			policies[i] = EvictionPolicy.create(policy);
+		}
+		pages = new int[n];
+		used = new long[n];
+		freepages = Math.max(1, limit / PAGE_SIZE);
+	}
+
+	/**
+	 * The class of the smallest chunk that holds size bytes, or -1 if none
+	 * does.
+	 */
+	public int slabClass(int size) {
+		int i = Arrays.binarySearch(chunks, size);
+		if (i < 0) {
+			i = -i - 1;
+		}
+		return i < chunks.length ? i : -1;
+	}
+
+	EvictionPolicy policy(Item item) {
+		return policies[slabClass(item.size)];
+	}
+
+	/**
+	 * Take a chunk for item, from a new page if its class has no free
+	 * chunk. Return false if there is no page left.
+	 */
+	boolean alloc(Item item) {
+		int c = slabClass(item.size);
+		if (used[c] == (long) pages[c] * (PAGE_SIZE / chunks[c])) {
+			if (freepages == 0) {
+				return false;
+			}
+			freepages--;
+			pages[c]++;
+			policies[c].limit += PAGE_SIZE;
+		}
+		used[c]++;
+		return true;
+	}
+
+	void free(Item item) {
+		used[slabClass(item.size)]--;
+	}
+}
@@ -0,0 +1,334 @@
+package com.yahoo.ycsb.memcached.server;
+
+import java.io.IOException;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.memcached.cache.Cache;
+import com.yahoo.ycsb.memcached.cache.Item;
+
+/**
+ * memcached's binary protocol: get, getk, set, add, replace, append,
+ * prepend, delete, incr, decr, touch and gat with their quiet variants,
+ * noop, version, stat, flush and quit, and set_cost, a set with opcode
+ * memcached.setcostopcode whose extras are the flags, expiration time and
+ * cost. Quiet gets say nothing on a miss and quiet updates nothing on
+ * success.
+ */
+class BinaryProtocol extends Protocol {
+	static final byte REQUEST_MAGIC = (byte) 0x80;
+	static final byte RESPONSE_MAGIC = (byte) 0x81;
+	static final int HEADER_LENGTH = 24;
+
+	static final int GET = 0x00;
+	static final int SET = 0x01;
+	static final int ADD = 0x02;
+	static final int REPLACE = 0x03;
+	static final int DELETE = 0x04;
+	static final int INCREMENT = 0x05;
+	static final int DECREMENT = 0x06;
+	static final int QUIT = 0x07;
+	static final int FLUSH = 0x08;
+	static final int GETQ = 0x09;
+	static final int NOOP = 0x0a;
+	static final int VERSION = 0x0b;
+	static final int GETK = 0x0c;
+	static final int GETKQ = 0x0d;
+	static final int APPEND = 0x0e;
+	static final int PREPEND = 0x0f;
+	static final int STAT = 0x10;
+	static final int SETQ = 0x11;
+	static final int ADDQ = 0x12;
+	static final int REPLACEQ = 0x13;
+	static final int DELETEQ = 0x14;
+	static final int INCREMENTQ = 0x15;
+	static final int DECREMENTQ = 0x16;
+	static final int QUITQ = 0x17;
+	static final int FLUSHQ = 0x18;
+	static final int APPENDQ = 0x19;
+	static final int PREPENDQ = 0x1a;
+	static final int TOUCH = 0x1c;
+	static final int GAT = 0x1d;
+	static final int GATQ = 0x1e;
+
+	static final int SUCCESS = 0x00;
+	static final int KEY_NOT_FOUND = 0x01;
+	static final int KEY_EXISTS = 0x02;
+	static final int TOO_LARGE = 0x03;
+	static final int INVALID_ARGUMENTS = 0x04;
+	static final int NOT_STORED = 0x05;
+	static final int NON_NUMERIC = 0x06;
+	static final int UNKNOWN_COMMAND = 0x81;
+
+	int setcostopcode;
+
+	/**
+	 * The header of the current request.
+	 */
+	int opcode;
+	int keylen;
+	int extlen;
+	int bodylen;
+	int opaque;
+	long cas;
+
+	BinaryProtocol(MemcachedServer server) {
+		super(server);
+		setcostopcode = Config.getConfig().memcached_set_cost_opcode & 0xff;
+	}
+
+	@Override
+	boolean process(ServerConnection c) throws IOException {
+		if (c.end - c.start < HEADER_LENGTH) {
+			c.need(HEADER_LENGTH);
+			return false;
+		}
+		int h = c.start;
+		if (c.in[h] != REQUEST_MAGIC) {
+			throw new IOException("Bad request magic");
+		}
+		opcode = c.in[h + 1] & 0xff;
+		keylen = c.getShort(h + 2);
+		extlen = c.in[h + 4] & 0xff;
+		bodylen = c.getInt(h + 8);
+		opaque = c.getInt(h + 12);
+		cas = c.getLong(h + 16);
+		if (bodylen < 0 || bodylen > ServerConnection.MAX_REQUEST || keylen + extlen > bodylen) {
+			throw new IOException("Bad request length");
+		}
+		if (c.end - c.start < HEADER_LENGTH + bodylen) {
+			c.need(HEADER_LENGTH + bodylen);
+			return false;
+		}
+		int extras = h + HEADER_LENGTH;
+		int keyat = extras + extlen;
+		int valueat = keyat + keylen;
+		int valuelen = bodylen - extlen - keylen;
+		if (opcode == setcostopcode) {
+			store(c, Cache.SET, false, extras, keyat, valueat, valuelen, extlen >= 12 ? c.getInt(extras + 8) : 1);
+		} else {
+			switch (opcode) {
+			case GET:
+			case GETQ:
+			case GETK:
+			case GETKQ:
+				get(c, opcode == GETK || opcode == GETKQ, opcode == GETQ || opcode == GETKQ, keyat, -1);
+				break;
+			case GAT:
+			case GATQ:
+				get(c, false, opcode == GATQ, keyat, extlen >= 4 ? c.getInt(extras) : 0);
+				break;
+			case SET:
+			case SETQ:
+				store(c, cas != 0 ? Cache.CAS : Cache.SET, opcode == SETQ, extras, keyat, valueat, valuelen, 1);
+				break;
+			case ADD:
+			case ADDQ:
+				store(c, Cache.ADD, opcode == ADDQ, extras, keyat, valueat, valuelen, 1);
+				break;
+			case REPLACE:
+			case REPLACEQ:
+				store(c, cas != 0 ? Cache.CAS : Cache.REPLACE, opcode == REPLACEQ, extras, keyat, valueat, valuelen, 1);
+				break;
+			case APPEND:
+			case APPENDQ:
+				store(c, Cache.APPEND, opcode == APPENDQ, extras, keyat, valueat, valuelen, 1);
+				break;
+			case PREPEND:
+			case PREPENDQ:
+				store(c, Cache.PREPEND, opcode == PREPENDQ, extras, keyat, valueat, valuelen, 1);
+				break;
+			case DELETE:
+			case DELETEQ:
+				delete(c, opcode == DELETEQ, keyat);
+				break;
+			case INCREMENT:
+			case INCREMENTQ:
+			case DECREMENT:
+			case DECREMENTQ:
+				incr(c, opcode == DECREMENT || opcode == DECREMENTQ, opcode == INCREMENTQ || opcode == DECREMENTQ, extras, keyat);
+				break;
+			case TOUCH:
+				touch(c, extras, keyat);
+				break;
+			case NOOP:
+				header(c, SUCCESS, 0, 0, 0, 0);
+				break;
+			case VERSION:
+				header(c, SUCCESS, 0, 0, MemcachedServer.VERSION.length(), 0);
+				c.putAscii(MemcachedServer.VERSION);
+				break;
+			case STAT:
+				stats(c);
+				break;
+			case FLUSH:
+			case FLUSHQ:
+				cache.flush();
+				if (opcode == FLUSH) {
+					header(c, SUCCESS, 0, 0, 0, 0);
+				}
+				break;
+			case QUIT:
+			case QUITQ:
+				if (opcode == QUIT) {
+					header(c, SUCCESS, 0, 0, 0, 0);
+				}
+				c.closing = true;
+				break;
+			default:
+				error(c, UNKNOWN_COMMAND, "Unknown command");
+			}
+		}
+		c.start += HEADER_LENGTH + bodylen;
+		return true;
+	}
+
+	/**
+	 * Append a response header for the current request.
+	 */
+	void header(ServerConnection c, int status, int keylength, int extlength, int bodylength, long cas) {
+		c.reserve(HEADER_LENGTH + bodylength);
+		c.put(RESPONSE_MAGIC);
+		c.put((byte) opcode);
+		c.putShort(keylength);
+		c.put((byte) extlength);
+		c.put((byte) 0);
+		c.putShort(status);
+		c.putInt(bodylength);
+		c.putInt(opaque);
+		c.putLong(cas);
+	}
+
+	void error(ServerConnection c, int status, String message) {
+		header(c, status, 0, 0, message.length(), 0);
+		c.putAscii(message);
+	}
+
+	void get(ServerConnection c, boolean withkey, boolean quiet, int keyat, long touch) {
+		String key = c.string(keyat, keylen);
+		Item item = cache.get(key);
+		if (item != null && touch >= 0) {
+			cache.touch(key, Cache.expiry(touch));
+		}
+		if (item == null) {
+			if (!quiet) {
+				if (withkey) {
+					header(c, KEY_NOT_FOUND, keylen, 0, keylen, 0);
+					c.put(c.in, keyat, keylen);
+				} else {
+					error(c, KEY_NOT_FOUND, "Not found");
+				}
+			}
+			return;
+		}
+		cache.fetched(item);
+		int k = withkey ? keylen : 0;
+		header(c, SUCCESS, k, 4, 4 + k + item.value.length, item.cas);
+		c.putInt(item.flags);
+		if (withkey) {
+			c.put(c.in, keyat, keylen);
+		}
+		c.put(item.value);
+	}
+
+	void store(ServerConnection c, int mode, boolean quiet, int extras, int keyat, int valueat, int valuelen, int cost) {
+		boolean storage = mode != Cache.APPEND && mode != Cache.PREPEND;
+		if (storage && extlen < 8) {
+			error(c, INVALID_ARGUMENTS, "Invalid arguments");
+			return;
+		}
+		int flags = storage ? c.getInt(extras) : 0;
+		long exptime = storage ? c.getInt(extras + 4) & 0xffffffffL : 0;
+		Item item = new Item(c.string(keyat, keylen), c.bytes(valueat, valuelen), flags, Cache.expiry(exptime), cost);
+		int res = cache.store(mode, item, cas);
+		server.sets.incrementAndGet();
+		switch (res) {
+		case Cache.STORED:
+			if (!quiet) {
+				header(c, SUCCESS, 0, 0, 0, item.cas);
+			}
+			break;
+		case Cache.EXISTS:
+			error(c, KEY_EXISTS, "Data exists for key");
+			break;
+		case Cache.NOT_FOUND:
+			error(c, KEY_NOT_FOUND, "Not found");
+			break;
+		case Cache.TOO_LARGE:
+			error(c, TOO_LARGE, "Too large");
+			break;
+		default:
+			error(c, NOT_STORED, "Not stored");
+		}
+	}
+
+	void delete(ServerConnection c, boolean quiet, int keyat) {
+		int res = cache.delete(c.string(keyat, keylen), cas);
+		if (res == Cache.DELETED) {
+			if (!quiet) {
+				header(c, SUCCESS, 0, 0, 0, 0);
+			}
+		} else if (res == Cache.EXISTS) {
+			error(c, KEY_EXISTS, "Data exists for key");
+		} else {
+			error(c, KEY_NOT_FOUND, "Not found");
+		}
+	}
+
+	/**
+	 * The extras are the delta, the initial value and the expiration time;
+	 * a missing key is created with the initial value unless the expiration
+	 * time is all ones.
+	 */
+	void incr(ServerConnection c, boolean decr, boolean quiet, int extras, int keyat) {
+		if (extlen < 20) {
+			error(c, INVALID_ARGUMENTS, "Invalid arguments");
+			return;
+		}
+		String key = c.string(keyat, keylen);
+		long delta = c.getLong(extras);
+		long initial = c.getLong(extras + 8);
+		int exptime = c.getInt(extras + 16);
+		long res = cache.incr(key, delta, decr);
+		if (res == -Cache.NOT_FOUND && exptime != -1) {
+			Item item = new Item(key, Long.toString(initial).getBytes(), 0, Cache.expiry(exptime & 0xffffffffL), 1);
+			if (cache.store(Cache.ADD, item, 0) == Cache.STORED) {
+				res = initial;
+			} else {
+				res = cache.incr(key, delta, decr);
+			}
+		}
+		if (res == -Cache.NOT_FOUND) {
+			error(c, KEY_NOT_FOUND, "Not found");
+		} else if (res == -Cache.NON_NUMERIC) {
+			error(c, NON_NUMERIC, "Non-numeric server-side value for incr or decr");
+		} else if (!quiet) {
+			header(c, SUCCESS, 0, 0, 8, 0);
+			c.putLong(res);
+		}
+	}
+
+	void touch(ServerConnection c, int extras, int keyat) {
+		if (extlen < 4) {
+			error(c, INVALID_ARGUMENTS, "Invalid arguments");
+			return;
+		}
+		if (cache.touch(c.string(keyat, keylen), Cache.expiry(c.getInt(extras) & 0xffffffffL))) {
+			header(c, SUCCESS, 0, 0, 0, 0);
+		} else {
+			error(c, KEY_NOT_FOUND, "Not found");
+		}
+	}
+
+	/**
+	 * One response per statistic, then an empty one.
+	 */
+	void stats(ServerConnection c) {
+		String[] stats = server.stats();
+		for (int i = 0; i < stats.length; i += 2) {
+			header(c, SUCCESS, stats[i].length(), 0, stats[i].length() + stats[i + 1].length(), 0);
+			c.putAscii(stats[i]);
+			c.putAscii(stats[i + 1]);
+		}
+		header(c, SUCCESS, 0, 0, 0, 0);
+	}
+}
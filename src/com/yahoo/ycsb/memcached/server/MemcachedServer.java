@@ -0,0 +1,376 @@
+package com.yahoo.ycsb.memcached.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.DataStoreException;
+import com.yahoo.ycsb.memcached.KetamaRing;
+import com.yahoo.ycsb.memcached.cache.Cache;
+import com.yahoo.ycsb.memcached.cache.EvictionPolicy;
+
+/**
+ * A small memcached stand-in to test and benchmark the client against on one
+ * machine. It speaks the text protocol, with the meta commands and set_cost,
+ * and the binary protocol, choosing by the first byte each connection
+ * sends, and answers text gets over UDP. Items are kept in a Cache bounded
+ * to the given memory, evicting by one of the EvictionPolicy classes.
+ *
+ * Each worker thread runs a Selector over its share of the connections,
+ * reading and handling every request a client pipelined before writing the
+ * replies at once. The first worker also accepts connections and handles
+ * the UDP endpoint.
+ *
+ * Run it with main(), or set memcached.embedded to start one in the load
+ * generator's process for each loopback server of the KetamaRing, with
+ * memcached.embeddedmemory megabytes, memcached.embeddedeviction and
+ * memcached.embeddedthreads workers.
+ */
+public class MemcachedServer {
+	public static final String VERSION = "1.6.0-ycsb";
+
+	/**
+	 * The largest UDP datagram payload memcached sends, frame header
+	 * included.
+	 */
+	static final int UDP_PAYLOAD = 1400;
+	static final int UDP_FRAME = 8;
+
+	static ArrayList<MemcachedServer> embedded = new ArrayList<MemcachedServer>();
+
+	Cache cache;
+	String policy;
+	InetSocketAddress address;
+	int udpport;
+	Worker[] workers;
+	ServerSocketChannel listener;
+	DatagramChannel udp;
+	volatile boolean running;
+	long started;
+
+	AtomicInteger connections = new AtomicInteger();
+	AtomicLong totalconnections = new AtomicLong();
+	AtomicLong sets = new AtomicLong();
+
+	/**
+	 * Serve address with a cache of limit bytes evicting by policy, over UDP
+	 * too if udpport is not 0.
+	 */
+	public MemcachedServer(InetSocketAddress address, int udpport, long limit, String policy, int threads) {
+		this.address = address;
+		this.udpport = udpport;
+		this.policy = policy;
+		cache = new Cache(limit, EvictionPolicy.create(policy));
+		workers = new Worker[Math.max(1, threads)];
+	}
+
+	public void start() throws IOException {
+		listener = ServerSocketChannel.open();
+		listener.socket().setReuseAddress(true);
+		listener.socket().bind(address, 1024);
+		listener.configureBlocking(false);
+		if (udpport != 0) {
+			udp = DatagramChannel.open();
+			udp.socket().bind(new InetSocketAddress(address.getAddress(), udpport));
+			udp.configureBlocking(false);
+		}
+		running = true;
+		started = System.currentTimeMillis();
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Worker(i);
+		}
+		listener.register(workers[0].selector, SelectionKey.OP_ACCEPT);
+		if (udp != null) {
+			udp.register(workers[0].selector, SelectionKey.OP_READ);
+		}
+		for (int i = 0; i < workers.length; i++) {
+			workers[i].start();
+		}
+	}
+
+	public void stop() {
+		running = false;
+		for (int i = 0; i < workers.length; i++) {
+			workers[i].selector.wakeup();
+		}
+	}
+
+	void disconnected() {
+		connections.decrementAndGet();
+	}
+
+	/**
+	 * The statistics, as name and value pairs.
+	 */
+	String[] stats() {
+		long now = System.currentTimeMillis();
+		return new String[] {
+				"uptime", Long.toString((now - started) / 1000),
+				"time", Long.toString(now / 1000),
+				"version", VERSION,
+				"threads", Integer.toString(workers.length),
+				"curr_connections", Integer.toString(connections.get()),
+				"total_connections", Long.toString(totalconnections.get()),
+				"cmd_get", Long.toString(cache.hits + cache.misses),
+				"cmd_set", Long.toString(sets.get()),
+				"get_hits", Long.toString(cache.hits),
+				"get_misses", Long.toString(cache.misses),
+				"curr_items", Integer.toString(cache.count()),
+				"total_items", Long.toString(cache.totalitems),
+				"bytes", Long.toString(cache.bytes()),
+				"limit_maxbytes", Long.toString(cache.limit()),
+				"evictions", Long.toString(cache.evictions),
+				"evicted_cost", Long.toString(cache.evictedcost),
+				"eviction_policy", policy };
+	}
+
+	void stats(ServerConnection c) {
+		String[] stats = stats();
+		for (int i = 0; i < stats.length; i += 2) {
+			c.putAscii("STAT " + stats[i] + " " + stats[i + 1] + "\r\n");
+		}
+		c.put(TextProtocol.END);
+	}
+
+	class Worker extends Thread {
+		int id;
+		Selector selector;
+		ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<SocketChannel>();
+		int next;
+
+		/**
+		 * The request of the datagram being handled, and the datagram
+		 * buffers.
+		 */
+		ServerConnection datagram;
+		ByteBuffer packet;
+		ByteBuffer reply;
+
+		Worker(int id) throws IOException {
+			super("memcached-" + address.getPort() + "-" + id);
+			this.id = id;
+			setDaemon(true);
+			selector = Selector.open();
+			if (id == 0 && udp != null) {
+				datagram = new ServerConnection(MemcachedServer.this, null);
+				packet = ByteBuffer.allocate(1 << 16);
+				reply = ByteBuffer.allocate(UDP_PAYLOAD);
+			}
+		}
+
+		public void run() {
+			try {
+				while (running) {
+					selector.select();
+					SocketChannel channel;
+					while ((channel = accepted.poll()) != null) {
+						try {
+							register(channel);
+						} catch (IOException e) {
+							channel.close();
+						}
+					}
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.attachment() == null) {
+							try {
+								if (key.isAcceptable()) {
+									accept();
+								} else {
+									receive();
+								}
+							} catch (IOException e) {
+								System.out.println("memcached server: " + e.getMessage());
+							}
+							continue;
+						}
+						ServerConnection c = (ServerConnection) key.attachment();
+						try {
+							if (key.isReadable()) {
+								c.readable();
+							} else if (key.isWritable()) {
+								c.flush();
+							}
+						} catch (IOException e) {
+							c.close();
+						}
+					}
+				}
+				selector.close();
+				if (id == 0) {
+					listener.close();
+					if (udp != null) {
+						udp.close();
+					}
+				}
+			} catch (IOException e) {
+				System.out.println("memcached server: " + e.getMessage());
+			}
+		}
+
+		void register(SocketChannel channel) throws IOException {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			ServerConnection c = new ServerConnection(MemcachedServer.this, channel);
+			c.key = channel.register(selector, SelectionKey.OP_READ, c);
+			connections.incrementAndGet();
+			totalconnections.incrementAndGet();
+		}
+
+		/**
+		 * Hand the new connections to the workers in turn.
+		 */
+		void accept() throws IOException {
+			SocketChannel channel;
+			while ((channel = listener.accept()) != null) {
+				Worker worker = workers[next];
+				next = (next + 1) % workers.length;
+				if (worker == this) {
+					register(channel);
+				} else {
+					worker.accepted.add(channel);
+					worker.selector.wakeup();
+				}
+			}
+		}
+
+		/**
+		 * Answer each datagram with the reply to its text requests, split
+		 * into datagrams that carry the request ID and their sequence
+		 * number and count.
+		 */
+		void receive() throws IOException {
+			SocketAddress from;
+			packet.clear();
+			while ((from = udp.receive(packet)) != null) {
+				packet.flip();
+				if (packet.remaining() > UDP_FRAME) {
+					int id = packet.getShort(0) & 0xffff;
+					datagram.start = 0;
+					datagram.end = 0;
+					datagram.outstart = 0;
+					datagram.outend = 0;
+					datagram.need(packet.remaining() - UDP_FRAME);
+					packet.position(UDP_FRAME);
+					datagram.end = packet.remaining();
+					packet.get(datagram.in, 0, datagram.end);
+					if (datagram.protocol == null) {
+						datagram.protocol = new TextProtocol(MemcachedServer.this);
+					}
+					datagram.handle();
+					int payload = UDP_PAYLOAD - UDP_FRAME;
+					int total = (datagram.outend + payload - 1) / payload;
+					for (int seq = 0; seq < total; seq++) {
+						int offset = seq * payload;
+						reply.clear();
+						reply.putShort((short) id);
+						reply.putShort((short) seq);
+						reply.putShort((short) total);
+						reply.putShort((short) 0);
+						reply.put(datagram.out, offset, Math.min(payload, datagram.outend - offset));
+						reply.flip();
+						udp.send(reply, from);
+					}
+				}
+				packet.clear();
+			}
+		}
+	}
+
+	/**
+	 * Start an embedded server for each loopback server of the ring, unless
+	 * already started.
+	 */
+	public static synchronized void startEmbedded() throws DataStoreException {
+		if (!embedded.isEmpty()) {
+			return;
+		}
+		Config config = Config.getConfig();
+		KetamaRing ring = KetamaRing.getRing();
+		long limit = config.memcached_embedded_memory * 1024L * 1024L;
+		for (int i = 0; i < ring.size(); i++) {
+			InetSocketAddress address = ring.address(i);
+			if (!address.getAddress().isLoopbackAddress()) {
+				continue;
+			}
+			int udpport = config.memcached_udp_port > 0 ? config.memcached_udp_port : address.getPort();
+			MemcachedServer server = new MemcachedServer(address, udpport, limit,
+					config.memcached_embedded_eviction, config.memcached_embedded_threads);
+			try {
+				server.start();
+			} catch (IOException e) {
+				throw new DataStoreException("Could not start a memcached server on " + ring.name(i), e);
+			}
+			embedded.add(server);
+		}
+		if (embedded.isEmpty()) {
+			throw new DataStoreException("No loopback memcached server to embed");
+		}
+	}
+
+	public static void usageMessage() {
+		System.out.println("Usage: java com.yahoo.ycsb.memcached.server.MemcachedServer [options]");
+		System.out.println("Options:");
+		System.out.println("  -p port: TCP port to listen on (default: 11211)");
+		System.out.println("  -U port: UDP port to listen on, 0 for none (default: 0)");
+		System.out.println("  -l address: address to listen on (default: 127.0.0.1)");
+		System.out.println("  -m megabytes: memory for items (default: 64)");
+		System.out.println("  -e policy: eviction policy, lru, lfu, gds, gdwheel or arc (default: lru)");
+		System.out.println("  -t threads: worker threads (default: 4)");
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = 11211;
+		int udpport = 0;
+		String host = "127.0.0.1";
+		int megabytes = 64;
+		String policy = "lru";
+		int threads = 4;
+		for (int i = 0; i < args.length; i++) {
+			if (i + 1 == args.length) {
+				usageMessage();
+				System.exit(0);
+			}
+			if (args[i].equals("-p")) {
+				port = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-U")) {
+				udpport = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-l")) {
+				host = args[++i];
+			} else if (args[i].equals("-m")) {
+				megabytes = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-e")) {
+				policy = args[++i];
+			} else if (args[i].equals("-t")) {
+				threads = Integer.parseInt(args[++i]);
+			} else {
+				usageMessage();
+				System.exit(0);
+			}
+		}
+		MemcachedServer server = new MemcachedServer(new InetSocketAddress(InetAddress.getByName(host), port), udpport,
+				megabytes * 1024L * 1024L, policy, threads);
+		server.start();
+		System.out.println("memcached " + VERSION + " listening on " + host + ":" + port + ", " + megabytes + "MB, "
+				+ policy + " eviction");
+		server.workers[0].join();
+	}
+}
@@ -0,0 +1,25 @@
+package com.yahoo.ycsb.memcached.server;
+
+import java.io.IOException;
+
+import com.yahoo.ycsb.memcached.cache.Cache;
+
+/**
+ * Handles the requests of one connection in one of memcached's protocols.
+ */
+abstract class Protocol {
+	MemcachedServer server;
+	Cache cache;
+
+	Protocol(MemcachedServer server) {
+		this.server = server;
+		cache = server.cache;
+	}
+
+	/**
+	 * Handle the request at c.start, consuming it and appending its reply to
+	 * c's output. Return false, consuming nothing, if the request is not
+	 * complete yet.
+	 */
+	abstract boolean process(ServerConnection c) throws IOException;
+}
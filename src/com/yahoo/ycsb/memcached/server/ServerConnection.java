@@ -0,0 +1,235 @@
+package com.yahoo.ycsb.memcached.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A client connection of the MemcachedServer, or the request of a UDP
+ * datagram if it has no channel. Requests are read into in and parsed in
+ * place between start and end; replies are appended to out and written
+ * when the requests read so far have been handled. The protocol is chosen
+ * by the first byte the client sends: the binary protocol's request magic,
+ * or text. Used by one worker thread.
+ */
+class ServerConnection {
+	static final int BUFFER_SIZE = 1 << 14;
+
+	/**
+	 * The most a request may need buffered, a value of the largest size with
+	 * room to spare; a client asking for more is disconnected.
+	 */
+	static final int MAX_REQUEST = 1 << 22;
+
+	MemcachedServer server;
+	SocketChannel channel;
+	SelectionKey key;
+	Protocol protocol;
+
+	byte[] in = new byte[BUFFER_SIZE];
+	ByteBuffer inbuf = ByteBuffer.wrap(in);
+	int start;
+	int end;
+
+	byte[] out = new byte[BUFFER_SIZE];
+	ByteBuffer outbuf = ByteBuffer.wrap(out);
+	int outstart;
+	int outend;
+
+	/**
+	 * Set to close the connection once the replies so far are written.
+	 */
+	boolean closing;
+
+	ServerConnection(MemcachedServer server, SocketChannel channel) {
+		this.server = server;
+		this.channel = channel;
+	}
+
+	/**
+	 * Read what the client sent, handle every complete request and write
+	 * the replies.
+	 */
+	void readable() throws IOException {
+		if (end == in.length) {
+			need(end - start + BUFFER_SIZE);
+		}
+		inbuf.limit(in.length);
+		inbuf.position(end);
+		int n = channel.read(inbuf);
+		if (n < 0) {
+			close();
+			return;
+		}
+		end += n;
+		handle();
+		flush();
+	}
+
+	/**
+	 * Handle the complete requests in in.
+	 */
+	void handle() throws IOException {
+		if (protocol == null && end > start) {
+			protocol = in[start] == BinaryProtocol.REQUEST_MAGIC ? new BinaryProtocol(server) : new TextProtocol(server);
+		}
+		while (start < end && !closing && protocol.process(this)) {
+		}
+		if (start == end) {
+			start = 0;
+			end = 0;
+		}
+	}
+
+	/**
+	 * Make room for length bytes of request from start.
+	 */
+	void need(int length) throws IOException {
+		if (length > MAX_REQUEST) {
+			throw new IOException("Request too long");
+		}
+		if (length > in.length) {
+			byte[] grown = new byte[Math.max(length, in.length * 2)];
+			System.arraycopy(in, start, grown, 0, end - start);
+			in = grown;
+			inbuf = ByteBuffer.wrap(in);
+		} else if (start + length > in.length) {
+			System.arraycopy(in, start, in, 0, end - start);
+		} else {
+			return;
+		}
+		end -= start;
+		start = 0;
+	}
+
+	/**
+	 * Write out, waiting for the channel to drain before reading again if
+	 * the client does not keep up.
+	 */
+	void flush() throws IOException {
+		if (outend > outstart) {
+			outbuf.limit(outend);
+			outbuf.position(outstart);
+			channel.write(outbuf);
+			outstart = outbuf.position();
+		}
+		if (outstart < outend) {
+			key.interestOps(SelectionKey.OP_WRITE);
+			return;
+		}
+		outstart = 0;
+		outend = 0;
+		if (closing) {
+			close();
+		} else {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	void close() {
+		server.disconnected();
+		key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+	void reserve(int length) {
+		if (outend + length > out.length) {
+			byte[] grown = new byte[Math.max(outend + length, out.length * 2)];
+			System.arraycopy(out, 0, grown, 0, outend);
+			out = grown;
+			outbuf = ByteBuffer.wrap(out);
+		}
+	}
+
+	void put(byte[] bytes) {
+		put(bytes, 0, bytes.length);
+	}
+
+	void put(byte[] bytes, int offset, int length) {
+		reserve(length);
+		System.arraycopy(bytes, offset, out, outend, length);
+		outend += length;
+	}
+
+	void put(byte b) {
+		reserve(1);
+		out[outend++] = b;
+	}
+
+	void putAscii(String s) {
+		int length = s.length();
+		reserve(length);
+		for (int i = 0; i < length; i++) {
+			out[outend++] = (byte) s.charAt(i);
+		}
+	}
+
+	void putDecimal(long n) {
+		if (n < 0) {
+			put((byte) '-');
+			n = -n;
+		}
+		reserve(20);
+		int digits = 1;
+		for (long rest = n / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		for (int i = digits - 1; i >= 0; i--) {
+			out[outend + i] = (byte) ('0' + n % 10);
+			n /= 10;
+		}
+		outend += digits;
+	}
+
+	void putShort(int n) {
+		reserve(2);
+		out[outend++] = (byte) (n >>> 8);
+		out[outend++] = (byte) n;
+	}
+
+	void putInt(int n) {
+		reserve(4);
+		out[outend++] = (byte) (n >>> 24);
+		out[outend++] = (byte) (n >>> 16);
+		out[outend++] = (byte) (n >>> 8);
+		out[outend++] = (byte) n;
+	}
+
+	void putLong(long n) {
+		putInt((int) (n >>> 32));
+		putInt((int) n);
+	}
+
+	int getShort(int index) {
+		return ((in[index] & 0xff) << 8) | (in[index + 1] & 0xff);
+	}
+
+	int getInt(int index) {
+		return (getShort(index) << 16) | getShort(index + 2);
+	}
+
+	long getLong(int index) {
+		return ((long) getInt(index) << 32) | (getInt(index + 4) & 0xffffffffL);
+	}
+
+	/**
+	 * The ASCII string of length request bytes at offset.
+	 */
+	String string(int offset, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) (in[offset + i] & 0xff);
+		}
+		return new String(chars);
+	}
+
+	byte[] bytes(int offset, int length) {
+		byte[] bytes = new byte[length];
+		System.arraycopy(in, offset, bytes, 0, length);
+		return bytes;
+	}
+}
@@ -0,0 +1,549 @@
+package com.yahoo.ycsb.memcached.server;
+
+import java.io.IOException;
+
+import com.yahoo.ycsb.memcached.cache.Cache;
+import com.yahoo.ycsb.memcached.cache.Item;
+
+/**
+ * memcached's text protocol: the storage commands, set_cost as a set with
+ * the cost after the byte count, get, gets, delete, incr, decr, touch,
+ * stats, flush_all, version, verbosity and quit, and the meta commands mg,
+ * ms, md and mn with the flags the meta binding uses. A command line is
+ * split into tokens in place; only keys and values are copied.
+ */
+class TextProtocol extends Protocol {
+	/**
+	 * The longest command line; a get of many keys may be long.
+	 */
+	static final int MAX_LINE = 1 << 16;
+
+	static final byte[] CRLF = "\r\n".getBytes();
+	static final byte[] VALUE = "VALUE ".getBytes();
+	static final byte[] END = "END\r\n".getBytes();
+	static final byte[] STORED = "STORED\r\n".getBytes();
+	static final byte[] NOT_STORED = "NOT_STORED\r\n".getBytes();
+	static final byte[] EXISTS = "EXISTS\r\n".getBytes();
+	static final byte[] NOT_FOUND = "NOT_FOUND\r\n".getBytes();
+	static final byte[] DELETED = "DELETED\r\n".getBytes();
+	static final byte[] TOUCHED = "TOUCHED\r\n".getBytes();
+	static final byte[] OK = "OK\r\n".getBytes();
+	static final byte[] ERROR = "ERROR\r\n".getBytes();
+	static final byte[] BAD_FORMAT = "CLIENT_ERROR bad command line format\r\n".getBytes();
+	static final byte[] BAD_CHUNK = "CLIENT_ERROR bad data chunk\r\n".getBytes();
+	static final byte[] NON_NUMERIC = "CLIENT_ERROR cannot increment or decrement non-numeric value\r\n".getBytes();
+	static final byte[] TOO_LARGE = "SERVER_ERROR object too large for cache\r\n".getBytes();
+	static final byte[] VA = "VA ".getBytes();
+	static final byte[] HD = "HD".getBytes();
+	static final byte[] NS = "NS".getBytes();
+	static final byte[] EX = "EX".getBytes();
+	static final byte[] NF = "NF".getBytes();
+	static final byte[] EN = "EN\r\n".getBytes();
+	static final byte[] MN = "MN\r\n".getBytes();
+
+	/**
+	 * Where each token of the current line starts and ends in c.in.
+	 */
+	int[] starts = new int[32];
+	int[] ends = new int[32];
+	int ntokens;
+
+	/**
+	 * The connection whose line was last tokenized.
+	 */
+	ServerConnection conn;
+
+	TextProtocol(MemcachedServer server) {
+		super(server);
+	}
+
+	@Override
+	boolean process(ServerConnection c) throws IOException {
+		int eol = -1;
+		for (int i = c.start; i < c.end; i++) {
+			if (c.in[i] == '\n') {
+				eol = i;
+				break;
+			}
+		}
+		if (eol < 0) {
+			if (c.end - c.start > MAX_LINE) {
+				throw new IOException("Command line too long");
+			}
+			c.need(c.end - c.start + 1);
+			return false;
+		}
+		tokenize(c, c.start, eol);
+		int next = eol + 1;
+		if (ntokens == 0) {
+			c.put(ERROR);
+		} else if (is(c, 0, "get") || is(c, 0, "gets")) {
+			get(c, ends[0] - starts[0] == 4);
+		} else if (is(c, 0, "set")) {
+			return store(c, Cache.SET, next);
+		} else if (is(c, 0, "add")) {
+			return store(c, Cache.ADD, next);
+		} else if (is(c, 0, "replace")) {
+			return store(c, Cache.REPLACE, next);
+		} else if (is(c, 0, "append")) {
+			return store(c, Cache.APPEND, next);
+		} else if (is(c, 0, "prepend")) {
+			return store(c, Cache.PREPEND, next);
+		} else if (is(c, 0, "cas")) {
+			return store(c, Cache.CAS, next);
+		} else if (is(c, 0, "mg")) {
+			metaGet(c);
+		} else if (is(c, 0, "ms")) {
+			return metaSet(c, next);
+		} else if (is(c, 0, "md")) {
+			metaDelete(c);
+		} else if (is(c, 0, "mn")) {
+			c.put(MN);
+		} else if (is(c, 0, "delete")) {
+			delete(c);
+		} else if (is(c, 0, "incr") || is(c, 0, "decr")) {
+			incr(c, is(c, 0, "decr"));
+		} else if (is(c, 0, "touch")) {
+			touch(c);
+		} else if (is(c, 0, "stats")) {
+			server.stats(c);
+		} else if (is(c, 0, "flush_all")) {
+			cache.flush();
+			if (!noreply()) {
+				c.put(OK);
+			}
+		} else if (is(c, 0, "version")) {
+			c.putAscii("VERSION " + MemcachedServer.VERSION + "\r\n");
+		} else if (is(c, 0, "verbosity")) {
+			if (!noreply()) {
+				c.put(OK);
+			}
+		} else if (is(c, 0, "quit")) {
+			c.closing = true;
+		} else {
+			c.put(ERROR);
+		}
+		c.start = next;
+		return true;
+	}
+
+	void tokenize(ServerConnection c, int from, int to) {
+		ntokens = 0;
+		int i = from;
+		while (i < to) {
+			while (i < to && (c.in[i] == ' ' || c.in[i] == '\r')) {
+				i++;
+			}
+			if (i == to) {
+				break;
+			}
+			if (ntokens == starts.length) {
+				int[] s = new int[starts.length * 2];
+				int[] e = new int[starts.length * 2];
+				System.arraycopy(starts, 0, s, 0, ntokens);
+				System.arraycopy(ends, 0, e, 0, ntokens);
+				starts = s;
+				ends = e;
+			}
+			starts[ntokens] = i;
+			while (i < to && c.in[i] != ' ' && c.in[i] != '\r') {
+				i++;
+			}
+			ends[ntokens++] = i;
+		}
+		conn = c;
+	}
+
+	boolean is(ServerConnection c, int t, String word) {
+		int length = ends[t] - starts[t];
+		if (length != word.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (c.in[starts[t] + i] != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	boolean noreply() {
+		return ntokens > 1 && is(conn, ntokens - 1, "noreply");
+	}
+
+	/**
+	 * The decimal number of token t, or Long.MIN_VALUE if it is not one.
+	 */
+	long number(int t) {
+		return number(starts[t], ends[t]);
+	}
+
+	long number(int from, int to) {
+		boolean negative = from < to && conn.in[from] == '-';
+		if (negative) {
+			from++;
+		}
+		if (from == to || to - from > 19) {
+			return Long.MIN_VALUE;
+		}
+		long n = 0;
+		for (int i = from; i < to; i++) {
+			int digit = conn.in[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return Long.MIN_VALUE;
+			}
+			n = n * 10 + digit;
+		}
+		return negative ? -n : n;
+	}
+
+	String key(int t) {
+		return conn.string(starts[t], ends[t] - starts[t]);
+	}
+
+	void get(ServerConnection c, boolean gets) {
+		for (int t = 1; t < ntokens; t++) {
+			Item item = cache.get(key(t));
+			if (item == null) {
+				continue;
+			}
+			cache.fetched(item);
+			c.put(VALUE);
+			c.put(c.in, starts[t], ends[t] - starts[t]);
+			c.put((byte) ' ');
+			c.putDecimal(item.flags & 0xffffffffL);
+			c.put((byte) ' ');
+			c.putDecimal(item.value.length);
+			if (gets) {
+				c.put((byte) ' ');
+				c.putDecimal(item.cas);
+			}
+			c.put(CRLF);
+			c.put(item.value);
+			c.put(CRLF);
+		}
+		c.put(END);
+	}
+
+	/**
+	 * <command> <key> <flags> <exptime> <bytes> [<cas unique>] [<cost>]
+	 * [noreply], then the data block. Return false until the data block is
+	 * in.
+	 */
+	boolean store(ServerConnection c, int mode, int data) throws IOException {
+		int required = mode == Cache.CAS ? 6 : 5;
+		boolean noreply = noreply();
+		int args = noreply ? ntokens - 1 : ntokens;
+		long length = ntokens >= 5 ? number(4) : Long.MIN_VALUE;
+		if (args < required || args > required + 1 || length < 0 || length > ServerConnection.MAX_REQUEST) {
+			c.put(BAD_FORMAT);
+			c.start = data;
+			return true;
+		}
+		if (c.end - data < length + 2) {
+			c.need(data - c.start + (int) length + 2);
+			return false;
+		}
+		int next = data + (int) length + 2;
+		if (c.in[next - 2] != '\r' || c.in[next - 1] != '\n') {
+			c.put(BAD_CHUNK);
+			c.start = next;
+			return true;
+		}
+		long flags = number(2);
+		long exptime = number(3);
+		long cas = mode == Cache.CAS ? number(5) : 0;
+		long cost = args > required ? number(required) : 1;
+		if (flags == Long.MIN_VALUE || exptime == Long.MIN_VALUE || cas == Long.MIN_VALUE || cost == Long.MIN_VALUE) {
+			c.put(BAD_FORMAT);
+			c.start = next;
+			return true;
+		}
+		Item item = new Item(key(1), c.bytes(data, (int) length), (int) flags, Cache.expiry(exptime), (int) cost);
+		int res = cache.store(mode, item, cas);
+		server.sets.incrementAndGet();
+		if (!noreply || res == Cache.TOO_LARGE) {
+			switch (res) {
+			case Cache.STORED:
+				c.put(STORED);
+				break;
+			case Cache.EXISTS:
+				c.put(EXISTS);
+				break;
+			case Cache.NOT_FOUND:
+				c.put(NOT_FOUND);
+				break;
+			case Cache.TOO_LARGE:
+				c.put(TOO_LARGE);
+				break;
+			default:
+				c.put(NOT_STORED);
+			}
+		}
+		c.start = next;
+		return true;
+	}
+
+	void delete(ServerConnection c) {
+		boolean noreply = noreply();
+		if (ntokens < 2) {
+			c.put(BAD_FORMAT);
+			return;
+		}
+		int res = cache.delete(key(1), 0);
+		if (!noreply) {
+			c.put(res == Cache.DELETED ? DELETED : NOT_FOUND);
+		}
+	}
+
+	void incr(ServerConnection c, boolean decr) {
+		boolean noreply = noreply();
+		long delta = ntokens >= 3 ? number(2) : Long.MIN_VALUE;
+		if (delta < 0) {
+			c.put("CLIENT_ERROR invalid numeric delta argument\r\n".getBytes());
+			return;
+		}
+		long res = cache.incr(key(1), delta, decr);
+		if (noreply) {
+			return;
+		}
+		if (res == -Cache.NOT_FOUND) {
+			c.put(NOT_FOUND);
+		} else if (res == -Cache.NON_NUMERIC) {
+			c.put(NON_NUMERIC);
+		} else {
+			c.putDecimal(res);
+			c.put(CRLF);
+		}
+	}
+
+	void touch(ServerConnection c) {
+		boolean noreply = noreply();
+		long exptime = ntokens >= 3 ? number(2) : Long.MIN_VALUE;
+		if (exptime == Long.MIN_VALUE) {
+			c.put(BAD_FORMAT);
+			return;
+		}
+		boolean touched = cache.touch(key(1), Cache.expiry(exptime));
+		if (!noreply) {
+			c.put(touched ? TOUCHED : NOT_FOUND);
+		}
+	}
+
+	/**
+	 * Whether token t is the single letter flag.
+	 */
+	boolean flag(int t, char flag) {
+		return ends[t] - starts[t] == 1 && conn.in[starts[t]] == flag;
+	}
+
+	/**
+	 * Append the k and O flags, which echo the key and opaque.
+	 */
+	void echo(ServerConnection c, int t) {
+		byte flag = c.in[starts[t]];
+		if (flag == 'O' || (flag == 'k' && ends[t] - starts[t] == 1)) {
+			c.put((byte) ' ');
+			if (flag == 'k') {
+				c.put((byte) 'k');
+				c.put(c.in, starts[1], ends[1] - starts[1]);
+			} else {
+				c.put(c.in, starts[t], ends[t] - starts[t]);
+			}
+		}
+	}
+
+	/**
+	 * mg <key> <flags>*: v returns the value, and c, f, s, t, l and h its
+	 * CAS, client flags, size, remaining TTL (-1 for none), seconds since
+	 * last access and whether it was read before. T<ttl> also touches it, and
+	 * q suppresses the EN of a miss.
+	 */
+	void metaGet(ServerConnection c) {
+		if (ntokens < 2) {
+			c.put(BAD_FORMAT);
+			return;
+		}
+		boolean value = false;
+		boolean quiet = false;
+		long touch = Long.MIN_VALUE;
+		for (int t = 2; t < ntokens; t++) {
+			if (flag(t, 'v')) {
+				value = true;
+			} else if (flag(t, 'q')) {
+				quiet = true;
+			} else if (c.in[starts[t]] == 'T') {
+				touch = number(starts[t] + 1, ends[t]);
+			}
+		}
+		Item item = cache.get(key(1));
+		if (item == null) {
+			if (!quiet) {
+				c.put(EN);
+			}
+			return;
+		}
+		if (touch != Long.MIN_VALUE) {
+			cache.touch(item.key, Cache.expiry(touch));
+		}
+		long now = Cache.now();
+		if (value) {
+			c.put(VA);
+			c.putDecimal(item.value.length);
+		} else {
+			c.put(HD);
+		}
+		for (int t = 2; t < ntokens; t++) {
+			if (ends[t] - starts[t] != 1) {
+				echo(c, t);
+				continue;
+			}
+			switch (c.in[starts[t]]) {
+			case 'c':
+				c.putAscii(" c");
+				c.putDecimal(item.cas);
+				break;
+			case 'f':
+				c.putAscii(" f");
+				c.putDecimal(item.flags & 0xffffffffL);
+				break;
+			case 's':
+				c.putAscii(" s");
+				c.putDecimal(item.value.length);
+				break;
+			case 't':
+				c.putAscii(" t");
+				c.putDecimal(item.exptime == 0 ? -1 : Math.max(0, item.exptime - now));
+				break;
+			case 'l':
+				c.putAscii(" l");
+				c.putDecimal(now - item.lastaccess);
+				break;
+			case 'h':
+				c.putAscii(item.fetched ? " h1" : " h0");
+				break;
+			default:
+				echo(c, t);
+			}
+		}
+		c.put(CRLF);
+		if (value) {
+			c.put(item.value);
+			c.put(CRLF);
+		}
+		cache.fetched(item);
+	}
+
+	/**
+	 * ms <key> <datalen> <flags>*, then the data block: T<ttl>, F<flags>,
+	 * C<cas> to compare, M<mode> (S, E, A, P or R), c to return the new CAS
+	 * and q to suppress HD.
+	 */
+	boolean metaSet(ServerConnection c, int data) throws IOException {
+		long length = ntokens >= 3 ? number(2) : Long.MIN_VALUE;
+		if (length < 0 || length > ServerConnection.MAX_REQUEST) {
+			c.put(BAD_FORMAT);
+			c.start = data;
+			return true;
+		}
+		if (c.end - data < length + 2) {
+			c.need(data - c.start + (int) length + 2);
+			return false;
+		}
+		int next = data + (int) length + 2;
+		if (c.in[next - 2] != '\r' || c.in[next - 1] != '\n') {
+			c.put(BAD_CHUNK);
+			c.start = next;
+			return true;
+		}
+		long exptime = 0;
+		long flags = 0;
+		long cas = 0;
+		int mode = Cache.SET;
+		boolean quiet = false;
+		for (int t = 3; t < ntokens; t++) {
+			byte flag = c.in[starts[t]];
+			if (flag == 'T') {
+				exptime = number(starts[t] + 1, ends[t]);
+			} else if (flag == 'F') {
+				flags = number(starts[t] + 1, ends[t]);
+			} else if (flag == 'C') {
+				cas = number(starts[t] + 1, ends[t]);
+				mode = Cache.CAS;
+			} else if (flag == 'q') {
+				quiet = true;
+			} else if (flag == 'M' && ends[t] - starts[t] == 2) {
+				switch (c.in[starts[t] + 1]) {
+				case 'E':
+				case 'e':
+					mode = Cache.ADD;
+					break;
+				case 'A':
+				case 'a':
+					mode = Cache.APPEND;
+					break;
+				case 'P':
+				case 'p':
+					mode = Cache.PREPEND;
+					break;
+				case 'R':
+				case 'r':
+					mode = Cache.REPLACE;
+					break;
+				}
+			}
+		}
+		if (exptime == Long.MIN_VALUE || flags == Long.MIN_VALUE || cas == Long.MIN_VALUE) {
+			c.put(BAD_FORMAT);
+			c.start = next;
+			return true;
+		}
+		Item item = new Item(key(1), c.bytes(data, (int) length), (int) flags, Cache.expiry(exptime), 1);
+		int res = cache.store(mode, item, cas);
+		server.sets.incrementAndGet();
+		if (res == Cache.TOO_LARGE) {
+			c.put(TOO_LARGE);
+		} else if (res != Cache.STORED || !quiet) {
+			c.put(res == Cache.STORED ? HD : res == Cache.EXISTS ? EX : res == Cache.NOT_FOUND ? NF : NS);
+			for (int t = 3; t < ntokens; t++) {
+				if (flag(t, 'c')) {
+					c.putAscii(" c");
+					c.putDecimal(item.cas);
+				} else {
+					echo(c, t);
+				}
+			}
+			c.put(CRLF);
+		}
+		c.start = next;
+		return true;
+	}
+
+	/**
+	 * md <key> <flags>*: C<cas> to compare and q to suppress HD.
+	 */
+	void metaDelete(ServerConnection c) {
+		if (ntokens < 2) {
+			c.put(BAD_FORMAT);
+			return;
+		}
+		long cas = 0;
+		boolean quiet = false;
+		for (int t = 2; t < ntokens; t++) {
+			if (c.in[starts[t]] == 'C') {
+				cas = number(starts[t] + 1, ends[t]);
+			} else if (flag(t, 'q')) {
+				quiet = true;
+			}
+		}
+		int res = cache.delete(key(1), cas);
+		if (res == Cache.DELETED && quiet) {
+			return;
+		}
+		c.put(res == Cache.DELETED ? HD : res == Cache.EXISTS ? EX : NF);
+		for (int t = 2; t < ntokens; t++) {
+			echo(c, t);
+		}
+		c.put(CRLF);
+	}
+}
@@ -18,4 +18,6 @@ public interface SlaveRMIInterface extends Remote {
 	public void shutdown() throws RemoteException;
 	
 	public int setProperties(Config c) throws RemoteException;
+	
+	public void changeWorkingSet(int workingset) throws RemoteException;
 }
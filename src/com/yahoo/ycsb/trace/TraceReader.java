@@ -0,0 +1,184 @@
+package com.yahoo.ycsb.trace;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.yahoo.ycsb.memcached.MemcachedOperation;
+
+/**
+ * Reads one shard of a binary trace file through a memory mapped buffer.
+ * 
+ * A trace file starts with a header (magic, version, record count) followed
+ * by fixed size records, so a shard is just a contiguous range of records and
+ * every thread can map its own range of the same file without copying it.
+ * Each record holds:
+ * <UL>
+ * <LI>timestamp: microseconds since the start of the trace (long)
+ * <LI>key: the key number (long)
+ * <LI>valuesize: the size of the value in bytes (int)
+ * <LI>cost: the cost of missing the key (int)
+ * <LI>op: the code of the MemcachedOperation (byte)
+ * </ul>
+ * 
+ * next() decodes the following record into this reader, so reading a trace
+ * allocates nothing once a chunk is mapped. A reader is not thread safe; give
+ * each thread its own.
+ */
+public class TraceReader {
+	public static final int MAGIC = 0x59435452;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_SIZE = 25;
+	
+	/**
+	 * The largest number of records mapped at once, so a chunk stays below
+	 * the 2GB limit of a MappedByteBuffer.
+	 */
+	static final long CHUNK_RECORDS = Integer.MAX_VALUE / RECORD_SIZE;
+
+	RandomAccessFile file;
+	FileChannel channel;
+	MappedByteBuffer buffer;
+	
+	long first;
+	long end;
+	long next;
+	long bufferstart;
+	long bufferend;
+	
+	long timestamp;
+	long key;
+	int valuesize;
+	int cost;
+	MemcachedOperation op;
+
+	/**
+	 * Open one shard of a trace. The records are split into shards contiguous
+	 * ranges of (nearly) equal size.
+	 * 
+	 * @param filename
+	 *            The trace file.
+	 * @param shard
+	 *            The shard to read, from 0 to shards-1.
+	 * @param shards
+	 *            The number of shards the trace is split into.
+	 */
+	public TraceReader(String filename, int shard, int shards) throws IOException {
+		file = new RandomAccessFile(filename, "r");
+		channel = file.getChannel();
+		long records = readHeader(channel);
+		first = records * shard / shards;
+		end = records * (shard + 1) / shards;
+		next = first;
+		bufferstart = first;
+		bufferend = first;
+		buffer = null;
+	}
+	
+	/**
+	 * Check the header of a trace file and return its number of records.
+	 */
+	public static long readHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0)
+				throw new IOException("Trace file is too short to hold a header");
+		}
+		header.flip();
+		if (header.getInt() != MAGIC)
+			throw new IOException("Not a trace file");
+		int version = header.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported trace file version " + version);
+		long records = header.getLong();
+		if (channel.size() < HEADER_SIZE + records * RECORD_SIZE)
+			throw new IOException("Trace file is truncated, expected " + records + " records");
+		return records;
+	}
+	
+	/**
+	 * Return the timestamp of the first record of a trace file of records
+	 * records, or 0 if it has none.
+	 */
+	public static long readFirstTimestamp(FileChannel channel, long records) throws IOException {
+		if (records == 0)
+			return 0;
+		ByteBuffer timestamp = ByteBuffer.allocate(8);
+		while (timestamp.hasRemaining()) {
+			if (channel.read(timestamp, HEADER_SIZE + timestamp.position()) < 0)
+				throw new IOException("Trace file is truncated, expected " + records + " records");
+		}
+		timestamp.flip();
+		return timestamp.getLong();
+	}
+	
+	/**
+	 * Map the next chunk of this shard.
+	 */
+	void map() throws IOException {
+		long count = Math.min(end - next, CHUNK_RECORDS);
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + next * RECORD_SIZE, count * RECORD_SIZE);
+		bufferstart = next;
+		bufferend = next + count;
+	}
+
+	/**
+	 * Decode the next record of this shard.
+	 * 
+	 * @return false if the shard has no more records.
+	 */
+	public boolean next() throws IOException {
+		if (next >= end)
+			return false;
+		if (next >= bufferend)
+			map();
+		int pos = (int) (next - bufferstart) * RECORD_SIZE;
+		timestamp = buffer.getLong(pos);
+		key = buffer.getLong(pos + 8);
+		valuesize = buffer.getInt(pos + 16);
+		cost = buffer.getInt(pos + 20);
+		op = MemcachedOperation.fromCode(buffer.get(pos + 24));
+		next++;
+		return true;
+	}
+	
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	public long getKey() {
+		return key;
+	}
+	
+	public int getValueSize() {
+		return valuesize;
+	}
+	
+	public int getCost() {
+		return cost;
+	}
+	
+	/**
+	 * Return the operation of the current record, or null if its code is not
+	 * known to this version.
+	 */
+	public MemcachedOperation getOperation() {
+		return op;
+	}
+	
+	/**
+	 * Return the number of records in this shard.
+	 */
+	public long getRecordCount() {
+		return end - first;
+	}
+	
+	public void close() throws IOException {
+		buffer = null;
+		channel.close();
+		file.close();
+	}
+}
@@ -0,0 +1,146 @@
+package com.yahoo.ycsb.trace;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.yahoo.ycsb.Utils;
+import com.yahoo.ycsb.memcached.MemcachedOperation;
+
+/**
+ * Writes a binary trace file in the format read by TraceReader.
+ * 
+ * Run as a program to convert a text trace, one request per line:
+ * <pre>
+ * timestamp op key valuesize cost
+ * </pre>
+ * where timestamp is in microseconds, op is the name of a MemcachedOperation
+ * and key is either a key number or a string, which is hashed to a key
+ * number. Lines starting with # are skipped.
+ */
+public class TraceWriter {
+	static final int BUFFER_SIZE = 64 * 1024;
+	
+	RandomAccessFile file;
+	FileChannel channel;
+	ByteBuffer buffer;
+	long records;
+
+	public TraceWriter(String filename) throws IOException {
+		file = new RandomAccessFile(filename, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE - BUFFER_SIZE % TraceReader.RECORD_SIZE);
+		records = 0;
+		writeHeader();
+	}
+	
+	void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(TraceReader.HEADER_SIZE);
+		header.putInt(TraceReader.MAGIC);
+		header.putInt(TraceReader.VERSION);
+		header.putLong(records);
+		header.flip();
+		long pos = 0;
+		while (header.hasRemaining()) {
+			pos += channel.write(header, pos);
+		}
+	}
+	
+	void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, channel.size());
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Append one record to the trace.
+	 */
+	public void write(long timestamp, MemcachedOperation op, long key, int valuesize, int cost) throws IOException {
+		if (buffer.remaining() < TraceReader.RECORD_SIZE)
+			flush();
+		buffer.putLong(timestamp);
+		buffer.putLong(key);
+		buffer.putInt(valuesize);
+		buffer.putInt(cost);
+		buffer.put(op.getCode());
+		records++;
+	}
+	
+	public long getRecordCount() {
+		return records;
+	}
+
+	/**
+	 * Flush the remaining records and write the record count to the header.
+	 */
+	public void close() throws IOException {
+		flush();
+		writeHeader();
+		channel.close();
+		file.close();
+	}
+	
+	/**
+	 * Hash a string key to a key number.
+	 */
+	static long hashKey(String key) {
+		long hashval = Utils.FNV_offset_basis_64;
+		for (int i = 0; i < key.length(); i++) {
+			hashval = hashval ^ key.charAt(i);
+			hashval = hashval * Utils.FNV_prime_64;
+		}
+		return Math.abs(hashval);
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Usage: java com.yahoo.ycsb.trace.TraceWriter texttrace binarytrace");
+			System.exit(0);
+		}
+		
+		int lineno = 0;
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(args[0]));
+			TraceWriter out = new TraceWriter(args[1]);
+			String line;
+			while ((line = in.readLine()) != null) {
+				lineno++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				String[] fields = line.split("\\s+");
+				if (fields.length != 5) {
+					System.out.println("Skipping malformed line " + lineno + ": " + line);
+					continue;
+				}
+				MemcachedOperation op = MemcachedOperation.fromName(fields[1]);
+				if (op == null) {
+					System.out.println("Skipping unknown operation on line " + lineno + ": " + fields[1]);
+					continue;
+				}
+				long key;
+				try {
+					key = Long.parseLong(fields[2]);
+				} catch (NumberFormatException e) {
+					key = hashKey(fields[2]);
+				}
+				out.write(Long.parseLong(fields[0]), op, key, Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+			}
+			in.close();
+			out.close();
+			System.out.println("Wrote " + out.getRecordCount() + " records to " + args[1]);
+		} catch (NumberFormatException e) {
+			System.out.println("Error: line " + lineno + " has a field of the wrong type");
+			System.exit(0);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			System.exit(0);
+		}
+	}
+}
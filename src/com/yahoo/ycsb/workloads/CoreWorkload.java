@@ -7,10 +7,10 @@ import com.yahoo.ycsb.ReturnMsg;
 public abstract class CoreWorkload extends Workload{
 
 	@Override
-	public abstract ReturnMsg doInsert(DataStore db, int load);
+	public abstract ReturnMsg doInsert(DataStore db, Object threadstate, int load);
 
 	@Override
-	public abstract ReturnMsg doTransaction(DataStore db, int num_set);
+	public abstract ReturnMsg doTransaction(DataStore db, Object threadstate, int num_set);
 	
 	
 
@@ -24,6 +24,7 @@ import com.yahoo.ycsb.generator.CounterGenerator;
 import com.yahoo.ycsb.generator.DiscreteGenerator;
 import com.yahoo.ycsb.generator.Generator;
 import com.yahoo.ycsb.generator.IntegerGenerator;
+import com.yahoo.ycsb.generator.LiveKeyGenerator;
 import com.yahoo.ycsb.generator.ScrambledZipfianGenerator;
 import com.yahoo.ycsb.generator.SkewedLatestGenerator;
 import com.yahoo.ycsb.generator.UniformIntegerGenerator;
@@ -85,6 +86,18 @@ public class DBCoreWorkload extends Workload {
 
 	boolean orderedinserts;
 
+	/**
+	 * The transaction operations, chosen through operationchooser.
+	 */
+	enum Operation {
+		READ, UPDATE, INSERT, SCAN, READMODIFYWRITE
+	}
+
+	/**
+	 * The operation for each index of operationchooser.
+	 */
+	Operation[] operations;
+
 	/**
 	 * Initialize the scenario. Called once, in the main client thread, before
 	 * any operations are started.
@@ -123,6 +136,14 @@ public class DBCoreWorkload extends Workload {
 			operationchooser.addValue(Config.getConfig().read_write_modify_proportion, "READMODIFYWRITE");
 		}
 
+		operations = new Operation[operationchooser.size()];
+		for (int i = 0; i < operations.length; i++) {
+			operations[i] = Operation.valueOf(operationchooser.getValue(i));
+		}
+		if (operations.length == 0 && Config.getConfig().do_transactions) {
+			throw new WorkloadException("No operation has a positive proportion");
+		}
+
 		transactioninsertkeysequence = new CounterGenerator(recordcount);
 		if (Config.getConfig().request_distribution.compareTo("uniform") == 0) {
 			keychooser = new UniformIntegerGenerator(0, recordcount - 1);
@@ -136,8 +157,8 @@ public class DBCoreWorkload extends Workload {
 			// of the test. that is, we'll predict the number of inserts, and
 			// tell the scrambled zipfian generator the number of existing keys
 			// plus the number of predicted keys as the total keyspace. then, if
-			// the generator picks a key that hasn't been inserted yet, will
-			// just ignore it and pick another key. this way, the size of the
+			// the generator picks a key that hasn't been inserted yet, the
+			// LiveKeyGenerator folds it onto an existing key. this way, the size of the
 			// keyspace doesn't change from the perspective of the scrambled
 			// zipfian generator
 
@@ -152,11 +173,14 @@ public class DBCoreWorkload extends Workload {
 		} else if (Config.getConfig().request_distribution.compareTo("latest") == 0) {
 			keychooser = new SkewedLatestGenerator(transactioninsertkeysequence);
 		}  else if (Config.getConfig().request_distribution.compareTo("churn") == 0){
-			keychooser = new ChurnGenerator(Config.getConfig().working_set, Config.getConfig().churn_delta, recordcount);
+			keychooser = new ChurnGenerator(Config.getConfig().working_set, Config.getConfig().churn_delta, recordcount,
+					Config.getConfig().churn_rate);
 		} else {
 			throw new WorkloadException("Unknown distribution \"" + Config.getConfig().request_distribution + "\"");
 		}
 
+		keychooser = new LiveKeyGenerator(keychooser, transactioninsertkeysequence);
+
 		fieldchooser = new UniformIntegerGenerator(0, Config.getConfig().field_count - 1);
 
 		if (Config.getConfig().scan_length_distribution.compareTo("uniform") == 0) {
@@ -169,6 +193,25 @@ public class DBCoreWorkload extends Workload {
 		}
 	}
 
+	/**
+	 * Resize the working set of the churn distribution. Has no effect for the
+	 * other request distributions.
+	 */
+	public void changeWorkingSet(int workingset) {
+		IntegerGenerator distribution = ((LiveKeyGenerator) keychooser).getGenerator();
+		if (distribution instanceof ChurnGenerator) {
+			((ChurnGenerator) distribution).resizeWorkingSet(workingset);
+			Config.getConfig().working_set = workingset;
+		}
+	}
+
+	/**
+	 * The thread state is the thread's reusable ReturnMsg.
+	 */
+	public Object initThread(int mythreadid, int threadcount) throws WorkloadException {
+		return new ReturnMsg();
+	}
+
 	/**
 	 * Do one insert operation. Because it will be called concurrently from
 	 * multiple client threads, this function must be thread safe. However,
@@ -176,7 +219,7 @@ public class DBCoreWorkload extends Workload {
 	 * it will be difficult to reach the target throughput. Ideally, this
 	 * function would have no side effects other than DB operations.
 	 */
-	public ReturnMsg doInsert(DataStore db, int load) {
+	public ReturnMsg doInsert(DataStore db, Object threadstate, int load) {
 		int keynum = keysequence.nextInt();
 		load = load+1;
 		if (!orderedinserts) {
@@ -189,10 +232,8 @@ public class DBCoreWorkload extends Workload {
 			String data = Utils.ASCIIString(Config.getConfig().field_length);
 			values.put(fieldkey, data);
 		}
-		if (((DB)db).insert(Config.getConfig().table_name, dbkey, values) == 0)
-			return new ReturnMsg(true, null, null, null, false);
-		else
-			return new ReturnMsg(false, null, null, null, false);
+		int result = ((DB)db).insert(Config.getConfig().table_name, dbkey, values);
+		return ((ReturnMsg) threadstate).set(result == 0, null, null, 0, false);
 	}
 
 	/**
@@ -202,30 +243,32 @@ public class DBCoreWorkload extends Workload {
 	 * it will be difficult to reach the target throughput. Ideally, this
 	 * function would have no side effects other than DB operations.
 	 */
-	public ReturnMsg doTransaction(DataStore db, int num_set) {
-		String op = operationchooser.nextString();
-
-		if (op.compareTo("READ") == 0) {
+	public ReturnMsg doTransaction(DataStore db, Object threadstate, int num_set) {
+		switch (operations[operationchooser.nextIndex()]) {
+		case READ:
 			doTransactionRead((DB)db);
-		} else if (op.compareTo("UPDATE") == 0) {
+			break;
+		case UPDATE:
 			doTransactionUpdate((DB)db);
-		} else if (op.compareTo("INSERT") == 0) {
+			break;
+		case INSERT:
 			doTransactionInsert((DB)db);
-		} else if (op.compareTo("SCAN") == 0) {
+			break;
+		case SCAN:
 			doTransactionScan((DB)db);
-		} else {
+			break;
+		default:
 			doTransactionReadModifyWrite((DB)db);
+			break;
 		}
 
-		return new ReturnMsg(true, null, null, null, false);
+		return ((ReturnMsg) threadstate).set(true, null, null, 0, false);
 	}
 
 	public void doTransactionRead(DB db) {
 		// choose a random key
 		int keynum;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
+		keynum = keychooser.nextInt();
 
 		if (!orderedinserts) {
 			keynum = Utils.hash(keynum);
@@ -248,9 +291,7 @@ public class DBCoreWorkload extends Workload {
 	public void doTransactionReadModifyWrite(DB db) {
 		// choose a random key
 		int keynum;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
+		keynum = keychooser.nextInt();
 
 		if (!orderedinserts) {
 			keynum = Utils.hash(keynum);
@@ -300,9 +341,7 @@ public class DBCoreWorkload extends Workload {
 	public void doTransactionScan(DB db) {
 		// choose a random key
 		int keynum;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
+		keynum = keychooser.nextInt();
 
 		if (!orderedinserts) {
 			keynum = Utils.hash(keynum);
@@ -329,9 +368,7 @@ public class DBCoreWorkload extends Workload {
 	public void doTransactionUpdate(DB db) {
 		// choose a random key
 		int keynum;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
+		keynum = keychooser.nextInt();
 
 		if (!orderedinserts) {
 			keynum = Utils.hash(keynum);
@@ -0,0 +1,49 @@
+package com.yahoo.ycsb.workloads;
+
+/**
+ * When each key was last set to expire, so a get miss can be told apart as
+ * an expired-miss (the key's TTL has passed) or an evicted-miss (the server
+ * dropped it early). One int per key number: the second, counted from the
+ * creation of the table, from which the key is expired, or 0 if it never
+ * expires. Key numbers past the end of the table share slots with lower
+ * ones. Threads update slots without locking; a race on a key only blurs
+ * the classification of its next miss.
+ */
+class ExpiryTable {
+	int[] expiries;
+	long epoch;
+
+	/**
+	 * @param keys
+	 *            The number of key numbers to keep apart.
+	 */
+	ExpiryTable(int keys) {
+		expiries = new int[Math.max(keys, 1)];
+		epoch = System.nanoTime();
+	}
+
+	/**
+	 * Record that a key was just stored with the given expiration time, in
+	 * seconds; 0 never expires.
+	 */
+	void set(int keynum, int exptime) {
+		int slot = (keynum & Integer.MAX_VALUE) % expiries.length;
+		expiries[slot] = exptime <= 0 ? 0 : now() + exptime;
+	}
+
+	/**
+	 * Whether the key's last recorded expiration time has passed.
+	 */
+	boolean expired(int keynum) {
+		int due = expiries[(keynum & Integer.MAX_VALUE) % expiries.length];
+		return due != 0 && now() >= due;
+	}
+
+	/**
+	 * Seconds since the table was created, starting at 1 so 0 is free to
+	 * mean never.
+	 */
+	int now() {
+		return (int) ((System.nanoTime() - epoch) / 1000000000L) + 1;
+	}
+}
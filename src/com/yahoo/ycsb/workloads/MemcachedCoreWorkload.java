@@ -17,17 +17,36 @@
 
 package com.yahoo.ycsb.workloads;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
 import com.yahoo.ycsb.*;
+import com.yahoo.ycsb.generator.BufferedIntegerGenerator;
 import com.yahoo.ycsb.generator.ChurnGenerator;
 import com.yahoo.ycsb.generator.CounterGenerator;
 import com.yahoo.ycsb.generator.DiscreteGenerator;
 import com.yahoo.ycsb.generator.Generator;
+import com.yahoo.ycsb.generator.HistogramGenerator;
 import com.yahoo.ycsb.generator.IntegerGenerator;
+import com.yahoo.ycsb.generator.LiveKeyGenerator;
+import com.yahoo.ycsb.generator.LogNormalGenerator;
 import com.yahoo.ycsb.generator.ScrambledZipfianGenerator;
 import com.yahoo.ycsb.generator.SkewedLatestGenerator;
 import com.yahoo.ycsb.generator.UniformIntegerGenerator;
 import com.yahoo.ycsb.generator.ZipfianGenerator;
+import com.yahoo.ycsb.measurements.Measurements;
+import com.yahoo.ycsb.memcached.CostModel;
+import com.yahoo.ycsb.memcached.KeyEncoder;
 import com.yahoo.ycsb.memcached.Memcached;
+import com.yahoo.ycsb.memcached.MemcachedOperation;
+import com.yahoo.ycsb.memcached.MetaResult;
+import com.yahoo.ycsb.memcached.ValuePool;
+import com.yahoo.ycsb.memcached.ValueVerifier;
+import com.yahoo.ycsb.trace.TraceReader;
+import com.yahoo.ycsb.trace.TraceWriter;
 
 /**
  * The core benchmark scenario. Represents a set of clients doing simple CRUD
@@ -78,15 +97,146 @@ public class MemcachedCoreWorkload extends Workload {
 
 	IntegerGenerator scanlength;
 	
-	DiscreteGenerator costchooser;
+	/**
+	 * Gives every key its cost.
+	 */
+	CostModel costmodel;
+	
+	/**
+	 * The operation for each index of operationchooser.
+	 */
+	MemcachedOperation[] operations;
+	
+	/**
+	 * The cost bounds and value length of each cost class, for choosing the
+	 * value length from the cost when valuesizedistribution is costclass.
+	 */
+	int[] costmins;
 	
-	UniformIntegerGenerator highcostchooser;
+	int[] costmaxs;
 	
-	UniformIntegerGenerator midcostchooser;
+	int[] costvaluelengths;
 	
-	UniformIntegerGenerator lowcostchooser;
+	/**
+	 * The sorted costs of a sample of keys, for the quantile of a cost. Null
+	 * if valuesizecostcorrelation is 0.
+	 */
+	int[] costsamples;
+	
+	/**
+	 * Quantiles of the value size distribution, from which each key's value
+	 * size is picked. Null if valuesizedistribution is costclass, in which case
+	 * each cost class has a fixed value length.
+	 */
+	int[] valuesizequantiles;
+	
+	/**
+	 * Whether value lengths are chosen before costs, and passed to the cost
+	 * model, or from the costs.
+	 */
+	boolean lengthfirst;
+	
+	/**
+	 * The number of keys in each multi-get.
+	 */
+	IntegerGenerator batchsizechooser;
+
+	/**
+	 * Chooses the counter that INCR, DECR and DELETE operate on.
+	 */
+	IntegerGenerator counterchooser;
+	
+	/**
+	 * Draws the TTL of a store with ttldistribution constant or uniform.
+	 */
+	IntegerGenerator ttlchooser;
+	
+	/**
+	 * The TTL of each cost class with ttldistribution costclass.
+	 */
+	int[] costttls;
+	
+	/**
+	 * When each key expires, to classify get misses. Null if nothing is
+	 * stored with a TTL.
+	 */
+	ExpiryTable expiries;
 
 	boolean orderedinserts;
+	
+	/**
+	 * Replays the pre-materialized operation stream, if there is one.
+	 */
+	MemcachedTraceWorkload opstream;
+	
+	ValuePool values;
+	
+	/**
+	 * Checks the values read by GET in valueverify mode, otherwise null.
+	 */
+	ValueVerifier verifier;
+	
+	Measurements _measurements = Measurements.getMeasurements();
+	
+	/**
+	 * Per-thread state.
+	 */
+	static class ThreadState {
+		IntegerGenerator keychooser;
+		KeyEncoder keyencoder;
+		KeyEncoder counterencoder;
+		ReturnMsg msg;
+		
+		/**
+		 * Multi-get keys, hits and miss-fills, sized for the largest batch.
+		 */
+		int[] batchkeynums;
+		String[] batchkeys;
+		boolean[] batchhits;
+		String[] fillkeys;
+		Object[] fillvalues;
+		int[] fillcosts;
+		int[] fillexptimes;
+		
+		/**
+		 * Get-miss fills waiting out their simulated backend fetch, when
+		 * misspenalty is set.
+		 */
+		PendingFills fills;
+		
+		/**
+		 * What the last get learned about its item, when metaget is set.
+		 */
+		MetaResult meta;
+		
+		/**
+		 * The thread's replay state when there is an operation stream.
+		 */
+		Object replay;
+		
+		ThreadState(IntegerGenerator keychooser, KeyEncoder keyencoder) {
+			this.keychooser = keychooser;
+			this.keyencoder = keyencoder;
+			counterencoder = new KeyEncoder(Config.getConfig().counter_prefix);
+			msg = new ReturnMsg();
+			
+			int batchmax = Config.getConfig().multiget_batch_max;
+			batchkeynums = new int[batchmax];
+			batchkeys = new String[batchmax];
+			batchhits = new boolean[batchmax];
+			fillkeys = new String[batchmax];
+			fillvalues = new Object[batchmax];
+			fillcosts = new int[batchmax];
+			fillexptimes = new int[batchmax];
+			
+			if (Config.getConfig().miss_penalty > 0) {
+				fills = new PendingFills();
+			}
+			if (Config.getConfig().meta_get) {
+				meta = new MetaResult();
+			}
+		}
+	}
 
 	/**
 	 * Initialize the scenario. Called once, in the main client thread, before
@@ -104,13 +254,6 @@ public class MemcachedCoreWorkload extends Workload {
 
 		keysequence = new CounterGenerator(insertstart);
 		operationchooser = new DiscreteGenerator();
-		costchooser = new DiscreteGenerator();
-		highcostchooser = new UniformIntegerGenerator(Config.getConfig().high_cost_min,
-							Config.getConfig().high_cost_max);
-		midcostchooser = new UniformIntegerGenerator(Config.getConfig().mid_cost_min,
-							Config.getConfig().mid_cost_max);
-		lowcostchooser = new UniformIntegerGenerator(Config.getConfig().low_cost_min,
-							Config.getConfig().low_cost_max);
 		
 		if (Config.getConfig().memadd_proportion > 0) {
 			operationchooser.addValue(Config.getConfig().memadd_proportion, "ADD");
@@ -136,6 +279,9 @@ public class MemcachedCoreWorkload extends Workload {
 		if (Config.getConfig().memincr_proportion > 0) {
 			operationchooser.addValue(Config.getConfig().memincr_proportion, "INCR");
 		}
+		if (Config.getConfig().memmultiget_proportion > 0) {
+			operationchooser.addValue(Config.getConfig().memmultiget_proportion, "MULTIGET");
+		}
 		if (Config.getConfig().memprepend_proportion > 0) {
 			operationchooser.addValue(Config.getConfig().memprepend_proportion, "PREPEND");
 		}
@@ -149,19 +295,116 @@ public class MemcachedCoreWorkload extends Workload {
 			operationchooser.addValue(Config.getConfig().memupdate_proportion, "UPDATE");
 		}
 		
-		if (Config.getConfig().high_cost_prob > 0) {
-			costchooser.addValue(Config.getConfig().high_cost_prob, "HIGH");
+		operations = new MemcachedOperation[operationchooser.size()];
+		for (int i = 0; i < operations.length; i++) {
+			operations[i] = MemcachedOperation.fromName(operationchooser.getValue(i));
 		}
-		if (Config.getConfig().mid_cost_prob > 0) {
-			costchooser.addValue(Config.getConfig().mid_cost_prob, "MID");
+		if (operations.length == 0 && Config.getConfig().do_transactions) {
+			throw new WorkloadException("No memcached operation has a positive proportion");
 		}
-		if (Config.getConfig().low_cost_prob > 0) {
-			costchooser.addValue(Config.getConfig().low_cost_prob, "LOW");
+		
+		costmins = new int[] { Config.getConfig().high_cost_min, Config.getConfig().mid_cost_min,
+				Config.getConfig().low_cost_min };
+		costmaxs = new int[] { Config.getConfig().high_cost_max, Config.getConfig().mid_cost_max,
+				Config.getConfig().low_cost_max };
+		costvaluelengths = new int[] { Config.getConfig().high_value_length, Config.getConfig().mid_value_length,
+				Config.getConfig().low_value_length };
+		costmodel = CostModel.newCostModel(Config.getConfig().cost_model);
+		initValueSizes();
+		
+		int batchmin = Config.getConfig().multiget_batch_min;
+		int batchmax = Config.getConfig().multiget_batch_max;
+		if (batchmin < 1 || batchmax < batchmin) {
+			throw new WorkloadException("Multi-get batch sizes must satisfy 1 <= " + Config.MULTIGET_BATCH_MIN_PROPERTY
+					+ " <= " + Config.MULTIGET_BATCH_MAX_PROPERTY);
+		}
+		if (Config.getConfig().multiget_batch_distribution.compareTo("uniform") == 0) {
+			batchsizechooser = new UniformIntegerGenerator(batchmin, batchmax);
+		} else if (Config.getConfig().multiget_batch_distribution.compareTo("zipfian") == 0) {
+			batchsizechooser = new ZipfianGenerator(batchmin, batchmax);
+		} else if (Config.getConfig().multiget_batch_distribution.compareTo("constant") == 0) {
+			batchsizechooser = new UniformIntegerGenerator(batchmax, batchmax);
+		} else {
+			throw new WorkloadException("Distribution \"" + Config.getConfig().multiget_batch_distribution
+					+ "\" not allowed for multi-get batch size");
 		}
 		
+		if (valuesizequantiles == null) {
+			values = new ValuePool(Config.getConfig().value_pool_size, Config.getConfig().value_verify);
+		} else {
+			values = new ValuePool(Config.getConfig().value_pool_size, Config.getConfig().value_verify,
+					ValuePool.SPREAD_MAX_BYTES);
+		}
+		verifier = Config.getConfig().value_verify ? values : null;
+
 		transactioninsertkeysequence = new CounterGenerator(recordcount);
+		keychooser = new LiveKeyGenerator(newKeyChooser(transactioninsertkeysequence), transactioninsertkeysequence);
+
+		fieldchooser = new UniformIntegerGenerator(0, Config.getConfig().field_count - 1);
+
+		if (Config.getConfig().scan_length_distribution.compareTo("uniform") == 0) {
+			scanlength = new UniformIntegerGenerator(1, Config.getConfig().max_scan_length);
+		} else if (Config.getConfig().scan_length_distribution.compareTo("zipfian") == 0) {
+			scanlength = new ZipfianGenerator(1, Config.getConfig().max_scan_length);
+		} else {
+			throw new WorkloadException("Distribution \"" + Config.getConfig().scan_length_distribution + "\" not allowed for scan length");
+		}
+		
+		int countercount = Config.getConfig().counter_count;
+		if (countercount < 1) {
+			throw new WorkloadException("Property \"" + Config.COUNTER_COUNT_PROPERTY + "\" must be positive");
+		}
+		if (Config.getConfig().counter_distribution.compareTo("uniform") == 0) {
+			counterchooser = new UniformIntegerGenerator(0, countercount - 1);
+		} else if (Config.getConfig().counter_distribution.compareTo("zipfian") == 0) {
+			double constant = Config.getConfig().counter_zipfian_constant;
+			if (constant <= 0 || constant >= 1) {
+				throw new WorkloadException("Property \"" + Config.COUNTER_ZIPFIAN_CONSTANT_PROPERTY
+						+ "\" must be between 0 and 1");
+			}
+			counterchooser = new ZipfianGenerator(0, countercount - 1, constant);
+		} else {
+			throw new WorkloadException("Distribution \"" + Config.getConfig().counter_distribution
+					+ "\" not allowed for counters");
+		}
+		
+		initTtls();
+		
+		if (Config.getConfig().op_stream_file != null && Config.getConfig().do_transactions) {
+			if (Config.getConfig().memmultiget_proportion > 0) {
+				throw new WorkloadException("MULTIGET can not be written to an operation stream");
+			}
+			if (Config.getConfig().memincr_proportion > 0 || Config.getConfig().memdecr_proportion > 0
+					|| Config.getConfig().memdelete_proportion > 0) {
+				// the stream records key numbers only, which replay as data keys
+				throw new WorkloadException("INCR, DECR and DELETE of counters can not be written to an operation stream");
+			}
+			if (expiries != null || Config.getConfig().miss_penalty > 0 || Config.getConfig().meta_get) {
+				// the replay stores without TTLs, refills at once and uses plain gets
+				throw new WorkloadException("Properties \"" + Config.TTL_DISTRIBUTION_PROPERTY + "\", \""
+						+ Config.MISS_PENALTY_PROPERTY + "\" and \"" + Config.META_GET_PROPERTY
+						+ "\" are not supported with an operation stream");
+			}
+			String filename = Config.getConfig().op_stream_file;
+			int count = Config.getConfig().operation_count - recordcount;
+			if (!Config.getConfig().op_stream_reuse || countOperations(filename) < count) {
+				materializeOperations(filename, count);
+			}
+			opstream = new MemcachedTraceWorkload(filename);
+		}
+	}
+	
+	/**
+	 * Create the generator that chooses which existing key a transaction
+	 * operates on.
+	 * 
+	 * @param insertkeysequence
+	 *            The sequence of keys inserted during the transaction phase.
+	 */
+	IntegerGenerator newKeyChooser(CounterGenerator insertkeysequence) throws WorkloadException {
+		int recordcount = Config.getConfig().record_count;
 		if (Config.getConfig().request_distribution.compareTo("uniform") == 0) {
-			keychooser = new UniformIntegerGenerator(0, recordcount - 1);
+			return new UniformIntegerGenerator(0, recordcount - 1);
 		} else if (Config.getConfig().request_distribution.compareTo("zipfian") == 0) {
 			// it does this by generating a random "next key" in part by taking
 			// the modulus over the number of keys
@@ -172,30 +415,332 @@ public class MemcachedCoreWorkload extends Workload {
 			// of the test. that is, we'll predict the number of inserts, and
 			// tell the scrambled zipfian generator the number of existing keys
 			// plus the number of predicted keys as the total keyspace. then, if
-			// the generator picks a key that hasn't been inserted yet, will
-			// just ignore it and pick another key. this way, the size of the
+			// the generator picks a key that hasn't been inserted yet, the
+			// LiveKeyGenerator folds it onto an existing key. this way, the size of the
 			// keyspace doesn't change from the perspective of the scrambled
 			// zipfian generator
 
 			int opcount = Config.getConfig().operation_count;
 			int expectednewkeys = (int) (((double) opcount) * Config.getConfig().memset_proportion * 2.0); // 2 is fudge factor
-			keychooser = new ScrambledZipfianGenerator(recordcount + expectednewkeys);
+			return new ScrambledZipfianGenerator(recordcount + expectednewkeys);
 		} else if (Config.getConfig().request_distribution.compareTo("latest") == 0) {
-			keychooser = new SkewedLatestGenerator(transactioninsertkeysequence);
+			return new SkewedLatestGenerator(insertkeysequence);
 		} else if (Config.getConfig().request_distribution.compareTo("churn") == 0){
-			keychooser = new ChurnGenerator(Config.getConfig().working_set, Config.getConfig().churn_delta, recordcount);
+			return new ChurnGenerator(Config.getConfig().working_set, Config.getConfig().churn_delta, recordcount,
+					Config.getConfig().churn_rate);
 		} else {
 			throw new WorkloadException("Unknown distribution \"" + Config.getConfig().request_distribution + "\"");
 		}
+	}
 
-		fieldchooser = new UniformIntegerGenerator(0, Config.getConfig().field_count - 1);
-
-		if (Config.getConfig().scan_length_distribution.compareTo("uniform") == 0) {
-			scanlength = new UniformIntegerGenerator(1, Config.getConfig().max_scan_length);
-		} else if (Config.getConfig().scan_length_distribution.compareTo("zipfian") == 0) {
-			scanlength = new ZipfianGenerator(1, Config.getConfig().max_scan_length);
+	/**
+	 * Return the number of operations in an existing operation stream, or -1
+	 * if there is no usable one.
+	 */
+	long countOperations(String filename) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(filename, "r");
+			try {
+				return TraceReader.readHeader(file.getChannel());
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Draw the whole transaction phase up front and write it to an operation
+	 * stream, so the client threads only decode and send. The draws follow
+	 * the same rules as doTransaction(), with key sequences that start where
+	 * the load phase leaves off.
+	 * 
+	 * @param filename
+	 *            The operation stream to write.
+	 * @param count
+	 *            The number of operations to draw.
+	 */
+	void materializeOperations(String filename, int count) throws WorkloadException {
+		CounterGenerator insertsequence = new CounterGenerator(Config.getConfig().insert_start + Config.getConfig().record_count);
+		CounterGenerator txinsertsequence = new CounterGenerator(Config.getConfig().record_count);
+		IntegerGenerator chooser = new LiveKeyGenerator(newKeyChooser(txinsertsequence), txinsertsequence);
+		long st = System.currentTimeMillis();
+		
+		try {
+			TraceWriter writer = new TraceWriter(filename);
+			for (int i = 0; i < count; i++) {
+				MemcachedOperation op = operations[operationchooser.nextIndex()];
+				int keynum;
+				if (op == MemcachedOperation.SET) {
+					keynum = insertsequence.nextInt();
+				} else if (op == MemcachedOperation.ADD) {
+					keynum = txinsertsequence.nextInt();
+				} else {
+					keynum = chooser.nextInt();
+				}
+				int cost = keyCost(keynum);
+				int valuesize = valueLength(keynum, cost);
+				if (!orderedinserts) {
+					keynum = Utils.hash(keynum);
+				}
+				writer.write(i, op, keynum, valuesize, cost);
+			}
+			writer.close();
+		} catch (IOException e) {
+			throw new WorkloadException("Could not write operation stream " + filename + ": " + e.getMessage());
+		}
+		System.out.println("Materialized " + count + " operations to " + filename + " in "
+				+ (System.currentTimeMillis() - st) + " ms");
+	}
+	
+	/**
+	 * Set up the TTLs stores are made with: none, a constant ttl, uniform
+	 * between ttlmin and ttlmax, or a fixed TTL per cost class.
+	 */
+	void initTtls() throws WorkloadException {
+		String dist = Config.getConfig().ttl_distribution;
+		if (dist.compareTo("none") == 0) {
+			return;
+		} else if (dist.compareTo("constant") == 0) {
+			ttlchooser = new UniformIntegerGenerator(Config.getConfig().ttl, Config.getConfig().ttl);
+		} else if (dist.compareTo("uniform") == 0) {
+			if (Config.getConfig().ttl_min < 0 || Config.getConfig().ttl_max < Config.getConfig().ttl_min) {
+				throw new WorkloadException("TTLs must satisfy 0 <= " + Config.TTL_MIN_PROPERTY + " <= "
+						+ Config.TTL_MAX_PROPERTY);
+			}
+			ttlchooser = new UniformIntegerGenerator(Config.getConfig().ttl_min, Config.getConfig().ttl_max);
+		} else if (dist.compareTo("costclass") == 0) {
+			costttls = new int[] { Config.getConfig().high_cost_ttl, Config.getConfig().mid_cost_ttl,
+					Config.getConfig().low_cost_ttl };
 		} else {
-			throw new WorkloadException("Distribution \"" + Config.getConfig().scan_length_distribution + "\" not allowed for scan length");
+			throw new WorkloadException("Distribution \"" + dist + "\" not allowed for TTLs");
+		}
+		int keys = Config.getConfig().insert_start + Config.getConfig().record_count
+				+ Config.getConfig().operation_count;
+		expiries = new ExpiryTable(keys);
+	}
+	
+	/**
+	 * Return the TTL, in seconds, to store a value of the given cost with; 0
+	 * never expires.
+	 */
+	int nextTtl(int cost) {
+		if (ttlchooser != null) {
+			return ttlchooser.nextInt();
+		}
+		if (costttls != null) {
+			int costclass = costClass(cost);
+			return costclass < 0 ? 0 : costttls[costclass];
+		}
+		return 0;
+	}
+	
+	/**
+	 * Return the first cost class whose cost range holds the cost: 0 for
+	 * high, 1 for mid, 2 for low, or -1 if none does.
+	 */
+	int costClass(int cost) {
+		for (int i = 0; i < costmins.length; i++) {
+			if (cost >= costmins[i] && cost <= costmaxs[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Return the cost of a key. With value lengths chosen independently of
+	 * costs, the cost model gets to see the key's value length.
+	 */
+	int keyCost(int keynum) {
+		return costmodel.cost(keynum, lengthfirst ? valueLength(keynum, -1) : -1);
+	}
+	
+	/**
+	 * Set up the value size distribution. Sizes are drawn between valuesizemin
+	 * and valuesizemax, except for histogram, which has its own sizes, and
+	 * kept as a table of quantiles from which each key gets its size.
+	 */
+	void initValueSizes() throws WorkloadException {
+		String dist = Config.getConfig().value_size_distribution;
+		int min = Config.getConfig().value_size_min;
+		int max = Config.getConfig().value_size_max;
+		if (dist.compareTo("costclass") == 0) {
+			return;
+		}
+		if (min < 0 || max < min) {
+			throw new WorkloadException("Value sizes must satisfy 0 <= " + Config.VALUE_SIZE_MIN_PROPERTY + " <= "
+					+ Config.VALUE_SIZE_MAX_PROPERTY);
+		}
+		IntegerGenerator sizes;
+		if (dist.compareTo("constant") == 0) {
+			sizes = new UniformIntegerGenerator(Config.getConfig().value_length, Config.getConfig().value_length);
+		} else if (dist.compareTo("uniform") == 0) {
+			sizes = new UniformIntegerGenerator(min, max);
+		} else if (dist.compareTo("zipfian") == 0) {
+			sizes = new ZipfianGenerator(min, max);
+		} else if (dist.compareTo("lognormal") == 0) {
+			sizes = new LogNormalGenerator(min, max, Config.getConfig().value_size_lognormal_mu,
+					Config.getConfig().value_size_lognormal_sigma);
+		} else if (dist.compareTo("histogram") == 0) {
+			String filename = Config.getConfig().value_size_histogram;
+			if (filename == null) {
+				throw new WorkloadException("Property \"" + Config.VALUE_SIZE_HISTOGRAM_PROPERTY + "\" is required");
+			}
+			try {
+				sizes = new HistogramGenerator(filename);
+			} catch (IOException e) {
+				throw new WorkloadException("Could not read value size histogram " + filename + ": " + e.getMessage());
+			}
+		} else {
+			throw new WorkloadException("Unknown value size distribution \"" + dist + "\"");
+		}
+		
+		int samples = VALUE_SIZE_QUANTILES * 64;
+		int[] sample = new int[samples];
+		sizes.nextInts(sample, 0, samples);
+		Arrays.sort(sample);
+		int granularity = Config.getConfig().value_size_granularity;
+		valuesizequantiles = new int[VALUE_SIZE_QUANTILES];
+		for (int i = 0; i < VALUE_SIZE_QUANTILES; i++) {
+			int size = sample[i * 64 + 32];
+			if (granularity > 1) {
+				size = (size + granularity - 1) / granularity * granularity;
+			}
+			valuesizequantiles[i] = size;
+		}
+		
+		double correlation = Config.getConfig().value_size_cost_correlation;
+		if (correlation < -1 || correlation > 1) {
+			throw new WorkloadException("Property \"" + Config.VALUE_SIZE_COST_CORRELATION_PROPERTY
+					+ "\" must be between -1 and 1");
+		}
+		if (correlation == 0) {
+			lengthfirst = true;
+			return;
+		}
+		int keys = Math.max(Config.getConfig().record_count, 1);
+		Random random = new Random();
+		costsamples = new int[COST_SAMPLES];
+		for (int i = 0; i < COST_SAMPLES; i++) {
+			costsamples[i] = costmodel.cost(random.nextInt(keys), -1);
+		}
+		Arrays.sort(costsamples);
+	}
+	
+	static final int VALUE_SIZE_QUANTILES = 4096;
+	
+	static final int COST_SAMPLES = 1 << 16;
+	
+	/**
+	 * Return the fraction of keys with a cost below the given cost, estimated
+	 * from the sampled costs.
+	 */
+	double costQuantile(int cost) {
+		int[] c = costsamples;
+		int lo = 0, hi = c.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (c[mid] < cost) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		int below = lo;
+		hi = c.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (c[mid] <= cost) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return (below + lo) / 2.0 / c.length;
+	}
+	
+	/**
+	 * Return the length of a key's value, given the key's cost (-1 if not
+	 * known yet). With valuesizedistribution costclass, this is the length of
+	 * the cost class the cost falls in. Otherwise a hash of the key picks a
+	 * quantile of the size distribution, so a key keeps its size; with a cost
+	 * correlation r, a fraction |r| of the keys take their cost's quantile
+	 * instead (or the opposite one if r is negative), so costlier values are
+	 * larger (or smaller) while the size distribution stays the same.
+	 */
+	int valueLength(int keynum, int cost) {
+		int[] quantiles = valuesizequantiles;
+		if (quantiles == null) {
+			int costclass = costClass(cost);
+			return costclass < 0 ? Config.getConfig().value_length : costvaluelengths[costclass];
+		}
+		// rehash, so the size is independent of a cost also hashed from keynum
+		long h = Utils.FNVhash64(Utils.FNVhash64(keynum));
+		double q = (h >>> 10) * UNIT;
+		if (costsamples != null && cost >= 0) {
+			double correlation = Config.getConfig().value_size_cost_correlation;
+			if ((Utils.FNVhash64(h) >>> 10) * UNIT < Math.abs(correlation)) {
+				q = costQuantile(cost);
+				if (correlation < 0) {
+					q = 1 - q;
+				}
+			}
+		}
+		int i = (int) (q * quantiles.length);
+		return quantiles[Math.min(Math.max(i, 0), quantiles.length - 1)];
+	}
+	
+	/**
+	 * Scales the 53 bits left of a 63-bit hash to [0, 1).
+	 */
+	static final double UNIT = 1.0 / (1L << 53);
+	
+	/**
+	 * With an operation stream, each thread replays its own shard of it.
+	 * Otherwise each thread gets its own view of the key chooser, which draws
+	 * keys in batches of keybatchsize if that is set.
+	 */
+	public Object initThread(int mythreadid, int threadcount) throws WorkloadException {
+		IntegerGenerator chooser = keychooser;
+		if (Config.getConfig().key_batch_size > 0) {
+			chooser = new BufferedIntegerGenerator(keychooser, Config.getConfig().key_batch_size);
+		}
+		ThreadState state = new ThreadState(chooser, new KeyEncoder(Config.getConfig().key_prefix));
+		if (opstream != null) {
+			state.replay = opstream.initThread(mythreadid, threadcount);
+		}
+		return state;
+	}
+	
+	/**
+	 * Choose an existing key for a transaction.
+	 */
+	int nextKeynum(Object threadstate) {
+		return ((ThreadState) threadstate).keychooser.nextInt();
+	}
+	
+	/**
+	 * Build the key for a key number with the thread's key encoder. Every
+	 * operation goes through here, so they all agree on the key for a number.
+	 */
+	String buildKey(Object threadstate, int keynum) {
+		if (!orderedinserts) {
+			keynum = Utils.hash(keynum);
+		}
+		return ((ThreadState) threadstate).keyencoder.encode(keynum);
+	}
+
+	/**
+	 * Resize the working set of the churn distribution. Has no effect for the
+	 * other request distributions.
+	 */
+	public void changeWorkingSet(int workingset) {
+		IntegerGenerator distribution = ((LiveKeyGenerator) keychooser).getGenerator();
+		if (distribution instanceof ChurnGenerator) {
+			((ChurnGenerator) distribution).resizeWorkingSet(workingset);
+			Config.getConfig().working_set = workingset;
 		}
 	}
 
@@ -206,46 +751,45 @@ public class MemcachedCoreWorkload extends Workload {
 	 * it will be difficult to reach the target throughput. Ideally, this
 	 * function would have no side effects other than DB operations.
 	 */
-	public ReturnMsg doInsert(DataStore memcached, int load) {
-		ReturnMsg result_msg;
+	public ReturnMsg doInsert(DataStore memcached, Object threadstate, int load) {
 		int result;
-		String value = null;
 		int keynum = keysequence.nextInt();
-		if (!orderedinserts) {
-			keynum = Utils.hash(keynum);
-		}
+		String dbkey = buildKey(threadstate, keynum);
+		int cost = keyCost(keynum);
+		byte[] value = values.get(valueLength(keynum, cost), keynum);
 		
-		String dbkey = Config.getConfig().key_prefix + keynum;
-		dbkey = dbkey.substring(dbkey.length() - 16 ,dbkey.length());
-		//String value = Utils.ASCIIString(Config.getConfig().value_length);
-		Integer cost = 0;
-		String costl = costchooser.nextString();
-		if (costl.compareTo("HIGH") == 0) {
-			cost = highcostchooser.nextInt();
-			value = Utils.ASCIIString(Config.getConfig().high_value_length);
-		} else if (costl.compareTo("MID") == 0) {
-			cost = midcostchooser.nextInt();
-			value = Utils.ASCIIString(Config.getConfig().mid_value_length);
-		} else if (costl.compareTo("LOW") == 0) {
-			cost = lowcostchooser.nextInt();
-			value = Utils.ASCIIString(Config.getConfig().low_value_length);
-		}
+		result = store((Memcached) memcached, keynum, dbkey, value, load, cost);
 		
-		if (Config.getConfig().default_set == true) {
-			result = ((Memcached)memcached).set(dbkey, value, load);
-		} else {
-			result = ((Memcached)memcached).set_cost(dbkey, value, load, (int)cost);
+		return ((ThreadState) threadstate).msg.set(result == 0, MemcachedOperation.SET, dbkey, cost, false);
+	}
+
+	/**
+	 * Set a key with set() or set_cost(), as default_set says, and with its
+	 * TTL, which is recorded for classifying misses.
+	 */
+	int store(Memcached memcached, int keynum, String key, Object value, int load, int cost) {
+		int exptime = nextTtl(cost);
+		if (expiries != null) {
+			expiries.set(keynum, exptime);
 		}
-		
-		if (result == 0) {
-			result_msg = new ReturnMsg(true, "SET", dbkey, cost, false);
-			return result_msg;
+		if (Config.getConfig().default_set == true) {
+			return memcached.set(key, value, load, exptime);
 		} else {
-			result_msg = new ReturnMsg(false, "SET", dbkey, cost, false);
-			return result_msg;
+			return memcached.set_cost(key, value, load, cost, exptime);
 		}
 	}
-
+	
+	/**
+	 * Count a get miss as expired or evicted, with the latency of the get.
+	 * Only done when stores have TTLs; returns whether the key had expired.
+	 */
+	boolean classifyMiss(int keynum, long start) {
+		boolean expired = expiries.expired(keynum);
+		_measurements.measurePart(expired ? "GET-EXPIRED-MISS" : "GET-EVICTED-MISS",
+				(int) ((System.nanoTime() - start) / 1000));
+		return expired;
+	}
+	
 	/**
 	 * Do one transaction operation. Because it will be called concurrently from
 	 * multiple client threads, this function must be thread safe. However,
@@ -253,207 +797,299 @@ public class MemcachedCoreWorkload extends Workload {
 	 * it will be difficult to reach the target throughput. Ideally, this
 	 * function would have no side effects other than DB operations.
 	 */
-	public ReturnMsg doTransaction(DataStore memcached, int num_set) {
-		String op = operationchooser.nextString();
-		ReturnMsg result;
-		if (op.compareTo("ADD") == 0) {
-			doTransactionAdd((Memcached)memcached);
-		} else if (op.compareTo("APPEND") == 0) {
-			doTransactionAppend((Memcached)memcached);
-		} else if (op.compareTo("CAS") == 0) {
-			doTransactionCas((Memcached)memcached);
-		} else if (op.compareTo("DECR") == 0) {
-			doTransactionDecr((Memcached)memcached);
-		} else if (op.compareTo("DELETE") == 0) {
-			doTransactionDelete((Memcached)memcached);
-		} else if (op.compareTo("GET") == 0) {
-			return doTransactionGet((Memcached)memcached);
-		} else if (op.compareTo("GETS") == 0) {
-			doTransactionGets((Memcached)memcached);
-		} else if (op.compareTo("INCR") == 0) {
-			doTransactionIncr((Memcached)memcached);
-		} else if (op.compareTo("PREPEND") == 0) {
-			doTransactionPrepend((Memcached)memcached);
-		} else if (op.compareTo("REPLACE") == 0) {
-			doTransactionReplace((Memcached)memcached);
-		} else if (op.compareTo("SET") == 0) {
-			return doInsert((Memcached)memcached, 0);
-		} else if (op.compareTo("UPDATE") == 0) {
-			doTransactionUpdate((Memcached)memcached);
-		}
-		/*if ((double)num_set/(double)(Config.getConfig().operation_count - 
-		    Config.getConfig().record_count) > Config.getConfig().memset_proportion) {
-			return doTransactionGet((Memcached)memcached);
-		} else {
-			return doInsert((Memcached)memcached);
-		}*/
-		result = new ReturnMsg(true, null, null, null, false);
-		return result;
+	public ReturnMsg doTransaction(DataStore memcached, Object threadstate, int num_set) {
+		if (opstream != null) {
+			return opstream.doTransaction(memcached, ((ThreadState) threadstate).replay, num_set);
+		}
+		Memcached db = (Memcached) memcached;
+		if (((ThreadState) threadstate).fills != null) {
+			drainFills(db, (ThreadState) threadstate, false);
+		}
+		switch (operations[operationchooser.nextIndex()]) {
+		case ADD:
+			doTransactionAdd(db, threadstate);
+			break;
+		case APPEND:
+			doTransactionAppend(db, threadstate);
+			break;
+		case CAS:
+			doTransactionCas(db, threadstate);
+			break;
+		case DECR:
+			doTransactionDecr(db, threadstate);
+			break;
+		case DELETE:
+			doTransactionDelete(db, threadstate);
+			break;
+		case GET:
+			return doTransactionGet(db, threadstate);
+		case GETS:
+			doTransactionGets(db, threadstate);
+			break;
+		case INCR:
+			doTransactionIncr(db, threadstate);
+			break;
+		case MULTIGET:
+			return doTransactionMultiget(db, threadstate);
+		case PREPEND:
+			doTransactionPrepend(db, threadstate);
+			break;
+		case REPLACE:
+			doTransactionReplace(db, threadstate);
+			break;
+		case SET:
+			return doInsert(db, threadstate, 0);
+		case UPDATE:
+			doTransactionUpdate(db, threadstate);
+			break;
+		}
+		return ((ThreadState) threadstate).msg.set(true, null, null, 0, false);
 	}
 	
-	public void doTransactionAdd(Memcached memcached) {
+	public void doTransactionAdd(Memcached memcached, Object threadstate) {
 		// choose the next key
 		int keynum = transactioninsertkeysequence.nextInt();
-		if (!orderedinserts) {
-			keynum = Utils.hash(keynum);
+		String dbkey = buildKey(threadstate, keynum);
+		int cost = keyCost(keynum);
+		byte[] value = values.get(valueLength(keynum, cost), keynum);
+		int exptime = nextTtl(cost);
+		if (memcached.add(dbkey, value, exptime) == 0 && expiries != null) {
+			expiries.set(keynum, exptime);
 		}
-		String dbkey = Config.getConfig().key_prefix + keynum;
-		String value = Utils.ASCIIString(Config.getConfig().value_length);
-		memcached.add(dbkey, value);
 	}
 	
-	public void doTransactionAppend(Memcached memcached) {
-		int keynum;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
-
-		if (!orderedinserts) {
-			keynum = Utils.hash(keynum);
-		}
-		String key = Config.getConfig().key_prefix + keynum;
+	public void doTransactionAppend(Memcached memcached, Object threadstate) {
+		int keynum = nextKeynum(threadstate);
+		String key = buildKey(threadstate, keynum);
 		memcached.append(key, 0, "appended_string");
 	}
 	
-	public void doTransactionCas(Memcached memcached) {
-		int keynum;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
-
-		if (!orderedinserts) {
-			keynum = Utils.hash(keynum);
-		}
-		String key = Config.getConfig().key_prefix + keynum;
+	public void doTransactionCas(Memcached memcached, Object threadstate) {
+		int keynum = nextKeynum(threadstate);
+		String key = buildKey(threadstate, keynum);
 		long cas = memcached.gets(key);
-		String value = Utils.ASCIIString(Config.getConfig().value_length);
-		memcached.cas(key, cas, value);
+		byte[] value = values.get(valueLength(keynum, keyCost(keynum)), keynum);
+		if (memcached.cas(key, cas, value) == 0 && expiries != null) {
+			expiries.set(keynum, 0);
+		}
 	}
 	
-	public void doTransactionDecr(Memcached memcached) {
-		
+	/**
+	 * Decrement a counter, creating it at 0 if the decrement misses, as a
+	 * decrement below 0 leaves 0.
+	 */
+	public void doTransactionDecr(Memcached memcached, Object threadstate) {
+		String key = nextCounter(threadstate);
+		if (memcached.decr(key, ONE) == -1 && memcached.add(key, COUNTER_INITIAL) == -1) {
+			// another thread created it first
+			memcached.decr(key, ONE);
+		}
 	}
 	
-	public void doTransactionDelete(Memcached memcached) {
-		
+	/**
+	 * Delete a counter. The next INCR or DECR of it misses and recreates it.
+	 */
+	public void doTransactionDelete(Memcached memcached, Object threadstate) {
+		memcached.delete(nextCounter(threadstate));
 	}
 
-	public ReturnMsg doTransactionGet(Memcached memcached) {
-		int keynum;
-		ReturnMsg result_msg;
+	/**
+	 * Get a key, and set it if the get missed. With misspenalty set, the fill
+	 * is deferred by the miss cost times the penalty, as if the value were
+	 * being fetched from the backend, and the thread carries on with other
+	 * operations meanwhile. GET-E2E then records the latency the user would
+	 * see: the get for a hit, and the get plus the fetch for a miss.
+	 * 
+	 * With metaget set the get is a meta_get(), and for a hit whose binding
+	 * reports it, GET-LAST-ACCESS records how long ago the item was last
+	 * accessed.
+	 */
+	public ReturnMsg doTransactionGet(Memcached memcached, Object threadstate) {
+		ThreadState state = (ThreadState) threadstate;
+		ReturnMsg msg = state.msg;
 		int result;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
+		int keynum = nextKeynum(threadstate);
+		String keyname = buildKey(threadstate, keynum);
+		long start = System.nanoTime();
 
-		if (!orderedinserts) {
-			keynum = Utils.hash(keynum);
+		int res;
+		if (state.meta != null) {
+			res = memcached.meta_get(keyname, verifier, state.meta);
+		} else {
+			res = memcached.get(keyname, verifier);
 		}
-		String keyname = Config.getConfig().key_prefix + keynum;
-		keyname = keyname.substring(keyname.length() - 16 ,keyname.length());
-
-		if (memcached.get(keyname, null) != 0) {
-			//String value = Utils.ASCIIString(Config.getConfig().value_length);
-			Integer cost = 0;
-			String value = null;
-			String costl = costchooser.nextString();
-			if (costl.compareTo("HIGH") == 0) {
-				cost = highcostchooser.nextInt();
-				value = Utils.ASCIIString(Config.getConfig().high_value_length);
-			} else if (costl.compareTo("MID") == 0) {
-				cost = midcostchooser.nextInt();
-				value = Utils.ASCIIString(Config.getConfig().mid_value_length);
-			} else if (costl.compareTo("LOW") == 0) {
-				cost = lowcostchooser.nextInt();
-				value = Utils.ASCIIString(Config.getConfig().low_value_length);
-			}
+		long end = System.nanoTime();
+		if (res != 0) {
+			boolean expired = expiries != null && classifyMiss(keynum, start);
+			int cost = keyCost(keynum);
+			byte[] value = values.get(valueLength(keynum, cost), keynum);
 			
-			if (Config.getConfig().default_set == true) {
-				result = ((Memcached)memcached).set(keyname, value, 0);
-			} else {
-				result = ((Memcached)memcached).set_cost(keyname, value, 0, (int)cost);
+			if (state.fills != null) {
+				// the fetch starts once the get has missed
+				long due = end + (long) (cost * Config.getConfig().miss_penalty * 1000);
+				state.fills.add(due, start, keynum, keyname, value, cost);
+				return msg.set(true, MemcachedOperation.GET, keyname, cost, true).setExpired(expired ? 1 : 0);
 			}
-		
-			if (result == 0) {
-				result_msg = new ReturnMsg(true, "GET", keyname, cost, true);
-				return result_msg;
-			} else {
-				result_msg = new ReturnMsg(false, "GET", keyname, cost, true);
-				return result_msg;
+			result = store(memcached, keynum, keyname, value, 0, cost);
+			return msg.set(result == 0, MemcachedOperation.GET, keyname, cost, true).setExpired(expired ? 1 : 0);
+		}
+		if (state.fills != null) {
+			_measurements.measurePart("GET-E2E", (int) ((end - start) / 1000));
+		}
+		if (state.meta != null && state.meta.lastaccess >= 0) {
+			_measurements.measurePart("GET-LAST-ACCESS", (int) Math.min(Integer.MAX_VALUE, state.meta.lastaccess * 1000000L));
+		}
+		return msg.set(true, MemcachedOperation.GET, keyname, 0, false);
+	}
+	
+	/**
+	 * Set the deferred get-miss fills whose fetch has completed. With wait,
+	 * set all of them, parking until each one is due.
+	 */
+	void drainFills(Memcached memcached, ThreadState state, boolean wait) {
+		PendingFills fills = state.fills;
+		while (fills.size() > 0) {
+			long due = fills.peekDue();
+			long now = System.nanoTime();
+			if (due > now) {
+				if (!wait) {
+					return;
+				}
+				LockSupport.parkNanos(due - now);
+				continue;
 			}
+			store(memcached, fills.peekKeynum(), fills.peekKey(), fills.peekValue(), 0, fills.peekCost());
+			_measurements.measurePart("GET-E2E", (int) ((due - fills.peekStart()) / 1000));
+			fills.poll();
 		}
-		result_msg = new ReturnMsg(true, "GET", keyname, null, false);
-		return result_msg;
 	}
 	
-	public long doTransactionGets(Memcached memcached) {
-		int keynum;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
-
-		if (!orderedinserts) {
-			keynum = Utils.hash(keynum);
+	/**
+	 * Set the get-miss fills still waiting on their simulated fetch.
+	 */
+	public void cleanupThread(DataStore db, Object threadstate) {
+		ThreadState state = (ThreadState) threadstate;
+		if (state.fills != null) {
+			drainFills((Memcached) db, state, true);
 		}
-		return memcached.gets(Config.getConfig().key_prefix + keynum);
 	}
 	
-	public void doTransactionIncr(Memcached memcached) {
+	/**
+	 * Get a batch of keys in one request, then refill the misses with one
+	 * pipelined batch of sets. A batch that fails outright refills nothing.
+	 */
+	public ReturnMsg doTransactionMultiget(Memcached memcached, Object threadstate) {
+		ThreadState state = (ThreadState) threadstate;
+		int count = batchsizechooser.nextInt();
+		for (int i = 0; i < count; i++) {
+			state.batchkeynums[i] = nextKeynum(threadstate);
+			state.batchkeys[i] = buildKey(threadstate, state.batchkeynums[i]);
+		}
+		
+		long start = System.nanoTime();
+		int result = memcached.get_multi(state.batchkeys, count, state.batchhits, verifier);
+		if (result == -2 || result == -3 || result == -5) {
+			// the hits are not known, so there is nothing to refill
+			return state.msg.set(false, MemcachedOperation.MULTIGET, null, 0, false);
+		}
+		
+		int misses = 0;
+		int expired = 0;
+		for (int i = 0; i < count; i++) {
+			if (!state.batchhits[i]) {
+				int keynum = state.batchkeynums[i];
+				int cost = keyCost(keynum);
+				if (expiries != null && classifyMiss(keynum, start)) {
+					expired++;
+				}
+				state.fillkeys[misses] = state.batchkeys[i];
+				state.fillcosts[misses] = cost;
+				state.fillexptimes[misses] = nextTtl(cost);
+				state.fillvalues[misses] = values.get(valueLength(keynum, cost), keynum);
+				if (expiries != null) {
+					expiries.set(keynum, state.fillexptimes[misses]);
+				}
+				misses++;
+			}
+		}
+		if (misses > 0) {
+			int[] costs = Config.getConfig().default_set ? null : state.fillcosts;
+			int[] exptimes = expiries == null ? null : state.fillexptimes;
+			int res = memcached.set_multi(state.fillkeys, state.fillvalues, costs, exptimes, misses);
+			if (res != 0) {
+				result = res;
+			}
+		}
 		
+		return state.msg.set(result == 0, MemcachedOperation.MULTIGET, null, 0, misses > 0)
+				.setBatch(count, state.fillkeys, state.fillcosts, misses).setExpired(expired);
 	}
 	
-	public void doTransactionPrepend(Memcached memcached) {
-		int keynum;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
-
-		if (!orderedinserts) {
-			keynum = Utils.hash(keynum);
+	public long doTransactionGets(Memcached memcached, Object threadstate) {
+		int keynum = nextKeynum(threadstate);
+		return memcached.gets(buildKey(threadstate, keynum));
+	}
+	
+	/**
+	 * Increment a counter, creating it at 1 if the increment misses. Counters live
+	 * in their own keyspace of countercount keys, chosen by
+	 * counterdistribution, and are not loaded up front; they come into
+	 * existence as they are first touched.
+	 */
+	public void doTransactionIncr(Memcached memcached, Object threadstate) {
+		String key = nextCounter(threadstate);
+		if (memcached.incr(key, ONE) == -1 && memcached.add(key, COUNTER_ONE) == -1) {
+			// another thread created it first
+			memcached.incr(key, ONE);
 		}
-		String key = Config.getConfig().key_prefix + keynum;
+	}
+	
+	/**
+	 * Choose a counter and return its key.
+	 */
+	String nextCounter(Object threadstate) {
+		return ((ThreadState) threadstate).counterencoder.encode(counterchooser.nextInt());
+	}
+	
+	static final Long ONE = Long.valueOf(1);
+	
+	/**
+	 * The values a counter is created with by a decrement and by an
+	 * increment. Arithmetic needs a decimal value.
+	 */
+	static final byte[] COUNTER_INITIAL = { '0' };
+	static final byte[] COUNTER_ONE = { '1' };
+	
+	public void doTransactionPrepend(Memcached memcached, Object threadstate) {
+		int keynum = nextKeynum(threadstate);
+		String key = buildKey(threadstate, keynum);
 		memcached.prepend(key, 0, "prepended_string");
 	}
 	
-	public void doTransactionReplace(Memcached memcached) {
-		int keynum;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
-
-		if (!orderedinserts) {
-			keynum = Utils.hash(keynum);
+	public void doTransactionReplace(Memcached memcached, Object threadstate) {
+		int keynum = nextKeynum(threadstate);
+		String key = buildKey(threadstate, keynum);
+		int cost = keyCost(keynum);
+		byte[] value = values.get(valueLength(keynum, cost), keynum);
+		int exptime = nextTtl(cost);
+		if (memcached.replace(key, value, exptime) == 0 && expiries != null) {
+			expiries.set(keynum, exptime);
 		}
-		String key = Config.getConfig().key_prefix + keynum;
-		String value = Utils.ASCIIString(Config.getConfig().value_length);
-		memcached.replace(key, value);
 	}
 	
-	public void doTransactionSet(Memcached memcached) {
-		int keynum;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
-
-		if (!orderedinserts) {
-			keynum = Utils.hash(keynum);
-		}
-		String keyname = Config.getConfig().key_prefix + keynum;
-		String value = Utils.ASCIIString(Config.getConfig().value_length);
-		memcached.set(keyname, value, 0);
+	public void doTransactionSet(Memcached memcached, Object threadstate) {
+		int keynum = nextKeynum(threadstate);
+		String keyname = buildKey(threadstate, keynum);
+		int cost = keyCost(keynum);
+		store(memcached, keynum, keyname, values.get(valueLength(keynum, cost), keynum), 0, cost);
 	}
 	
-	public void doTransactionUpdate(Memcached memcached) {
-		int keynum;
-		do {
-			keynum = keychooser.nextInt();
-		} while (keynum > transactioninsertkeysequence.lastInt());
-
-		if (!orderedinserts) {
-			keynum = Utils.hash(keynum);
+	public void doTransactionUpdate(Memcached memcached, Object threadstate) {
+		int keynum = nextKeynum(threadstate);
+		String keyname = buildKey(threadstate, keynum);
+		byte[] value = values.get(valueLength(keynum, keyCost(keynum)), keynum);
+		if (memcached.update(keyname, value) == 0 && expiries != null) {
+			expiries.set(keynum, 0);
 		}
-		String keyname = Config.getConfig().key_prefix + keynum;
-		String value = Utils.ASCIIString(Config.getConfig().value_length);
-		memcached.update(keyname, value);
 	}
 }
@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2010 Yahoo! Inc. All rights reserved. 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb.workloads;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.locks.LockSupport;
+
+import com.yahoo.ycsb.Config;
+import com.yahoo.ycsb.DataStore;
+import com.yahoo.ycsb.ReturnMsg;
+import com.yahoo.ycsb.Workload;
+import com.yahoo.ycsb.WorkloadException;
+import com.yahoo.ycsb.memcached.KeyEncoder;
+import com.yahoo.ycsb.memcached.Memcached;
+import com.yahoo.ycsb.memcached.MemcachedOperation;
+import com.yahoo.ycsb.memcached.ValuePool;
+import com.yahoo.ycsb.memcached.ValueVerifier;
+import com.yahoo.ycsb.trace.TraceReader;
+
+/**
+ * Replays a binary memcached trace instead of drawing keys and operations
+ * from synthetic distributions. Each client thread replays its own contiguous
+ * shard of the trace, read through a memory mapped buffer. Every client
+ * process replays the whole file, so give each slave its own trace.
+ * 
+ * Properties to control the client:
+ * <UL>
+ * <LI><b>tracefile</b>: the binary trace to replay, see TraceReader for the
+ * format and TraceWriter to convert a text trace (required)
+ * <LI><b>tracepacing</b>: should each record wait until its recorded time
+ * since the first record of the trace (true) or replay as fast as possible
+ * (false) (default: false). All threads keep the one clock, started by the
+ * first record any of them replays, so together they replay the trace at its
+ * recorded rate.
+ * <LI><b>tracespeedup</b>: with tracepacing, how much faster than recorded
+ * to replay the trace (default: 1.0)
+ * </ul>
+ * If operationcount is 0 it is set to the number of records in the trace,
+ * plus one per thread for finding its shard has ended.
+ */
+public class MemcachedTraceWorkload extends Workload {
+	
+	/**
+	 * The per-thread replay state.
+	 */
+	static class TraceState {
+		TraceReader reader;
+		KeyEncoder keyencoder;
+		ReturnMsg msg;
+		
+		TraceState(TraceReader reader) {
+			this.reader = reader;
+			keyencoder = new KeyEncoder(Config.getConfig().key_prefix);
+			msg = new ReturnMsg();
+		}
+	}
+	
+	String tracefile;
+	
+	boolean pacing;
+	
+	double speedup;
+	
+	/**
+	 * With pacing, the timestamp of the trace's first record, and the time
+	 * the first record was replayed by any thread, or 0 until then.
+	 */
+	long firsttimestamp;
+	volatile long starttime;
+	
+	ValuePool values;
+	
+	ValueVerifier verifier;
+	
+	public MemcachedTraceWorkload() {
+	}
+	
+	/**
+	 * Create a workload that replays the given trace without pacing. Used by
+	 * MemcachedCoreWorkload to replay a pre-materialized operation stream; no
+	 * init() call is needed.
+	 */
+	MemcachedTraceWorkload(String tracefile) {
+		this.tracefile = tracefile;
+		this.pacing = false;
+		this.speedup = 1.0;
+		initValues();
+	}
+
+	/**
+	 * Initialize the scenario. Called once, in the main client thread, before
+	 * any operations are started.
+	 */
+	public void init() throws WorkloadException {
+		tracefile = Config.getConfig().trace_file;
+		pacing = Config.getConfig().trace_pacing;
+		speedup = Config.getConfig().trace_speedup;
+		initValues();
+		
+		if (tracefile == null) {
+			throw new WorkloadException("Property \"" + Config.TRACE_FILE_PROPERTY + "\" is required");
+		}
+		if (speedup <= 0) {
+			throw new WorkloadException("Property \"" + Config.TRACE_SPEEDUP_PROPERTY + "\" must be positive");
+		}
+		
+		long records;
+		try {
+			RandomAccessFile file = new RandomAccessFile(tracefile, "r");
+			try {
+				records = TraceReader.readHeader(file.getChannel());
+				firsttimestamp = TraceReader.readFirstTimestamp(file.getChannel(), records);
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			throw new WorkloadException("Could not open trace " + tracefile + ": " + e.getMessage());
+		}
+		
+		if (Config.getConfig().operation_count == 0) {
+			// each thread also takes an operation to find its shard has ended
+			long operations = records + Config.getConfig().record_count + Config.getConfig().thread_count;
+			Config.getConfig().operation_count = (int) Math.min(operations, Integer.MAX_VALUE);
+		}
+	}
+	
+	void initValues() {
+		values = new ValuePool(Config.getConfig().value_pool_size, Config.getConfig().value_verify,
+				ValuePool.SPREAD_MAX_BYTES);
+		verifier = Config.getConfig().value_verify ? values : null;
+	}
+	
+	public Object initThread(int mythreadid, int threadcount) throws WorkloadException {
+		try {
+			return new TraceState(new TraceReader(tracefile, mythreadid, threadcount));
+		} catch (IOException e) {
+			throw new WorkloadException("Could not open trace " + tracefile + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * A trace has no separate load phase, so inserts replay the trace too.
+	 */
+	public ReturnMsg doInsert(DataStore memcached, Object threadstate, int load) {
+		return doTransaction(memcached, threadstate, 0);
+	}
+
+	/**
+	 * Replay the next record of this thread's shard.
+	 */
+	public ReturnMsg doTransaction(DataStore db, Object threadstate, int num_set) {
+		TraceState state = (TraceState) threadstate;
+		TraceReader reader = state.reader;
+		try {
+			if (!reader.next()) {
+				reader.close();
+				return null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		
+		if (pacing) {
+			pace(reader.getTimestamp());
+		}
+		
+		Memcached memcached = (Memcached) db;
+		long keynum = reader.getKey();
+		String dbkey = state.keyencoder.encode(keynum);
+		int key = (int) (keynum ^ (keynum >>> 32));
+		int cost = reader.getCost();
+		int valuesize = reader.getValueSize();
+		MemcachedOperation op = reader.getOperation();
+		
+		if (op == null) {
+			return state.msg.set(false, null, dbkey, 0, false);
+		}
+		
+		switch (op) {
+		case GET:
+			if (memcached.get(dbkey, verifier) != 0) {
+				int result = store(memcached, dbkey, key, valuesize, cost);
+				return state.msg.set(result == 0, MemcachedOperation.GET, dbkey, cost, true);
+			}
+			return state.msg.set(true, MemcachedOperation.GET, dbkey, 0, false);
+		case SET:
+			return state.msg.set(store(memcached, dbkey, key, valuesize, cost) == 0, MemcachedOperation.SET, dbkey, cost, false);
+		case ADD:
+			memcached.add(dbkey, values.get(valuesize, key));
+			break;
+		case REPLACE:
+			memcached.replace(dbkey, values.get(valuesize, key));
+			break;
+		case APPEND:
+			memcached.append(dbkey, 0, values.get(valuesize, key));
+			break;
+		case PREPEND:
+			memcached.prepend(dbkey, 0, values.get(valuesize, key));
+			break;
+		case CAS:
+			memcached.cas(dbkey, memcached.gets(dbkey), values.get(valuesize, key));
+			break;
+		case GETS:
+			memcached.gets(dbkey);
+			break;
+		case INCR:
+			memcached.incr(dbkey, 1);
+			break;
+		case DECR:
+			memcached.decr(dbkey, 1);
+			break;
+		case DELETE:
+			memcached.delete(dbkey);
+			break;
+		case UPDATE:
+			memcached.update(dbkey, values.get(valuesize, key));
+			break;
+		}
+		return state.msg.set(true, null, null, 0, false);
+	}
+	
+	/**
+	 * Unmap this thread's shard, which is still open if the run stopped
+	 * before the shard ran out.
+	 */
+	public void cleanupThread(DataStore db, Object threadstate) {
+		try {
+			((TraceState) threadstate).reader.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	int store(Memcached memcached, String dbkey, int key, int valuesize, int cost) {
+		byte[] value = values.get(valuesize, key);
+		if (Config.getConfig().default_set == true) {
+			return memcached.set(dbkey, value, 0);
+		} else {
+			return memcached.set_cost(dbkey, value, 0, cost);
+		}
+	}
+	
+	/**
+	 * Wait until the recorded time since the first record of the trace has
+	 * passed since the first record was replayed.
+	 */
+	void pace(long timestamp) {
+		long start = starttime;
+		if (start == 0) {
+			synchronized (this) {
+				if (starttime == 0) {
+					starttime = System.nanoTime();
+				}
+				start = starttime;
+			}
+		}
+		long due = start + (long) ((timestamp - firsttimestamp) * 1000 / speedup);
+		long now;
+		while ((now = System.nanoTime()) < due) {
+			LockSupport.parkNanos(due - now);
+		}
+	}
+}
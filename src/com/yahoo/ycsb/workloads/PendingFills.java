@@ -0,0 +1,143 @@
+package com.yahoo.ycsb.workloads;
+
+/**
+ * The miss fills a client thread has deferred until their simulated backend
+ * fetch completes, ordered by due time. A binary heap over parallel arrays,
+ * so adding and removing fills allocates nothing once the arrays have grown
+ * to the number of fills in flight. Not thread safe.
+ */
+class PendingFills {
+	long[] due;
+	long[] start;
+	int[] keynums;
+	String[] keys;
+	Object[] values;
+	int[] costs;
+	int size;
+
+	PendingFills() {
+		due = new long[64];
+		start = new long[64];
+		keynums = new int[64];
+		keys = new String[64];
+		values = new Object[64];
+		costs = new int[64];
+		size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Add a fill.
+	 *
+	 * @param due
+	 *            When the simulated fetch completes, in System.nanoTime().
+	 * @param start
+	 *            When the get that missed was issued, in System.nanoTime().
+	 */
+	void add(long due, long start, int keynum, String key, Object value, int cost) {
+		if (size == this.due.length) {
+			grow();
+		}
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (this.due[parent] <= due) {
+				break;
+			}
+			move(parent, i);
+			i = parent;
+		}
+		set(i, due, start, keynum, key, value, cost);
+	}
+
+	/**
+	 * The due time of the earliest fill. Only valid if size() > 0.
+	 */
+	long peekDue() {
+		return due[0];
+	}
+
+	long peekStart() {
+		return start[0];
+	}
+
+	int peekKeynum() {
+		return keynums[0];
+	}
+
+	String peekKey() {
+		return keys[0];
+	}
+
+	Object peekValue() {
+		return values[0];
+	}
+
+	int peekCost() {
+		return costs[0];
+	}
+
+	/**
+	 * Remove the earliest fill.
+	 */
+	void poll() {
+		int last = --size;
+		long d = due[last];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= last) {
+				break;
+			}
+			if (child + 1 < last && due[child + 1] < due[child]) {
+				child++;
+			}
+			if (d <= due[child]) {
+				break;
+			}
+			move(child, i);
+			i = child;
+		}
+		set(i, d, start[last], keynums[last], keys[last], values[last], costs[last]);
+		keys[last] = null;
+		values[last] = null;
+	}
+
+	void move(int from, int to) {
+		set(to, due[from], start[from], keynums[from], keys[from], values[from], costs[from]);
+	}
+
+	void set(int i, long due, long start, int keynum, String key, Object value, int cost) {
+		this.due[i] = due;
+		this.start[i] = start;
+		keynums[i] = keynum;
+		keys[i] = key;
+		values[i] = value;
+		costs[i] = cost;
+	}
+
+	void grow() {
+		int n = due.length * 2;
+		long[] d = new long[n];
+		long[] s = new long[n];
+		int[] kn = new int[n];
+		String[] k = new String[n];
+		Object[] v = new Object[n];
+		int[] c = new int[n];
+		System.arraycopy(due, 0, d, 0, size);
+		System.arraycopy(start, 0, s, 0, size);
+		System.arraycopy(keynums, 0, kn, 0, size);
+		System.arraycopy(keys, 0, k, 0, size);
+		System.arraycopy(values, 0, v, 0, size);
+		System.arraycopy(costs, 0, c, 0, size);
+		due = d;
+		start = s;
+		keynums = kn;
+		keys = k;
+		values = v;
+		costs = c;
+	}
+}